@@ -0,0 +1,37 @@
+package org.irunika.websocket.test.bench.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options.
+ * Unless a result file is given with -rff, results are stored as JSON in
+ * {@code results/<version>-<timestamp>.json}, so the results of two versions of the test bench can be compared.
+ *
+ * @author irunika
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] argv) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(argv);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+        if (!commandLineOptions.getResult().hasValue()) {
+            String version = BenchmarkRunner.class.getPackage().getImplementationVersion();
+            String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            Path resultsDirectory = Files.createDirectories(Paths.get("results"));
+            options.resultFormat(ResultFormatType.JSON)
+                    .result(resultsDirectory.resolve((version != null ? version : "dev") + "-" + timestamp + ".json")
+                                    .toString());
+        }
+        new Runner(options.build()).run();
+    }
+}
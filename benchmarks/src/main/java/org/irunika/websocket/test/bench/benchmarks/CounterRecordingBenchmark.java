@@ -0,0 +1,98 @@
+package org.irunika.websocket.test.bench.benchmarks;
+
+import org.irunika.websocket.test.bench.metrics.Counter;
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of recording a received message: the latency histogram and the message counter of a connection, and of
+ * merging the histograms of all the connections as the interval reporter does. Recording does not depend on the
+ * payload size, so only the no of connections is varied. The single writer counter of a connection is compared
+ * with an atomic counter.
+ *
+ * @author irunika
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CounterRecordingBenchmark {
+
+    private static final int NO_OF_LATENCIES = 4096;
+
+    @Param({"1", "100", "1000"})
+    int noOfConnections;
+
+    private LatencyHistogram[] latencyHistograms;
+    private Counter[] noOfMessagesReceived;
+    private AtomicLong[] atomicNoOfMessagesReceived;
+    private long[] latencies;
+    private int nextConnection;
+    private int nextLatency;
+
+    @Setup
+    public void setup() {
+        latencyHistograms = new LatencyHistogram[noOfConnections];
+        noOfMessagesReceived = new Counter[noOfConnections];
+        atomicNoOfMessagesReceived = new AtomicLong[noOfConnections];
+        for (int i = 0; i < noOfConnections; i++) {
+            latencyHistograms[i] = new LatencyHistogram();
+            noOfMessagesReceived[i] = new Counter();
+            atomicNoOfMessagesReceived[i] = new AtomicLong();
+        }
+        // Latencies spread over 100us to 100ms on a log scale
+        Random random = new Random(42);
+        latencies = new long[NO_OF_LATENCIES];
+        for (int i = 0; i < NO_OF_LATENCIES; i++) {
+            latencies[i] = (long) (100_000 * Math.pow(1000, random.nextDouble()));
+        }
+    }
+
+    @Benchmark
+    public void recordLatency() {
+        int connection = nextConnection();
+        latencyHistograms[connection].recordValue(latencies[nextLatency]);
+        nextLatency = (nextLatency + 1) & (NO_OF_LATENCIES - 1);
+    }
+
+    @Benchmark
+    public long incrementMessageCounter() {
+        return noOfMessagesReceived[nextConnection()].increment();
+    }
+
+    @Benchmark
+    public long incrementAtomicMessageCounter() {
+        return atomicNoOfMessagesReceived[nextConnection()].incrementAndGet();
+    }
+
+    @Benchmark
+    public LatencyHistogram mergeHistograms() {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (LatencyHistogram latencyHistogram : latencyHistograms) {
+            merged.add(latencyHistogram);
+        }
+        return merged;
+    }
+
+    private int nextConnection() {
+        int connection = nextConnection;
+        nextConnection = connection + 1 == noOfConnections ? 0 : connection + 1;
+        return connection;
+    }
+}
@@ -0,0 +1,111 @@
+package org.irunika.websocket.test.bench.benchmarks;
+
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.irunika.websocket.test.bench.EchoValidator;
+import org.irunika.websocket.test.bench.PayloadTemplate;
+import org.irunika.websocket.test.bench.WebSocketClientRunner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of registering a sent message and validating its echo, for echoes of zero copy frames (direct buffers)
+ * and of text frames (heap buffers). Each connection has its own validator with the default validation window.
+ * The echo is the sent frame itself, so the cost of building it is included, see {@link PayloadBenchmark}.
+ *
+ * @author irunika
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EchoValidationBenchmark {
+
+    private static final int VALIDATION_WINDOW = 1024;
+
+    @Param({"100", "1024", "16384"})
+    int payloadSize;
+
+    @Param({"1", "100", "1000"})
+    int noOfConnections;
+
+    private String initialPayload;
+    private PayloadTemplate[] payloadTemplates;
+    private EchoValidator[] echoValidators;
+    private long[] messageIds;
+    private int nextConnection;
+
+    @Setup
+    public void setup() {
+        initialPayload = WebSocketClientRunner.createPayload(payloadSize);
+        payloadTemplates = new PayloadTemplate[noOfConnections];
+        echoValidators = new EchoValidator[noOfConnections];
+        messageIds = new long[noOfConnections];
+        for (int i = 0; i < noOfConnections; i++) {
+            payloadTemplates[i] = WebSocketClientRunner.createPayloadTemplate(payloadSize, false);
+            echoValidators[i] = new EchoValidator(VALIDATION_WINDOW);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (PayloadTemplate payloadTemplate : payloadTemplates) {
+            payloadTemplate.release();
+        }
+    }
+
+    @Benchmark
+    public boolean validateZeroCopyFrame() {
+        int connection = nextConnection();
+        long messageId = messageIds[connection]++;
+        long sendTime = System.nanoTime();
+        PayloadTemplate payloadTemplate = payloadTemplates[connection];
+        WebSocketFrame frame = payloadTemplate.newFrame(messageId, sendTime);
+        try {
+            EchoValidator echoValidator = echoValidators[connection];
+            echoValidator.register(messageId, sendTime, payloadTemplate.getBodyLength(),
+                                   payloadTemplate.getBodyChecksum());
+            return echoValidator.validate(frame.content());
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Benchmark
+    public boolean validateTextFrame() {
+        int connection = nextConnection();
+        long messageId = messageIds[connection]++;
+        long sendTime = System.nanoTime();
+        PayloadTemplate payloadTemplate = payloadTemplates[connection];
+        WebSocketFrame frame = new TextWebSocketFrame(
+                String.format("%016x%016x%s", messageId, sendTime, initialPayload));
+        try {
+            EchoValidator echoValidator = echoValidators[connection];
+            echoValidator.register(messageId, sendTime, payloadTemplate.getBodyLength(),
+                                   payloadTemplate.getBodyChecksum());
+            return echoValidator.validate(frame.content());
+        } finally {
+            frame.release();
+        }
+    }
+
+    private int nextConnection() {
+        int connection = nextConnection;
+        nextConnection = connection + 1 == noOfConnections ? 0 : connection + 1;
+        return connection;
+    }
+}
@@ -0,0 +1,98 @@
+package org.irunika.websocket.test.bench.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateClientExtensionHandshaker;
+import io.netty.util.ReferenceCountUtil;
+import org.irunika.websocket.test.bench.WebSocketClientRunner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding a text frame in the client pipeline, with and without permessage-deflate as negotiated by
+ * {@code WebSocketClientCompressionHandler}. Each connection has its own channel, so compression keeps a
+ * deflater per connection as it does in a test. The payload is the repeated character the test bench sends,
+ * which is the best case for compression.
+ *
+ * @author irunika
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameEncodingBenchmark {
+
+    @Param({"100", "1024", "16384"})
+    int payloadSize;
+
+    @Param({"1", "100", "1000"})
+    int noOfConnections;
+
+    @Param({"false", "true"})
+    boolean compression;
+
+    private ByteBuf content;
+    private EmbeddedChannel[] channels;
+    private int nextConnection;
+
+    @Setup
+    public void setup() {
+        String message = String.format("%016x%016x%s", 0, System.nanoTime(),
+                                       WebSocketClientRunner.createPayload(payloadSize));
+        content = Unpooled.unreleasableBuffer(
+                Unpooled.directBuffer().writeBytes(message.getBytes(StandardCharsets.UTF_8)));
+        channels = new EmbeddedChannel[noOfConnections];
+        for (int i = 0; i < noOfConnections; i++) {
+            channels[i] = new EmbeddedChannel();
+            channels[i].pipeline().addLast(new WebSocket13FrameEncoder(true));
+            if (compression) {
+                ChannelHandler encoder = new PerMessageDeflateClientExtensionHandshaker()
+                        .handshakeExtension(new WebSocketExtensionData("permessage-deflate",
+                                                                       Collections.emptyMap()))
+                        .newExtensionEncoder();
+                channels[i].pipeline().addLast(encoder);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (EmbeddedChannel channel : channels) {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    @Benchmark
+    public void encode(Blackhole blackhole) {
+        EmbeddedChannel channel = channels[nextConnection];
+        nextConnection = nextConnection + 1 == noOfConnections ? 0 : nextConnection + 1;
+        channel.writeOutbound(new TextWebSocketFrame(content.duplicate()));
+        Object encoded;
+        while ((encoded = channel.readOutbound()) != null) {
+            blackhole.consume(encoded);
+            ReferenceCountUtil.release(encoded);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.irunika.websocket.test.bench.benchmarks;
+
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.irunika.websocket.test.bench.PayloadTemplate;
+import org.irunika.websocket.test.bench.WebSocketClientRunner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building messages: the initial payload of a connection, a text frame as sent by default and a frame
+ * from the zero copy payload template. Frames are built for the connections in round robin order.
+ *
+ * @author irunika
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+    @State(Scope.Thread)
+    public static class Payload {
+
+        @Param({"100", "1024", "16384"})
+        int payloadSize;
+    }
+
+    @State(Scope.Thread)
+    public static class Connections {
+
+        @Param({"100", "1024", "16384"})
+        int payloadSize;
+
+        @Param({"1", "100", "1000"})
+        int noOfConnections;
+
+        String initialPayload;
+        PayloadTemplate[] payloadTemplates;
+        long[] messageIds;
+        int nextConnection;
+
+        @Setup
+        public void setup() {
+            initialPayload = WebSocketClientRunner.createPayload(payloadSize);
+            payloadTemplates = new PayloadTemplate[noOfConnections];
+            messageIds = new long[noOfConnections];
+            for (int i = 0; i < noOfConnections; i++) {
+                payloadTemplates[i] = WebSocketClientRunner.createPayloadTemplate(payloadSize, false);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            for (PayloadTemplate payloadTemplate : payloadTemplates) {
+                payloadTemplate.release();
+            }
+        }
+
+        int nextConnection() {
+            int connection = nextConnection;
+            nextConnection = connection + 1 == noOfConnections ? 0 : connection + 1;
+            return connection;
+        }
+    }
+
+    @Benchmark
+    public String createPayload(Payload payload) {
+        return WebSocketClientRunner.createPayload(payload.payloadSize);
+    }
+
+    @Benchmark
+    public void textFrame(Connections connections, Blackhole blackhole) {
+        int connection = connections.nextConnection();
+        long messageId = connections.messageIds[connection]++;
+        WebSocketFrame frame = new TextWebSocketFrame(
+                String.format("%016x%016x%s", messageId, System.nanoTime(), connections.initialPayload));
+        blackhole.consume(frame);
+        frame.release();
+    }
+
+    @Benchmark
+    public void zeroCopyFrame(Connections connections, Blackhole blackhole) {
+        int connection = connections.nextConnection();
+        long messageId = connections.messageIds[connection]++;
+        WebSocketFrame frame = connections.payloadTemplates[connection].newFrame(messageId, System.nanoTime());
+        blackhole.consume(frame);
+        frame.release();
+    }
+}
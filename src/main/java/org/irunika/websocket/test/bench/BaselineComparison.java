@@ -0,0 +1,180 @@
+package org.irunika.websocket.test.bench;
+
+import org.irunika.websocket.test.bench.config.RegressionThresholds;
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares a test run with a baseline run of the same test, eg: the run of the last release of a server, and
+ * decides whether the run regressed.
+ * The throughput (or the connect rate of a test without messages) regressed if it dropped by more than its
+ * threshold, and a latency percentile regressed if it increased by more than its threshold. Latencies are compared
+ * for every kind of latency which both runs measured. A run also regressed if its error message rate or its
+ * connection failure rate is higher than the one of the baseline by more than its threshold. Messages lost when a
+ * churn test closes its connections on purpose are not counted as errors.
+ *
+ * @author irunika
+ */
+public class BaselineComparison {
+
+    private static final Logger log = LoggerFactory.getLogger(BaselineComparison.class);
+
+    /**
+     * Options which do not change what is measured, so they may differ between a run and its baseline. All of them
+     * take a value, except --jmx.
+     */
+    private static final Set<String> OUTPUT_OPTIONS = new HashSet<>(Arrays.asList(
+            "--result-file", "--baseline", "--compare", "--max-throughput-drop", "--max-latency-increase",
+            "--max-error-rate-increase",
+            "--report-file", "--metrics-port", "--saturation-lag", "--saturation-cpu", "--saturation-gc"));
+
+    private final RegressionThresholds thresholds;
+    private final List<String> regressions = new ArrayList<>();
+
+    public BaselineComparison(RegressionThresholds thresholds) {
+        this.thresholds = thresholds;
+    }
+
+    /**
+     * Compare a run with its baseline and log the differences.
+     *
+     * @param baseline result of the baseline run.
+     * @param run result of the run.
+     * @return true if the run regressed.
+     */
+    public boolean compare(ResultFile baseline, ResultFile run) {
+        if (!getTestArguments(baseline).equals(getTestArguments(run))) {
+            log.warn("The run and the baseline are different tests. Baseline: {}, run: {}",
+                     String.join(" ", getTestArguments(baseline)), String.join(" ", getTestArguments(run)));
+        }
+        TestResult baselineResult = baseline.getResult();
+        TestResult runResult = run.getResult();
+        if (baselineResult.getGeneratorMetrics().isSaturated()) {
+            log.warn("The test bench was saturated in the baseline run, so the comparison may not be meaningful");
+        }
+        if (runResult.getGeneratorMetrics().isSaturated()) {
+            log.warn("The test bench was saturated in the run, so the comparison may not be meaningful");
+        }
+
+        if (baselineResult.getSteadyStateThroughput() > 0 && runResult.getSteadyStateThroughput() >= 0) {
+            compareRate("Steady state throughput", baselineResult.getSteadyStateThroughput(),
+                        runResult.getSteadyStateThroughput());
+        } else if (baselineResult.getThroughput() > 0) {
+            compareRate("Throughput", baselineResult.getThroughput(), runResult.getThroughput());
+        } else if (baselineResult.getConnectRate() > 0) {
+            compareRate("Connect rate", baselineResult.getConnectRate(), runResult.getConnectRate());
+        }
+
+        compareLatency("Round trip latency", baselineResult.getLatencyHistogram(),
+                       runResult.getLatencyHistogram());
+        compareLatency("Delivery latency", baselineResult.getDeliveryLatencyHistogram(),
+                       runResult.getDeliveryLatencyHistogram());
+        compareLatency("Ping round trip time", baselineResult.getPingRoundTripTimeHistogram(),
+                       runResult.getPingRoundTripTimeHistogram());
+        compareLatency("TLS handshake time (full)", baselineResult.getTlsHandshakeTimeHistogram(),
+                       runResult.getTlsHandshakeTimeHistogram());
+        compareLatency("TLS handshake time (resumed)", baselineResult.getResumedTlsHandshakeTimeHistogram(),
+                       runResult.getResumedTlsHandshakeTimeHistogram());
+
+        compareErrorRate("Error message rate", getErrorRate(baselineResult), getErrorRate(runResult));
+        compareErrorRate("Connection failure rate", getConnectionFailureRate(baselineResult),
+                         getConnectionFailureRate(runResult));
+
+        if (regressions.isEmpty()) {
+            log.info("No regression against the baseline");
+        } else {
+            log.error("Regression against the baseline: {}", String.join(", ", regressions));
+        }
+        return !regressions.isEmpty();
+    }
+
+    private void compareRate(String name, double baselineValue, double runValue) {
+        double change = (runValue - baselineValue) / baselineValue * 100;
+        boolean regressed = change < -thresholds.getMaxThroughputDropPercentage();
+        String comparison = String.format(Locale.ROOT, "%s: baseline: %.1f, run: %.1f (%+.1f%%)", name,
+                                          baselineValue, runValue, change);
+        report(name, comparison, regressed, thresholds.getMaxThroughputDropPercentage(), "lower");
+    }
+
+    private void compareLatency(String name, LatencyHistogram baselineHistogram, LatencyHistogram runHistogram) {
+        if (baselineHistogram.getTotalCount() == 0 || runHistogram.getTotalCount() == 0) {
+            return;
+        }
+        for (Map.Entry<Double, Double> threshold : thresholds.getMaxLatencyIncreasePercentages().entrySet()) {
+            long baselineValue = baselineHistogram.getValueAtPercentile(threshold.getKey());
+            long runValue = runHistogram.getValueAtPercentile(threshold.getKey());
+            if (baselineValue == 0) {
+                continue;
+            }
+            String percentileName = name + " p" +
+                    BigDecimal.valueOf(threshold.getKey()).stripTrailingZeros().toPlainString();
+            double change = (double) (runValue - baselineValue) / baselineValue * 100;
+            String comparison = String.format(Locale.ROOT, "%s (ms): baseline: %.3f, run: %.3f (%+.1f%%)",
+                                              percentileName, baselineValue / 1_000_000.0, runValue / 1_000_000.0,
+                                              change);
+            report(percentileName, comparison, change > threshold.getValue(), threshold.getValue(), "higher");
+        }
+    }
+
+    private void compareErrorRate(String name, double baselineRate, double runRate) {
+        String comparison = String.format(Locale.ROOT, "%s (%%): baseline: %.4f, run: %.4f", name, baselineRate,
+                                          runRate);
+        if (runRate - baselineRate > thresholds.getMaxErrorRateIncrease()) {
+            log.warn(String.format(Locale.ROOT, "%s REGRESSION, more than %.4f percentage points higher", comparison,
+                                   thresholds.getMaxErrorRateIncrease()));
+            regressions.add(name);
+        } else {
+            log.info(comparison);
+        }
+    }
+
+    /**
+     * @return error messages in percent of the message round trips, without the messages lost by the closes of a
+     * churn test.
+     */
+    private static double getErrorRate(TestResult result) {
+        long noOfErrorMessages = result.getNoOfErrorMessages() - result.getNoOfMessagesLostOnClose();
+        return noOfErrorMessages * 100.0 / Math.max(result.getNoOfMessages(), 1);
+    }
+
+    /**
+     * @return failed connection attempts in percent of all the connection attempts.
+     */
+    private static double getConnectionFailureRate(TestResult result) {
+        long noOfFailures = result.getNoOfConnectionFailures();
+        return noOfFailures * 100.0 / Math.max(result.getNoOfConnectionsEstablished() + noOfFailures, 1);
+    }
+
+    private void report(String name, String comparison, boolean regressed, double threshold, String direction) {
+        if (regressed) {
+            log.warn(String.format(Locale.ROOT, "%s REGRESSION, more than %.1f%% %s", comparison, threshold,
+                                   direction));
+            regressions.add(name);
+        } else {
+            log.info(comparison);
+        }
+    }
+
+    private static List<String> getTestArguments(ResultFile resultFile) {
+        List<String> testArguments = new ArrayList<>();
+        List<String> arguments = resultFile.getArguments();
+        for (int i = 0; i < arguments.size(); i++) {
+            if (OUTPUT_OPTIONS.contains(arguments.get(i))) {
+                i++;
+            } else if (!"--jmx".equals(arguments.get(i))) {
+                testArguments.add(arguments.get(i));
+            }
+        }
+        return testArguments;
+    }
+}
@@ -0,0 +1,50 @@
+package org.irunika.websocket.test.bench;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Checksum helpers which work directly on the memory of a {@link ByteBuf}, without copying or decoding it.
+ *
+ * @author irunika
+ */
+public class Checksums {
+
+    private Checksums() {
+    }
+
+    /**
+     * Update a running checksum with a region of a buffer. The reader and writer indexes are not changed.
+     *
+     * @param crc checksum to be updated.
+     * @param buffer buffer to be read.
+     * @param index start index of the region.
+     * @param length length of the region.
+     */
+    public static void update(CRC32 crc, ByteBuf buffer, int index, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (buffer.nioBufferCount() == 1) {
+            crc.update(buffer.nioBuffer(index, length));
+            return;
+        }
+        for (ByteBuffer byteBuffer : buffer.nioBuffers(index, length)) {
+            crc.update(byteBuffer);
+        }
+    }
+
+    /**
+     * Compute the checksum of the readable bytes of a buffer.
+     *
+     * @param buffer buffer to be read.
+     * @return CRC32 of the readable bytes.
+     */
+    public static int checksum(ByteBuf buffer) {
+        CRC32 crc = new CRC32();
+        update(crc, buffer, buffer.readerIndex(), buffer.readableBytes());
+        return (int) crc.getValue();
+    }
+}
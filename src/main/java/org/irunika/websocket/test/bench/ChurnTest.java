@@ -0,0 +1,555 @@
+package org.irunika.websocket.test.bench;
+
+import com.beust.jcommander.ParameterException;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.irunika.websocket.test.bench.config.Args;
+import org.irunika.websocket.test.bench.config.ChurnParameters;
+import org.irunika.websocket.test.bench.config.DeflateParameters;
+import org.irunika.websocket.test.bench.metrics.Counter;
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.irunika.websocket.test.bench.metrics.MemoryMonitor;
+import org.irunika.websocket.test.bench.metrics.MetricNames;
+import org.irunika.websocket.test.bench.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.ClosedChannelException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Test of a server under connection churn, eg: a reconnect storm after a deploy.
+ * Each of the -n clients runs a loop on one event loop: it connects, sends messages at the open loop rate for a
+ * lifetime drawn from the lifetime distribution, closes the connection with a close code drawn from the close mix
+ * or with a TCP reset, and reconnects after a random delay. Failed attempts back off exponentially. A client does
+ * -m connection attempts, or runs until the test time is over.
+ * <p>
+ * Message ids of a client continue across its connections, so its echo validator covers all of them. Messages
+ * which were not echoed when a connection was closed are counted as lost around reconnects. Each client keeps its
+ * own histograms and counters, which are merged when the test is completed.
+ *
+ * @author irunika
+ */
+public class ChurnTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ChurnTest.class);
+
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    private static final long CLOSE_TIMEOUT_IN_MILLIS = 1000;
+    private static final String SERVER_CLOSE = "server";
+
+    private final Args args;
+    private final ClientTransport transport;
+    private final int firstClientId;
+    private final int clientIdStride;
+    private final URI uri;
+    private final String host;
+    private final int port;
+    private final boolean ssl;
+    private final DeflateParameters deflateParameters;
+    private final ChurnParameters churnParameters;
+    private final long sendIntervalInNanos;
+    // Filled while the metrics exporter may already be reading it
+    private final Queue<Client> clients = new ConcurrentLinkedQueue<>();
+    private final MetricsRegistry registry;
+    private final ConnectionMetrics connectionMetrics;
+    private volatile boolean stopped;
+
+    /**
+     * @param args test configuration.
+     * @param transport shared transport.
+     * @param registry registry of the test, which the metrics are registered in.
+     * @param firstClientId client id of the first client, which gives its ramp up delay.
+     * @param clientIdStride difference between the client ids of two consecutive clients.
+     */
+    public ChurnTest(Args args, ClientTransport transport, MetricsRegistry registry, int firstClientId,
+                     int clientIdStride)
+            throws URISyntaxException {
+        if (args.getNoOfPublishers() > 0 || args.isHandshakeTest() || args.isIdleTest()) {
+            throw new ParameterException(
+                    "Churn test cannot be combined with --publishers, --handshake-test or --idle-test");
+        }
+        if (args.getFragmentSize() > 0) {
+            throw new ParameterException("Fragmented messages are not supported in a churn test");
+        }
+        this.uri = new URI(args.getUrl());
+        this.ssl = "wss".equalsIgnoreCase(uri.getScheme());
+        if (!ssl && !"ws".equalsIgnoreCase(uri.getScheme())) {
+            throw new URISyntaxException(args.getUrl(), "Only WS(S) is supported");
+        }
+        if (ssl && transport.getSslContext() == null) {
+            throw new ParameterException("TLS is not configured for " + args.getUrl());
+        }
+        this.args = args;
+        this.transport = transport;
+        this.registry = registry;
+        this.connectionMetrics = new ConnectionMetrics(registry);
+        this.firstClientId = firstClientId;
+        this.clientIdStride = clientIdStride;
+        this.host = uri.getHost() == null ? "127.0.0.1" : uri.getHost();
+        this.port = uri.getPort() != -1 ? uri.getPort() : ssl ? 443 : 80;
+        this.deflateParameters = args.getDeflateParameters();
+        this.churnParameters = args.getChurnParameters();
+        double messagesPerSecond = args.getMessagesPerSecondPerConnection();
+        this.sendIntervalInNanos = messagesPerSecond > 0 ?
+                Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / messagesPerSecond)) : 0;
+        registry.sum(MetricNames.MESSAGES_RECEIVED, clients, client -> client.noOfMessagesReceived.get());
+        registerValidatorSum(MetricNames.MESSAGES_OUT_OF_ORDER, EchoValidator::getNoOfOutOfOrderMessages);
+        registerValidatorSum(MetricNames.MESSAGES_MISSING, EchoValidator::getNoOfMissingMessages);
+        registerValidatorSum(MetricNames.MESSAGES_DUPLICATE, EchoValidator::getNoOfDuplicateMessages);
+        registerValidatorSum(MetricNames.MESSAGES_CORRUPTED, EchoValidator::getNoOfCorruptedMessages);
+        registry.histogram(MetricNames.ROUND_TRIP_LATENCY, clients, client -> client.latencyHistogram);
+    }
+
+    private void registerValidatorSum(String name, ToLongFunction<EchoValidator> value) {
+        registry.sum(name, clients, client -> value.applyAsLong(client.echoValidator));
+    }
+
+    /**
+     * Run the test.
+     *
+     * @param intervalListener listener of the interval reports, null for none.
+     * @return result of the test, with the connection times, closes by kind and messages lost around reconnects.
+     */
+    public TestResult run(Consumer<IntervalSnapshot> intervalListener) throws InterruptedException, IOException {
+        int noOfClients = args.getNoOfConnections();
+        CountDownLatch countDownLatch = new CountDownLatch(noOfClients);
+        RampUpScheduler rampUpScheduler = new RampUpScheduler(args.getRampUpRate(), args.getRampUpStages());
+        for (int i = 0; i < noOfClients; i++) {
+            clients.add(new Client(firstClientId + i * clientIdStride, countDownLatch));
+        }
+        IntervalReportWriter intervalReportWriter = null;
+        IntervalReporter intervalReporter = null;
+        if (args.getReportIntervalInSeconds() > 0) {
+            intervalReportWriter = new IntervalReportWriter(args.getReportFile());
+            intervalReporter = new IntervalReporter(registry, args.getReportIntervalInSeconds(),
+                                                    intervalReportWriter, intervalListener);
+            intervalReporter.start();
+        }
+        MemoryMonitor memoryMonitor = new MemoryMonitor();
+        memoryMonitor.start();
+        log.info("Starting {} churning clients against {}:{}", noOfClients, host, port);
+
+        long testStartTime = System.currentTimeMillis();
+        try {
+            for (Client client : clients) {
+                long launchDelay = testStartTime + rampUpScheduler.getLaunchDelayInMillis(client.clientId) -
+                        System.currentTimeMillis();
+                if (launchDelay > 0) {
+                    Thread.sleep(launchDelay);
+                }
+                client.start();
+            }
+            if (args.getTestTimeInMinutes() > 0) {
+                long testEndTime = testStartTime + TimeUnit.MINUTES.toMillis(args.getTestTimeInMinutes());
+                Thread.sleep(Math.max(testEndTime - System.currentTimeMillis(), 0));
+                stopped = true;
+                clients.forEach(Client::stop);
+            }
+            countDownLatch.await();
+        } finally {
+            if (intervalReporter != null) {
+                intervalReporter.stop();
+                intervalReportWriter.close();
+            }
+            memoryMonitor.stop();
+        }
+        long testTimeInMillis = System.currentTimeMillis() - testStartTime;
+
+        TestResult result = new TestResult();
+        long noOfMessagesReceived = 0;
+        for (Client client : clients) {
+            long clientNoOfMessagesReceived = client.noOfMessagesReceived.get();
+            noOfMessagesReceived += clientNoOfMessagesReceived;
+            result.getConnectTimeHistogram().add(client.connectTimeHistogram);
+            result.getTlsHandshakeTimeHistogram().add(client.tlsHandshakeTimeHistogram);
+            result.getResumedTlsHandshakeTimeHistogram().add(client.resumedTlsHandshakeTimeHistogram);
+            result.getUpgradeTimeHistogram().add(client.upgradeTimeHistogram);
+            result.addClient(clientNoOfMessagesReceived / (testTimeInMillis / 1000.0), clientNoOfMessagesReceived,
+                             client.echoValidator, client.latencyHistogram);
+            result.addChurn(client.closes, client.noOfMessagesLostOnClose);
+        }
+        result.setTestTimeInMillis(testTimeInMillis);
+        result.setNoOfConnections(noOfClients);
+        result.setConnectionMetrics(connectionMetrics);
+        result.setPeakMemory(memoryMonitor);
+        result.setThroughput(noOfMessagesReceived / (testTimeInMillis / 1000.0));
+        return result;
+    }
+
+    /**
+     * A client which connects, sends for a lifetime, closes and reconnects in a loop on one event loop. Everything
+     * except the counter of received messages is accessed only by that event loop.
+     */
+    private class Client {
+
+        private final int clientId;
+        private final CountDownLatch countDownLatch;
+        private final EventLoop eventLoop;
+        private final Bootstrap bootstrap;
+        private final PayloadTemplate payloadTemplate;
+        private final EchoValidator echoValidator;
+        private final LatencyHistogram connectTimeHistogram = new LatencyHistogram();
+        private final LatencyHistogram tlsHandshakeTimeHistogram = new LatencyHistogram();
+        private final LatencyHistogram resumedTlsHandshakeTimeHistogram = new LatencyHistogram();
+        private final LatencyHistogram upgradeTimeHistogram = new LatencyHistogram();
+        private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+        private final Counter noOfMessagesReceived = new Counter();
+        private final Map<String, Long> closes = new TreeMap<>();
+        private long noOfMessagesLostOnClose;
+        private int remainingAttempts;
+        private int noOfFailedAttempts;
+        private int lifetimeIndex;
+        private long nextMessageId;
+        private ScheduledFuture<?> reconnectFuture;
+        private Connection connection;
+        private boolean done;
+
+        Client(int clientId, CountDownLatch countDownLatch) {
+            this.clientId = clientId;
+            this.countDownLatch = countDownLatch;
+            this.remainingAttempts = args.getNoOfMessagesPerConnection();
+            // Start each client at a different point of the lifetime table
+            this.lifetimeIndex = clientId * 61;
+            this.eventLoop = transport.getEventLoopGroup().next();
+            this.payloadTemplate = sendIntervalInNanos > 0 ? new PayloadTemplate(
+                    args.getPayloadInBytes(), args.isBinary(), PooledByteBufAllocator.DEFAULT) : null;
+            this.echoValidator = new EchoValidator(args.getValidationWindow());
+            this.bootstrap = new Bootstrap()
+                    .group(eventLoop)
+                    .channel(transport.getChannelClass())
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ChannelPipeline p = ch.pipeline();
+                            transport.track(ch);
+                            if (ssl) {
+                                p.addLast(transport.getSslContext().newHandler(ch.alloc(), host, port));
+                            }
+                            p.addLast(new HttpClientCodec(), new HttpObjectAggregator(8192));
+                            if (deflateParameters != null) {
+                                p.addLast(deflateParameters.newClientHandler());
+                            }
+                            p.addLast(new Connection(Client.this));
+                        }
+                    });
+        }
+
+        void start() {
+            eventLoop.execute(this::connect);
+        }
+
+        /**
+         * Stop the client at the end of the test: close its connection normally, or stop waiting to reconnect.
+         */
+        void stop() {
+            eventLoop.execute(() -> {
+                if (reconnectFuture != null && reconnectFuture.cancel(false)) {
+                    finish();
+                } else if (connection != null) {
+                    connection.close(1000);
+                }
+            });
+        }
+
+        private void connect() {
+            reconnectFuture = null;
+            if (stopped || remainingAttempts == 0) {
+                finish();
+                return;
+            }
+            if (remainingAttempts > 0) {
+                remainingAttempts--;
+            }
+            long connectStartTime = System.nanoTime();
+            bootstrap.connect(host, port).addListener((ChannelFuture connectFuture) -> {
+                if (connectFuture.isSuccess()) {
+                    connection = connectFuture.channel().pipeline().get(Connection.class);
+                    connection.connected(connectStartTime);
+                } else {
+                    connectionMetrics.recordFailure("connect", connectFuture.cause());
+                    reconnect(true);
+                }
+            });
+        }
+
+        /**
+         * Schedule the next connection attempt.
+         *
+         * @param failed true if the last attempt failed, which backs off the delay.
+         */
+        private void reconnect(boolean failed) {
+            connection = null;
+            noOfFailedAttempts = failed ? noOfFailedAttempts + 1 : 0;
+            long delay = churnParameters.getReconnectDelayInNanos(noOfFailedAttempts,
+                                                                  ThreadLocalRandom.current().nextDouble());
+            reconnectFuture = eventLoop.schedule(this::connect, delay, TimeUnit.NANOSECONDS);
+        }
+
+        private void recordClose(String kind) {
+            closes.merge(kind, 1L, Long::sum);
+        }
+
+        private void finish() {
+            if (!done) {
+                done = true;
+                if (payloadTemplate != null) {
+                    payloadTemplate.release();
+                }
+                countDownLatch.countDown();
+            }
+        }
+    }
+
+    /**
+     * Handler of one connection of a client, for its lifetime.
+     */
+    private class Connection extends ChannelInboundHandlerAdapter implements Runnable {
+
+        private final Client client;
+        private WebSocketClientHandshaker handshaker = WebSocketClientHandshakerFactory.newHandshaker(
+                uri, WebSocketVersion.V13, null, true, EmptyHttpHeaders.INSTANCE, MAX_FRAME_SIZE);
+        private ChannelHandlerContext ctx;
+        private String phase = "tls";
+        private long upgradeStartTime;
+        private long nextSendTime;
+        private boolean active;
+        private boolean failed;
+        private boolean upgraded;
+        private boolean closing;
+
+        Connection(Client client) {
+            this.client = client;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        void connected(long connectStartTime) {
+            active = true;
+            long tlsStartTime = System.nanoTime();
+            long tlsStartTimeInMillis = System.currentTimeMillis();
+            client.connectTimeHistogram.recordValue(tlsStartTime - connectStartTime);
+            SslHandler sslHandler = ctx.pipeline().get(SslHandler.class);
+            if (sslHandler == null) {
+                startUpgrade();
+                return;
+            }
+            sslHandler.handshakeFuture().addListener(future -> {
+                if (!future.isSuccess()) {
+                    attemptFailed(future.cause());
+                    return;
+                }
+                long tlsHandshakeTime = System.nanoTime() - tlsStartTime;
+                if (TlsSessions.isResumed(sslHandler, tlsStartTimeInMillis)) {
+                    client.resumedTlsHandshakeTimeHistogram.recordValue(tlsHandshakeTime);
+                } else {
+                    client.tlsHandshakeTimeHistogram.recordValue(tlsHandshakeTime);
+                }
+                if (!transport.isSessionResumption()) {
+                    TlsSessions.invalidate(sslHandler);
+                }
+                startUpgrade();
+            });
+        }
+
+        private void startUpgrade() {
+            phase = "upgrade";
+            upgradeStartTime = System.nanoTime();
+            handshaker.handshake(ctx.channel());
+        }
+
+        private void upgraded() {
+            long now = System.nanoTime();
+            client.upgradeTimeHistogram.recordValue(now - upgradeStartTime);
+            handshaker = null;
+            upgraded = true;
+            connectionMetrics.recordConnectionEstablished();
+            if (stopped) {
+                close(1000);
+                return;
+            }
+            long lifetime = churnParameters.getLifetimeInNanos(client.lifetimeIndex++);
+            ctx.executor().schedule(this::endOfLife, lifetime, TimeUnit.NANOSECONDS);
+            if (sendIntervalInNanos > 0) {
+                nextSendTime = now;
+                run();
+            }
+        }
+
+        /**
+         * Send the messages which are due and schedule the next ones, at the open loop rate.
+         */
+        @Override
+        public void run() {
+            if (closing || !ctx.channel().isActive()) {
+                return;
+            }
+            long now = System.nanoTime();
+            PayloadTemplate payloadTemplate = client.payloadTemplate;
+            while (nextSendTime <= now) {
+                long messageId = client.nextMessageId++;
+                WebSocketFrame frame = payloadTemplate.newFrame(messageId, nextSendTime);
+                client.echoValidator.register(messageId, nextSendTime, payloadTemplate.getBodyLength(),
+                                              payloadTemplate.getBodyChecksum());
+                ctx.write(frame, ctx.voidPromise());
+                nextSendTime += sendIntervalInNanos;
+            }
+            ctx.flush();
+            ctx.executor().schedule(this, nextSendTime - now, TimeUnit.NANOSECONDS);
+        }
+
+        private void endOfLife() {
+            if (!closing && ctx.channel().isActive()) {
+                int closeCode = churnParameters.getCloseCode(ThreadLocalRandom.current().nextDouble());
+                client.recordClose(ChurnParameters.getCloseName(closeCode));
+                close(closeCode);
+            }
+        }
+
+        /**
+         * Close the connection with a close frame, or abruptly with a TCP reset.
+         *
+         * @param closeCode close code, {@link ChurnParameters#RESET} for a reset.
+         */
+        void close(int closeCode) {
+            if (closing) {
+                return;
+            }
+            closing = true;
+            if (closeCode == ChurnParameters.RESET || !upgraded) {
+                ctx.channel().config().setOption(ChannelOption.SO_LINGER, 0);
+                ctx.close();
+                return;
+            }
+            // Echoes of the messages in flight may still arrive before the close frame of the server
+            ctx.writeAndFlush(new CloseWebSocketFrame(closeCode, ""));
+            ctx.executor().schedule((Runnable) ctx::close, CLOSE_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (failed) {
+                ReferenceCountUtil.release(msg);
+                return;
+            }
+            if (handshaker != null) {
+                try {
+                    handshaker.finishHandshake(ctx.channel(), (FullHttpResponse) msg);
+                } catch (Exception e) {
+                    attemptFailed(e);
+                    return;
+                } finally {
+                    ((FullHttpResponse) msg).release();
+                }
+                upgraded();
+                return;
+            }
+
+            WebSocketFrame frame = (WebSocketFrame) msg;
+            try {
+                if (frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame) {
+                    if (client.echoValidator.validate(frame.content())) {
+                        client.latencyHistogram.recordValue(
+                                System.nanoTime() - client.echoValidator.getLastSendTime());
+                        client.noOfMessagesReceived.increment();
+                    }
+                } else if (frame instanceof PingWebSocketFrame) {
+                    ctx.writeAndFlush(new PongWebSocketFrame(frame.content().retain()));
+                } else if (frame instanceof CloseWebSocketFrame) {
+                    if (!closing) {
+                        client.recordClose(SERVER_CLOSE);
+                        closing = true;
+                    }
+                    ctx.close();
+                }
+            } finally {
+                frame.release();
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (!active) {
+                return;
+            }
+            if (!upgraded) {
+                if (closing) {
+                    // Closed by the end of the test while it was being opened
+                    client.reconnect(false);
+                } else {
+                    attemptFailed(new ClosedChannelException());
+                }
+                return;
+            }
+            connectionMetrics.recordConnectionClosed();
+            long noOfMissingMessages = client.echoValidator.getNoOfMissingMessages();
+            client.echoValidator.finish();
+            client.noOfMessagesLostOnClose += client.echoValidator.getNoOfMissingMessages() - noOfMissingMessages;
+            if (!closing) {
+                client.recordClose(SERVER_CLOSE);
+            }
+            client.reconnect(false);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (!upgraded) {
+                attemptFailed(cause);
+            } else {
+                log.debug("Client {}: Connection failed", client.clientId, cause);
+                ctx.close();
+            }
+        }
+
+        /**
+         * Record a failed TLS handshake or upgrade and reconnect with backoff once the channel is closed.
+         */
+        private void attemptFailed(Throwable cause) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+            handshaker = null;
+            connectionMetrics.recordFailure(phase, cause);
+            ctx.close().addListener(future -> client.reconnect(true));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.irunika.websocket.test.bench;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event loop group and channel type shared by all the connections of a test.
+ * Connections are spread across the event loops of the group in round robin order.
+ * It also owns a hashed wheel timer which is used to schedule work, eg: rate limited sends, onto the event loops,
+ * and the TLS context of wss connections, whose session cache lets connections resume earlier sessions.
+ * Open connections are tracked, so the bytes which are queued for writing can be sampled while a test is running.
+ *
+ * @author irunika
+ */
+public class ClientTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(ClientTransport.class);
+
+    private final EventLoopGroup eventLoopGroup;
+    private final Class<? extends SocketChannel> channelClass;
+    private final SslContext sslContext;
+    private final boolean sessionResumption;
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private Timer timer;
+
+    private ClientTransport(EventLoopGroup eventLoopGroup, Class<? extends SocketChannel> channelClass,
+                            SslContext sslContext, boolean sessionResumption) {
+        this.eventLoopGroup = eventLoopGroup;
+        this.channelClass = channelClass;
+        this.sslContext = sslContext;
+        this.sessionResumption = sessionResumption;
+    }
+
+    /**
+     * Create the transport for a test.
+     *
+     * @param noOfThreads no of event loop threads. 0 means Netty default which is twice the no of cores.
+     * @param useEpoll true if the native epoll transport should be used when it is available.
+     * @param sslContext TLS context of wss connections, null if TLS is not used.
+     * @param sessionResumption true if connections may resume the TLS sessions of earlier connections.
+     * @return the created transport.
+     */
+    public static ClientTransport create(int noOfThreads, boolean useEpoll, SslContext sslContext,
+                                         boolean sessionResumption) {
+        int threads = noOfThreads > 0 ? noOfThreads : 0;
+        if (useEpoll) {
+            if (Epoll.isAvailable()) {
+                log.info("Using native epoll transport");
+                return new ClientTransport(new EpollEventLoopGroup(threads), EpollSocketChannel.class, sslContext,
+                                           sessionResumption);
+            }
+            log.warn("Native epoll transport is not available, falling back to NIO: {}",
+                     Epoll.unavailabilityCause().getMessage());
+        }
+        return new ClientTransport(new NioEventLoopGroup(threads), NioSocketChannel.class, sslContext,
+                                   sessionResumption);
+    }
+
+    public EventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    public Class<? extends SocketChannel> getChannelClass() {
+        return channelClass;
+    }
+
+    /**
+     * @return TLS context shared by all the wss connections, null if TLS is not used.
+     */
+    public SslContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * @return true if connections may resume the TLS sessions of earlier connections.
+     */
+    public boolean isSessionResumption() {
+        return sessionResumption;
+    }
+
+    /**
+     * Get the timer shared by all the connections. The timer is started on the first call.
+     * Timer tasks run on the timer thread and should hand off their work to an event loop.
+     *
+     * @return the shared timer.
+     */
+    public synchronized Timer getTimer() {
+        if (timer == null) {
+            timer = new HashedWheelTimer(new DefaultThreadFactory("timer", true), 1, TimeUnit.MILLISECONDS, 1024);
+        }
+        return timer;
+    }
+
+    /**
+     * Track a connection until it is closed. Called from the channel initializer of each connection.
+     *
+     * @param channel channel of the connection.
+     */
+    public void track(Channel channel) {
+        channels.add(channel);
+    }
+
+    /**
+     * @return bytes which are written to the open connections but not yet flushed to their sockets.
+     */
+    public long getPendingWriteBytes() {
+        long pendingWriteBytes = 0;
+        for (Channel channel : channels) {
+            ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+            if (outboundBuffer != null) {
+                pendingWriteBytes += outboundBuffer.totalPendingWriteBytes();
+            }
+        }
+        return pendingWriteBytes;
+    }
+
+    public Future<?> shutdownGracefully() {
+        synchronized (this) {
+            if (timer != null) {
+                timer.stop();
+            }
+        }
+        return eventLoopGroup.shutdownGracefully();
+    }
+}
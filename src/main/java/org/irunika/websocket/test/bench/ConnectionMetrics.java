@@ -0,0 +1,113 @@
+package org.irunika.websocket.test.bench;
+
+import org.irunika.websocket.test.bench.metrics.MetricNames;
+import org.irunika.websocket.test.bench.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection level metrics which are shared by all the connections of a test: connection failures grouped by
+ * their cause, the no of active connections and its peak, and the times at which the first and the last
+ * connection were established. Connections are opened and closed far less often than messages are sent, so these
+ * are updated with atomics. They are registered in the metrics registry of the test.
+ * Handshake times of each connection are kept by its own handler.
+ *
+ * @author irunika
+ */
+public class ConnectionMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(ConnectionMetrics.class);
+
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private final AtomicLong firstConnectionTime = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastConnectionTime = new AtomicLong();
+    private final LongAdder noOfConnectionsEstablished;
+    private final AtomicLong noOfActiveConnections = new AtomicLong();
+    private final AtomicLong maxNoOfActiveConnections = new AtomicLong();
+
+    /**
+     * @param registry registry of the test, which the metrics are registered in.
+     */
+    public ConnectionMetrics(MetricsRegistry registry) {
+        noOfConnectionsEstablished = registry.counter(MetricNames.CONNECTIONS_ESTABLISHED);
+        registry.gauge(MetricNames.CONNECTIONS_FAILED, this::getNoOfFailures);
+        registry.gauge(MetricNames.CONNECTIONS_ACTIVE, noOfActiveConnections::get);
+        registry.gauge(MetricNames.CONNECTIONS_MAX_ACTIVE, maxNoOfActiveConnections::get);
+    }
+
+    /**
+     * Record a failed connection attempt.
+     *
+     * @param phase phase in which the connection failed, eg: connect, tls, upgrade.
+     * @param cause cause of the failure.
+     */
+    public void recordFailure(String phase, Throwable cause) {
+        String key = phase + ": " + cause.getClass().getSimpleName();
+        LongAdder count = failures.computeIfAbsent(key, k -> {
+            log.error("Connection failed in {}: {}", phase, cause.toString());
+            return new LongAdder();
+        });
+        count.increment();
+    }
+
+    /**
+     * Record an established connection, which is active until {@link #recordConnectionClosed()} is called.
+     */
+    public void recordConnectionEstablished() {
+        long now = System.currentTimeMillis();
+        noOfConnectionsEstablished.increment();
+        maxNoOfActiveConnections.accumulateAndGet(noOfActiveConnections.incrementAndGet(), Math::max);
+        firstConnectionTime.accumulateAndGet(now, Math::min);
+        lastConnectionTime.accumulateAndGet(now, Math::max);
+    }
+
+    /**
+     * Record that an established connection is closed.
+     */
+    public void recordConnectionClosed() {
+        noOfActiveConnections.decrementAndGet();
+    }
+
+    /**
+     * @return no of failures by phase and cause, sorted by key.
+     */
+    public Map<String, Long> getFailures() {
+        Map<String, Long> sortedFailures = new TreeMap<>();
+        failures.forEach((key, count) -> sortedFailures.put(key, count.sum()));
+        return sortedFailures;
+    }
+
+    public long getNoOfFailures() {
+        return failures.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    public long getNoOfConnectionsEstablished() {
+        return noOfConnectionsEstablished.sum();
+    }
+
+    public long getNoOfActiveConnections() {
+        return noOfActiveConnections.get();
+    }
+
+    public long getMaxNoOfActiveConnections() {
+        return maxNoOfActiveConnections.get();
+    }
+
+    /**
+     * @return connections established per second between the first and the last connection.
+     */
+    public double getConnectRate() {
+        long noOfConnections = noOfConnectionsEstablished.sum();
+        long timeInMillis = lastConnectionTime.get() - firstConnectionTime.get();
+        if (noOfConnections < 2 || timeInMillis <= 0) {
+            return 0;
+        }
+        return (noOfConnections - 1) / (timeInMillis / 1000.0);
+    }
+}
@@ -0,0 +1,113 @@
+package org.irunika.websocket.test.bench;
+
+import io.netty.channel.EventLoop;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open loop sender which sends messages of a connection at a constant rate.
+ * The n<sup>th</sup> message is due at {@code startTime + n * interval} regardless of how fast the server echoes.
+ * The shared timer wakes the sender up and the due messages are written and flushed as one batch on the event
+ * loop of the connection. Each message is stamped with its intended send time, so when the server or the
+ * generator stalls the time spent waiting is included in the measured latency instead of being omitted.
+ *
+ * @author irunika
+ */
+public class ConstantRateSender implements TimerTask, Runnable {
+
+    private final WebSocketClient webSocketClient;
+    private final int noOfMessages;
+    private final long intervalInNanos;
+    private final Timer timer;
+    private final CountDownLatch completionLatch = new CountDownLatch(1);
+    private Runnable completionListener;
+    private EventLoop eventLoop;
+    private long startTime;
+    private int messageId;
+    private volatile boolean stopSendingMessages = false;
+
+    /**
+     * @param webSocketClient connected client.
+     * @param noOfMessages no of messages to be sent, -1 to send until stopped.
+     * @param messagesPerSecond target rate of this connection.
+     * @param timer timer which wakes the sender up.
+     */
+    public ConstantRateSender(WebSocketClient webSocketClient, int noOfMessages, double messagesPerSecond,
+                              Timer timer) {
+        this.webSocketClient = webSocketClient;
+        this.noOfMessages = noOfMessages;
+        this.intervalInNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / messagesPerSecond));
+        this.timer = timer;
+    }
+
+    public void start() {
+        start(null);
+    }
+
+    /**
+     * Start sending messages.
+     *
+     * @param completionListener listener which is called on the event loop once all the messages are sent or the
+     *                           sender is stopped, null for none.
+     */
+    public void start(Runnable completionListener) {
+        this.completionListener = completionListener;
+        eventLoop = webSocketClient.eventLoop();
+        startTime = System.nanoTime();
+        eventLoop.execute(this);
+    }
+
+    public void awaitCompletion() throws InterruptedException {
+        completionLatch.await();
+    }
+
+    public void setStopSendingMessages(boolean stopSendingMessages) {
+        this.stopSendingMessages = stopSendingMessages;
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        eventLoop.execute(this);
+    }
+
+    /**
+     * Send all the messages which are due. Runs on the event loop of the connection.
+     */
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        long intendedSendTime = startTime + messageId * intervalInNanos;
+        while (intendedSendTime <= now) {
+            if (isDone()) {
+                complete();
+                return;
+            }
+            webSocketClient.writeMessage(messageId, intendedSendTime);
+            messageId++;
+            intendedSendTime += intervalInNanos;
+        }
+        webSocketClient.flush();
+
+        if (isDone()) {
+            complete();
+        } else {
+            timer.newTimeout(this, intendedSendTime - now, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private boolean isDone() {
+        return stopSendingMessages || messageId == noOfMessages || !webSocketClient.isActive();
+    }
+
+    private void complete() {
+        webSocketClient.flush();
+        completionLatch.countDown();
+        if (completionListener != null) {
+            completionListener.run();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.irunika.websocket.test.bench;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.irunika.websocket.test.bench.metrics.TrafficMetrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the payload bytes of the data frames and the time spent in the deflate codec of a connection.
+ * The compression extension adds its encoder and decoder right after itself when the upgrade is completed, so
+ * they end up between the two handlers of the timer: {@link #compressedSide()} before the compression handler and
+ * {@link #uncompressedSide()} after it. Encoding and decoding run to completion on the event loop, so the CPU time
+ * of the event loop thread from a frame passing one side until it passes the other is the CPU time taken to
+ * compress or decompress it. Messages without the RSV1 bit on their first frame on the compressed side were not
+ * compressed and are not timed. Continuation frames belong to the message of the frame before them.
+ *
+ * @author irunika
+ */
+public class DeflateTimer {
+
+    private static final int RSV1 = 0x4;
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported();
+
+    private final TrafficMetrics trafficMetrics;
+    private final ChannelHandler compressedSide = new CompressedSide();
+    private final ChannelHandler uncompressedSide = new UncompressedSide();
+    private long compressionStartTime;
+    private long decompressionStartTime;
+    private boolean compressedMessageSent;
+    private boolean compressedMessageReceived;
+
+    public DeflateTimer(TrafficMetrics trafficMetrics) {
+        this.trafficMetrics = trafficMetrics;
+    }
+
+    /**
+     * @return handler which should be added to the pipeline before the compression handler.
+     */
+    public ChannelHandler compressedSide() {
+        return compressedSide;
+    }
+
+    /**
+     * @return handler which should be added to the pipeline after the compression handler.
+     */
+    public ChannelHandler uncompressedSide() {
+        return uncompressedSide;
+    }
+
+    /**
+     * @return CPU time of the current thread in nanoseconds, or the wall clock time if the JVM does not support
+     * measuring the CPU time of threads.
+     */
+    private static long cpuTime() {
+        return CPU_TIME_SUPPORTED ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private static boolean isDataFrame(Object msg) {
+        return msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame ||
+                msg instanceof ContinuationWebSocketFrame;
+    }
+
+    /**
+     * @param compressedMessage whether the message of the previous frame was compressed.
+     * @return whether the message of a data frame is compressed.
+     */
+    private static boolean isCompressed(Object msg, boolean compressedMessage) {
+        if (msg instanceof ContinuationWebSocketFrame) {
+            return compressedMessage;
+        }
+        return (((WebSocketFrame) msg).rsv() & RSV1) != 0;
+    }
+
+    private class CompressedSide extends ChannelDuplexHandler {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (isDataFrame(msg)) {
+                compressedMessageReceived = isCompressed(msg, compressedMessageReceived);
+                if (compressedMessageReceived) {
+                    decompressionStartTime = cpuTime();
+                }
+            }
+            ctx.fireChannelRead(msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            if (isDataFrame(msg)) {
+                compressedMessageSent = isCompressed(msg, compressedMessageSent);
+                if (compressionStartTime != 0 && compressedMessageSent) {
+                    trafficMetrics.recordCompression(cpuTime() - compressionStartTime);
+                }
+            }
+            compressionStartTime = 0;
+            ctx.write(msg, promise);
+        }
+    }
+
+    private class UncompressedSide extends ChannelDuplexHandler {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (isDataFrame(msg)) {
+                trafficMetrics.recordPayloadReceived(((WebSocketFrame) msg).content().readableBytes());
+                if (decompressionStartTime != 0) {
+                    trafficMetrics.recordDecompression(cpuTime() - decompressionStartTime);
+                }
+            }
+            decompressionStartTime = 0;
+            ctx.fireChannelRead(msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            if (isDataFrame(msg)) {
+                trafficMetrics.recordPayloadSent(((WebSocketFrame) msg).content().readableBytes());
+                if (trafficMetrics.isCompressed()) {
+                    compressionStartTime = cpuTime();
+                }
+            }
+            ctx.write(msg, promise);
+        }
+    }
+}
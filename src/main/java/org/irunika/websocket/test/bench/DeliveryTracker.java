@@ -0,0 +1,138 @@
+package org.irunika.websocket.test.bench;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.EventLoop;
+
+/**
+ * Tracks the messages which a subscriber of a fan-out test receives from each publisher.
+ * For each publisher it keeps the next expected sequence no and the no of messages received, so the messages
+ * which were not delivered can be counted once the publishers are done. A message with a lower sequence no than
+ * expected is counted as out of order. Telling duplicates apart from late messages would need a window of
+ * sequence nos per publisher, which does not scale to many subscribers. Bodies are not validated, since the
+ * publishers validate their own copies.
+ * <p>
+ * A tracker is not thread safe and should be used only from the event loop of its connection.
+ *
+ * @author irunika
+ */
+public class DeliveryTracker {
+
+    private final FanOut fanOut;
+    private final long[] firstSequences;
+    private final long[] nextSequences;
+    private final long[] noOfDeliveriesPerPublisher;
+    private int row;
+    private long lastSendTime;
+
+    private long noOfDeliveries;
+    private long noOfOutOfOrderDeliveries;
+    private long noOfCorruptedDeliveries;
+
+    public DeliveryTracker(FanOut fanOut) {
+        int noOfPublishers = fanOut.getNoOfPublishers();
+        this.fanOut = fanOut;
+        this.firstSequences = new long[noOfPublishers];
+        this.nextSequences = new long[noOfPublishers];
+        this.noOfDeliveriesPerPublisher = new long[noOfPublishers];
+        for (int i = 0; i < noOfPublishers; i++) {
+            firstSequences[i] = -1;
+        }
+    }
+
+    /**
+     * @param eventLoop event loop of the connection, whose fan-out skew row is updated by this tracker.
+     */
+    public void setEventLoop(EventLoop eventLoop) {
+        this.row = fanOut.getRow(eventLoop);
+    }
+
+    /**
+     * Track a delivered message.
+     *
+     * @param content content of the message. The reader index is not changed.
+     * @param receiveTime {@link System#nanoTime()} when the message was received.
+     * @return true if the message was published by this process, in which case its send time is available from
+     * {@link #getLastSendTime()}.
+     */
+    public boolean deliver(ByteBuf content, long receiveTime) {
+        long messageId = PayloadTemplate.readMessageId(content);
+        int publisherId = messageId < 0 ? -1 : FanOut.publisherOf(messageId);
+        if (publisherId < 0 || publisherId >= firstSequences.length) {
+            noOfCorruptedDeliveries++;
+            return false;
+        }
+        long sequence = FanOut.sequenceOf(messageId);
+        noOfDeliveries++;
+        noOfDeliveriesPerPublisher[publisherId]++;
+        if (firstSequences[publisherId] < 0) {
+            firstSequences[publisherId] = sequence;
+            nextSequences[publisherId] = sequence + 1;
+        } else if (sequence >= nextSequences[publisherId]) {
+            nextSequences[publisherId] = sequence + 1;
+        } else {
+            noOfOutOfOrderDeliveries++;
+        }
+
+        FanOutSkew fanOutSkew = fanOut.getSkew(publisherId);
+        if (fanOutSkew == null) {
+            return false;
+        }
+        fanOutSkew.recordDelivery(row, sequence, receiveTime);
+        lastSendTime = PayloadTemplate.readSendTime(content);
+        return true;
+    }
+
+    /**
+     * Get the no of messages which should have been delivered. All the messages of the publishers in this process
+     * are expected, since subscribers are connected before they start. Messages of other publishers are expected
+     * from the first one which was delivered until the last one which was delivered.
+     *
+     * @param lastSequences sequence no of the last message of each publisher in this process, -1 if it did not
+     *                      publish.
+     * @return no of expected messages.
+     */
+    public long getNoOfExpectedDeliveries(long[] lastSequences) {
+        long noOfExpectedDeliveries = 0;
+        for (int publisherId = 0; publisherId < firstSequences.length; publisherId++) {
+            noOfExpectedDeliveries += getNoOfExpectedDeliveries(publisherId, lastSequences);
+        }
+        return noOfExpectedDeliveries;
+    }
+
+    /**
+     * @param lastSequences sequence no of the last message of each publisher in this process, -1 if it did not
+     *                      publish.
+     * @return no of expected messages which were not delivered.
+     */
+    public long getNoOfMissingDeliveries(long[] lastSequences) {
+        long noOfMissingDeliveries = 0;
+        for (int publisherId = 0; publisherId < firstSequences.length; publisherId++) {
+            noOfMissingDeliveries += Math.max(getNoOfExpectedDeliveries(publisherId, lastSequences) -
+                                                      noOfDeliveriesPerPublisher[publisherId], 0);
+        }
+        return noOfMissingDeliveries;
+    }
+
+    private long getNoOfExpectedDeliveries(int publisherId, long[] lastSequences) {
+        if (fanOut.isLocalPublisher(publisherId)) {
+            return lastSequences[publisherId] + 1;
+        }
+        return firstSequences[publisherId] < 0 ? 0 : nextSequences[publisherId] - firstSequences[publisherId];
+    }
+
+    public long getLastSendTime() {
+        return lastSendTime;
+    }
+
+    public long getNoOfDeliveries() {
+        return noOfDeliveries;
+    }
+
+    public long getNoOfOutOfOrderDeliveries() {
+        return noOfOutOfOrderDeliveries;
+    }
+
+    public long getNoOfCorruptedDeliveries() {
+        return noOfCorruptedDeliveries;
+    }
+}
@@ -0,0 +1,365 @@
+package org.irunika.websocket.test.bench;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.zip.CRC32;
+
+/**
+ * Validates echoed messages against the messages sent by a connection.
+ * Sent messages are kept in a fixed size ring of primitive arrays indexed by message id, holding the send time,
+ * the body length and the body checksum of each message. An echo is matched using the message id in its header
+ * and its body is checked with a CRC32 computed directly on the received buffer. Fragmented echoes are checked
+ * with a running CRC32 as their fragments arrive.
+ * <p>
+ * A message which is not echoed when its slot is reused by a newer message, eg: while the server stalls in a
+ * constant rate test, is moved to a ring of late messages, so its echo is still validated and its latency is still
+ * measured when it arrives. The ring grows only while the server lags behind, up to {@link #MAX_LATE_MESSAGES},
+ * after which each new late message overwrites the oldest one, which is given up as missing.
+ * <p>
+ * Errors are counted by kind:
+ * <ul>
+ * <li>out of order: a valid echo which arrived after an echo of a later message</li>
+ * <li>missing: a message which was not echoed before the connection closed, or which was given up as late</li>
+ * <li>duplicate: a second echo of a message, or an echo of a message which was given up as missing</li>
+ * <li>corrupted: an echo with an unknown id, a malformed header or a body which does not match</li>
+ * </ul>
+ * A validator is not thread safe and should be used only from the event loop of its connection.
+ *
+ * @author irunika
+ */
+public class EchoValidator {
+
+    private static final long NO_MESSAGE = -1;
+    private static final int MAX_LATE_MESSAGES = 1 << 16;
+
+    private final int mask;
+    private final long[] messageIds;
+    private final long[] sendTimes;
+    private final int[] lengths;
+    private final int[] checksums;
+    private final boolean[] received;
+    // Ring of late messages, in the order of their ids, between lateHead and lateTail masked by lateMask
+    private long[] lateMessageIds = new long[0];
+    private long[] lateSendTimes = new long[0];
+    private int[] lateLengths = new int[0];
+    private int[] lateChecksums = new int[0];
+    private boolean[] lateReceived = new boolean[0];
+    private int lateMask = -1;
+    private long lateHead;
+    private long lateTail;
+    private final CRC32 crc = new CRC32();
+    private final ByteBuf fragmentedHeader = Unpooled.buffer(PayloadTemplate.HEADER_LENGTH,
+                                                             PayloadTemplate.HEADER_LENGTH);
+    private long fragmentedBodyLength;
+
+    private long highestSentMessageId = NO_MESSAGE;
+    private long nextExpectedMessageId = 0;
+    private long lastSendTime;
+    private int lastLength;
+    private int lastChecksum;
+
+    private long noOfOutOfOrderMessages;
+    private long noOfMissingMessages;
+    private long noOfDuplicateMessages;
+    private long noOfCorruptedMessages;
+    private long noOfLateMessages;
+
+    /**
+     * @param capacity max no of messages which can be in flight at once. Rounded up to a power of two.
+     */
+    public EchoValidator(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.messageIds = new long[size];
+        this.sendTimes = new long[size];
+        this.lengths = new int[size];
+        this.checksums = new int[size];
+        this.received = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            messageIds[i] = NO_MESSAGE;
+        }
+    }
+
+    /**
+     * Register a sent message.
+     *
+     * @param messageId id of the message.
+     * @param sendTime {@link System#nanoTime()} from which the round trip latency is measured.
+     * @param length length of the body, excluding the header.
+     * @param checksum CRC32 of the body.
+     */
+    public void register(long messageId, long sendTime, int length, int checksum) {
+        int slot = (int) (messageId & mask);
+        if (messageIds[slot] != NO_MESSAGE && !received[slot]) {
+            addLateMessage(slot);
+        }
+        messageIds[slot] = messageId;
+        sendTimes[slot] = sendTime;
+        lengths[slot] = length;
+        checksums[slot] = checksum;
+        received[slot] = false;
+        if (messageId > highestSentMessageId) {
+            highestSentMessageId = messageId;
+        }
+    }
+
+    /**
+     * Validate an echoed message.
+     *
+     * @param content content of the echoed frame. The reader index is not changed.
+     * @return true if the echo was matched to a sent message, in which case its send time is available from
+     * {@link #getLastSendTime()}.
+     */
+    public boolean validate(ByteBuf content) {
+        if (!match(PayloadTemplate.readMessageId(content))) {
+            return false;
+        }
+        int bodyIndex = content.readerIndex() + PayloadTemplate.HEADER_LENGTH;
+        int bodyLength = content.readableBytes() - PayloadTemplate.HEADER_LENGTH;
+        if (bodyLength != lastLength || PayloadTemplate.readSendTime(content) != lastSendTime) {
+            noOfCorruptedMessages++;
+            return true;
+        }
+        crc.reset();
+        Checksums.update(crc, content, bodyIndex, bodyLength);
+        if ((int) crc.getValue() != lastChecksum) {
+            noOfCorruptedMessages++;
+        }
+        return true;
+    }
+
+    /**
+     * Start validating an echoed message which arrives in several fragments. The header is collected from the
+     * first fragments and the checksum of the body is computed as the fragments arrive, so the message is never
+     * aggregated.
+     */
+    public void startFragments() {
+        fragmentedHeader.clear();
+        fragmentedBodyLength = 0;
+        crc.reset();
+    }
+
+    /**
+     * Add a fragment of the message which is being validated.
+     *
+     * @param content content of the fragment. The reader index is not changed.
+     */
+    public void updateFragment(ByteBuf content) {
+        int index = content.readerIndex();
+        int length = content.readableBytes();
+        int headerLength = Math.min(fragmentedHeader.writableBytes(), length);
+        fragmentedHeader.writeBytes(content, index, headerLength);
+        Checksums.update(crc, content, index + headerLength, length - headerLength);
+        fragmentedBodyLength += length - headerLength;
+    }
+
+    /**
+     * Validate the message after its final fragment is added.
+     *
+     * @return true if the echo was matched to a sent message, in which case its send time is available from
+     * {@link #getLastSendTime()}.
+     */
+    public boolean finishFragments() {
+        if (!match(PayloadTemplate.readMessageId(fragmentedHeader))) {
+            return false;
+        }
+        if (fragmentedBodyLength != lastLength || PayloadTemplate.readSendTime(fragmentedHeader) != lastSendTime ||
+                (int) crc.getValue() != lastChecksum) {
+            noOfCorruptedMessages++;
+        }
+        return true;
+    }
+
+    /**
+     * Match an echo to a sent message by its id, and count it as received.
+     *
+     * @param messageId id read from the header of the echo, -1 if the header is malformed.
+     * @return true if the echo was matched, in which case the send time, length and checksum of the sent message
+     * are kept as the last ones.
+     */
+    private boolean match(long messageId) {
+        if (messageId < 0 || messageId > highestSentMessageId) {
+            noOfCorruptedMessages++;
+            return false;
+        }
+        int slot = (int) (messageId & mask);
+        if (messageIds[slot] == messageId) {
+            if (received[slot]) {
+                noOfDuplicateMessages++;
+                return false;
+            }
+            received[slot] = true;
+            lastSendTime = sendTimes[slot];
+            lastLength = lengths[slot];
+            lastChecksum = checksums[slot];
+        } else if (!matchLateMessage(messageId)) {
+            return false;
+        }
+
+        if (messageId < nextExpectedMessageId) {
+            noOfOutOfOrderMessages++;
+        } else {
+            nextExpectedMessageId = messageId + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Match an echo to a message whose slot was reused.
+     *
+     * @return true if the echo was matched to a late message which was not echoed yet.
+     */
+    private boolean matchLateMessage(long messageId) {
+        int index = findLateMessage(messageId);
+        if (index < 0) {
+            if (messageId < messageIds[(int) (messageId & mask)]) {
+                // Already echoed and removed from the ring, or given up as missing
+                noOfDuplicateMessages++;
+            } else {
+                noOfCorruptedMessages++;
+            }
+            return false;
+        }
+        if (lateReceived[index]) {
+            noOfDuplicateMessages++;
+            return false;
+        }
+        lateReceived[index] = true;
+        lastSendTime = lateSendTimes[index];
+        lastLength = lateLengths[index];
+        lastChecksum = lateChecksums[index];
+        noOfLateMessages++;
+        while (lateHead < lateTail && lateReceived[(int) (lateHead & lateMask)]) {
+            lateHead++;
+        }
+        return true;
+    }
+
+    /**
+     * Binary search the ring of late messages, whose ids are in ascending order.
+     *
+     * @return index of the message in the ring, -1 if it is not in the ring.
+     */
+    private int findLateMessage(long messageId) {
+        long low = lateHead;
+        long high = lateTail - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            int index = (int) (middle & lateMask);
+            if (lateMessageIds[index] < messageId) {
+                low = middle + 1;
+            } else if (lateMessageIds[index] > messageId) {
+                high = middle - 1;
+            } else {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Move a message which was not echoed out of its slot, which is about to be reused. The ring is doubled while
+     * it is smaller than {@link #MAX_LATE_MESSAGES}, so adding a late message takes amortised constant time.
+     */
+    private void addLateMessage(int slot) {
+        if (lateTail - lateHead == lateMessageIds.length) {
+            if (lateMessageIds.length < MAX_LATE_MESSAGES) {
+                int newLength = Math.max(lateMessageIds.length * 2, 16);
+                lateMessageIds = copyLateMessages(lateMessageIds, new long[newLength]);
+                lateSendTimes = copyLateMessages(lateSendTimes, new long[newLength]);
+                lateLengths = copyLateMessages(lateLengths, new int[newLength]);
+                lateChecksums = copyLateMessages(lateChecksums, new int[newLength]);
+                lateReceived = copyLateMessages(lateReceived, new boolean[newLength]);
+                lateTail -= lateHead;
+                lateHead = 0;
+                lateMask = newLength - 1;
+            } else {
+                // Give up the oldest late message, whose entry is overwritten
+                if (!lateReceived[(int) (lateHead & lateMask)]) {
+                    noOfMissingMessages++;
+                }
+                lateHead++;
+            }
+        }
+        int index = (int) (lateTail & lateMask);
+        lateMessageIds[index] = messageIds[slot];
+        lateSendTimes[index] = sendTimes[slot];
+        lateLengths[index] = lengths[slot];
+        lateChecksums[index] = checksums[slot];
+        lateReceived[index] = false;
+        lateTail++;
+    }
+
+    /**
+     * Copy the late messages of a ring array to the start of a larger array.
+     */
+    private <T> T copyLateMessages(T source, T destination) {
+        int noOfLateMessages = (int) (lateTail - lateHead);
+        int start = (int) (lateHead & lateMask);
+        int firstPart = Math.min(noOfLateMessages, lateMessageIds.length - start);
+        System.arraycopy(source, start, destination, 0, firstPart);
+        System.arraycopy(source, 0, destination, firstPart, noOfLateMessages - firstPart);
+        return destination;
+    }
+
+    /**
+     * Count the messages which are still waiting for an echo as missing. Called when the connection is closed.
+     */
+    public void finish() {
+        for (int slot = 0; slot <= mask; slot++) {
+            if (messageIds[slot] != NO_MESSAGE && !received[slot]) {
+                noOfMissingMessages++;
+                received[slot] = true;
+            }
+        }
+        for (long i = lateHead; i < lateTail; i++) {
+            if (!lateReceived[(int) (i & lateMask)]) {
+                noOfMissingMessages++;
+            }
+        }
+        lateHead = 0;
+        lateTail = 0;
+    }
+
+    /**
+     * @return id of the last message which was sent, -1 if none.
+     */
+    public long getHighestSentMessageId() {
+        return highestSentMessageId;
+    }
+
+    public long getLastSendTime() {
+        return lastSendTime;
+    }
+
+    public long getNoOfOutOfOrderMessages() {
+        return noOfOutOfOrderMessages;
+    }
+
+    public long getNoOfMissingMessages() {
+        return noOfMissingMessages;
+    }
+
+    public long getNoOfDuplicateMessages() {
+        return noOfDuplicateMessages;
+    }
+
+    public long getNoOfCorruptedMessages() {
+        return noOfCorruptedMessages;
+    }
+
+    /**
+     * @return no of messages which were echoed after their slot was reused. They are not errors.
+     */
+    public long getNoOfLateMessages() {
+        return noOfLateMessages;
+    }
+
+    /**
+     * @return no of all the errors which are counted.
+     */
+    public long getNoOfErrors() {
+        return noOfOutOfOrderMessages + noOfMissingMessages + noOfDuplicateMessages + noOfCorruptedMessages;
+    }
+}
@@ -0,0 +1,106 @@
+package org.irunika.websocket.test.bench;
+
+import io.netty.channel.EventLoop;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closed loop sender which runs on the event loop of a connection instead of holding a thread of its own.
+ * It sends the same messages as the blocking loop of {@link WebSocketClientRunner}. Without an in-flight window
+ * the next message is written once the previous write is completed. With a window, messages are written until the
+ * window is full and then resumed when an echo is received. The think time between two messages is scheduled on
+ * the event loop instead of sleeping.
+ *
+ * @author irunika
+ */
+public class EventLoopSender implements Runnable {
+
+    private final WebSocketClient webSocketClient;
+    private final int noOfMessages;
+    private final Semaphore inFlightPermits;
+    private EventLoop eventLoop;
+    private int messageId;
+    private boolean waitingForEcho = false;
+    private boolean completed = false;
+    private volatile boolean stopSendingMessages = false;
+
+    /**
+     * @param webSocketClient connected client.
+     * @param noOfMessages no of messages to be sent, -1 to send until stopped.
+     */
+    public EventLoopSender(WebSocketClient webSocketClient, int noOfMessages) {
+        this.webSocketClient = webSocketClient;
+        this.noOfMessages = noOfMessages;
+        this.inFlightPermits = webSocketClient.getInFlightPermits();
+    }
+
+    public void start() {
+        eventLoop = webSocketClient.eventLoop();
+        if (inFlightPermits != null) {
+            webSocketClient.setEchoListener(this::onEcho);
+        }
+        eventLoop.execute(this);
+    }
+
+    public void setStopSendingMessages(boolean stopSendingMessages) {
+        this.stopSendingMessages = stopSendingMessages;
+    }
+
+    /**
+     * Send messages until the sender has to wait. Runs on the event loop of the connection.
+     */
+    @Override
+    public void run() {
+        while (!isDone()) {
+            if (inFlightPermits == null) {
+                long thinkTime = webSocketClient.nextThinkTimeInNanos();
+                webSocketClient.writeAndFlushMessage(messageId++, System.nanoTime())
+                        .addListener(future -> scheduleNext(thinkTime));
+                return;
+            }
+            if (!inFlightPermits.tryAcquire()) {
+                webSocketClient.flush();
+                waitingForEcho = true;
+                return;
+            }
+            webSocketClient.writeMessage(messageId++, System.nanoTime());
+            long thinkTime = webSocketClient.nextThinkTimeInNanos();
+            if (thinkTime > 0) {
+                webSocketClient.flush();
+                scheduleNext(thinkTime);
+                return;
+            }
+            if (webSocketClient.isFlushBatchFull()) {
+                webSocketClient.flush();
+            }
+        }
+        complete();
+    }
+
+    private void scheduleNext(long thinkTime) {
+        if (thinkTime > 0) {
+            eventLoop.schedule(this, thinkTime, TimeUnit.NANOSECONDS);
+        } else {
+            eventLoop.execute(this);
+        }
+    }
+
+    private void onEcho() {
+        if (waitingForEcho) {
+            waitingForEcho = false;
+            run();
+        }
+    }
+
+    private boolean isDone() {
+        return stopSendingMessages || messageId == noOfMessages || !webSocketClient.isActive();
+    }
+
+    private void complete() {
+        if (!completed) {
+            completed = true;
+            webSocketClient.stop();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package org.irunika.websocket.test.bench;
+
+import com.beust.jcommander.ParameterException;
+import io.netty.util.concurrent.EventExecutor;
+import org.irunika.websocket.test.bench.config.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.LongSupplier;
+
+/**
+ * Shared state of a fan-out test, in which a few publisher connections send messages which a broadcast server
+ * delivers to every connection.
+ * Publishers are the connections whose client id is below the no of publishers, so in distributed mode they are
+ * spread over the workers. The id of a published message carries the client id of its publisher above a 40 bit
+ * sequence no, so subscribers can tell the publishers apart. A publisher validates its own messages like echoes
+ * and ignores the messages of the other publishers.
+ * <p>
+ * Subscribers are connected before the publishers start, and are closed once the publishers have completed and
+ * no message is delivered for a second. Delivery latency and fan-out skew are measured only for the publishers
+ * in this process, since {@link System#nanoTime()} cannot be compared across processes.
+ *
+ * @author irunika
+ */
+public class FanOut {
+
+    private static final Logger log = LoggerFactory.getLogger(FanOut.class);
+
+    private static final int SEQUENCE_BITS = 40;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long QUIET_PERIOD_IN_MILLIS = 1000;
+    private static final long POLL_INTERVAL_IN_MILLIS = 100;
+
+    private final int noOfPublishers;
+    private final FanOutSkew[] fanOutSkews;
+    private final Map<EventExecutor, Integer> rows = new IdentityHashMap<>();
+    private final CountDownLatch publisherLatch;
+    private final CountDownLatch subscriberLatch;
+    private final CountDownLatch subscribersReady;
+
+    /**
+     * @param args test configuration.
+     * @param firstClientId client id of the first connection of this process.
+     * @param clientIdStride difference between the client ids of two consecutive connections of this process.
+     * @param transport transport of the test, whose event loops receive the messages.
+     * @param measurementWindow steady state window of the test.
+     */
+    public FanOut(Args args, int firstClientId, int clientIdStride, ClientTransport transport,
+                  MeasurementWindow measurementWindow) {
+        if (args.getFragmentSize() > 0) {
+            throw new ParameterException("Fragmented messages are not supported in a fan-out test");
+        }
+        this.noOfPublishers = args.getNoOfPublishers();
+        for (EventExecutor eventLoop : transport.getEventLoopGroup()) {
+            rows.put(eventLoop, rows.size());
+        }
+        this.fanOutSkews = new FanOutSkew[noOfPublishers];
+        int noOfLocalPublishers = 0;
+        for (int i = 0; i < args.getNoOfConnections(); i++) {
+            int clientId = firstClientId + i * clientIdStride;
+            if (isPublisher(clientId)) {
+                fanOutSkews[clientId] = new FanOutSkew(args.getValidationWindow(), rows.size(), measurementWindow);
+                noOfLocalPublishers++;
+            }
+        }
+        int noOfLocalSubscribers = args.getNoOfConnections() - noOfLocalPublishers;
+        if (noOfLocalSubscribers == 0 && clientIdStride == 1) {
+            throw new ParameterException("No of publishers should be less than the no of connections");
+        }
+        this.publisherLatch = new CountDownLatch(noOfLocalPublishers);
+        this.subscriberLatch = new CountDownLatch(noOfLocalSubscribers);
+        this.subscribersReady = new CountDownLatch(noOfLocalSubscribers);
+        log.info("Fan-out test with {} publishers, {} of them and {} subscribers in this process", noOfPublishers,
+                 noOfLocalPublishers, noOfLocalSubscribers);
+    }
+
+    /**
+     * @param publisherId client id of the publisher.
+     * @return prefix of the ids of the messages of the publisher.
+     */
+    public static long messageIdPrefix(int publisherId) {
+        return (long) publisherId << SEQUENCE_BITS;
+    }
+
+    /**
+     * @param messageId id of a published message.
+     * @return client id of the publisher of the message.
+     */
+    public static int publisherOf(long messageId) {
+        return (int) (messageId >>> SEQUENCE_BITS);
+    }
+
+    /**
+     * @param messageId id of a published message.
+     * @return sequence no of the message among the messages of its publisher.
+     */
+    public static long sequenceOf(long messageId) {
+        return messageId & SEQUENCE_MASK;
+    }
+
+    public int getNoOfPublishers() {
+        return noOfPublishers;
+    }
+
+    public boolean isPublisher(int clientId) {
+        return clientId < noOfPublishers;
+    }
+
+    /**
+     * @return true if the publisher runs in this process.
+     */
+    public boolean isLocalPublisher(int publisherId) {
+        return fanOutSkews[publisherId] != null;
+    }
+
+    /**
+     * @return fan-out skew of a publisher, null if the publisher does not run in this process.
+     */
+    public FanOutSkew getSkew(int publisherId) {
+        return fanOutSkews[publisherId];
+    }
+
+    /**
+     * @return row of an event loop in the fan-out skew rings.
+     */
+    public int getRow(EventExecutor eventLoop) {
+        return rows.get(eventLoop);
+    }
+
+    /**
+     * @return latch which the connection of a client counts down when it is closed.
+     */
+    public CountDownLatch getLatch(int clientId) {
+        return isPublisher(clientId) ? publisherLatch : subscriberLatch;
+    }
+
+    /**
+     * Count a subscriber whose connection attempt is completed, successfully or not.
+     */
+    public void subscriberReady() {
+        subscribersReady.countDown();
+    }
+
+    /**
+     * Wait until the connection attempts of all the subscribers of this process are completed.
+     */
+    public void awaitSubscribers() throws InterruptedException {
+        subscribersReady.await();
+    }
+
+    /**
+     * Wait until the publishers of this process are closed and the delivery of their messages is completed, then
+     * close the subscribers and wait until they are closed.
+     *
+     * @param runners runners of all the connections of this process.
+     * @param noOfMessagesReceived no of messages received by all the connections so far.
+     */
+    public void awaitCompletion(Iterable<WebSocketClientRunner> runners, LongSupplier noOfMessagesReceived)
+            throws InterruptedException {
+        publisherLatch.await();
+        long lastNoOfMessagesReceived = noOfMessagesReceived.getAsLong();
+        long quietSince = System.currentTimeMillis();
+        while (System.currentTimeMillis() - quietSince < QUIET_PERIOD_IN_MILLIS) {
+            Thread.sleep(POLL_INTERVAL_IN_MILLIS);
+            long currentNoOfMessagesReceived = noOfMessagesReceived.getAsLong();
+            if (currentNoOfMessagesReceived != lastNoOfMessagesReceived) {
+                lastNoOfMessagesReceived = currentNoOfMessagesReceived;
+                quietSince = System.currentTimeMillis();
+            }
+        }
+        log.info("Publishers are completed, closing the subscribers");
+        for (WebSocketClientRunner runner : runners) {
+            if (runner.isSubscriber()) {
+                runner.stopSubscriber();
+            }
+        }
+        subscriberLatch.await();
+    }
+
+    /**
+     * Get the sequence no of the last message of each publisher of this process, and record the fan-out skew of
+     * the messages which are still in the windows. Called after all the connections are closed.
+     *
+     * @param runners runners of all the connections of this process.
+     * @return sequence no of the last message of each publisher, -1 for publishers which did not publish or do not
+     * run in this process.
+     */
+    public long[] finish(Iterable<WebSocketClientRunner> runners) {
+        long[] lastSequences = new long[noOfPublishers];
+        for (int i = 0; i < noOfPublishers; i++) {
+            lastSequences[i] = -1;
+        }
+        for (WebSocketClientRunner runner : runners) {
+            EchoValidator echoValidator = runner.getEchoValidator();
+            if (isPublisher(runner.getClientId()) && echoValidator != null &&
+                    echoValidator.getHighestSentMessageId() >= 0) {
+                lastSequences[runner.getClientId()] = sequenceOf(echoValidator.getHighestSentMessageId());
+            }
+        }
+        for (int publisherId = 0; publisherId < noOfPublishers; publisherId++) {
+            if (fanOutSkews[publisherId] != null) {
+                fanOutSkews[publisherId].finish(lastSequences[publisherId]);
+            }
+        }
+        return lastSequences;
+    }
+}
@@ -0,0 +1,119 @@
+package org.irunika.websocket.test.bench;
+
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fan-out skew of the messages of a publisher: the time between the first and the last subscriber receiving
+ * each message.
+ * Deliveries are recorded in one row of rings per event loop, which holds the first and the last receive time of
+ * the recent messages on that event loop, so each row has a single writer and the event loops do not contend.
+ * The rows of a message are merged on the event loop of the publisher when its slot is about to be reused, a
+ * window of messages after it was published, and the skew is recorded in a histogram which is owned by that
+ * event loop. Deliveries which arrive after their message is merged are not included in its skew.
+ *
+ * @author irunika
+ */
+public class FanOutSkew {
+
+    private static final long NO_MESSAGE = -1;
+
+    private final int windowSize;
+    private final int mask;
+    private final int noOfRows;
+    private final MeasurementWindow measurementWindow;
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray firstReceiveTimes;
+    private final AtomicLongArray lastReceiveTimes;
+    private final long[] sendTimes;
+    private final LatencyHistogram skewHistogram = new LatencyHistogram();
+
+    /**
+     * @param windowSize no of messages after which the skew of a message is recorded. Rounded up to a power of two.
+     * @param noOfRows no of event loops which receive messages.
+     * @param measurementWindow steady state window of the test.
+     */
+    public FanOutSkew(int windowSize, int noOfRows, MeasurementWindow measurementWindow) {
+        this.windowSize = Integer.highestOneBit(Math.max(windowSize, 2) - 1) << 1;
+        this.mask = this.windowSize - 1;
+        this.noOfRows = noOfRows;
+        this.measurementWindow = measurementWindow;
+        this.sequences = new AtomicLongArray(this.windowSize * noOfRows);
+        this.firstReceiveTimes = new AtomicLongArray(this.windowSize * noOfRows);
+        this.lastReceiveTimes = new AtomicLongArray(this.windowSize * noOfRows);
+        this.sendTimes = new long[this.windowSize];
+        for (int i = 0; i < sequences.length(); i++) {
+            sequences.set(i, NO_MESSAGE);
+        }
+    }
+
+    /**
+     * Record that a message is about to be published, and the skew of the message which used its slot before.
+     * Called from the event loop of the publisher.
+     *
+     * @param sequence sequence no of the message.
+     * @param sendTime {@link System#nanoTime()} when the message is sent.
+     */
+    public void publish(long sequence, long sendTime) {
+        if (sequence >= windowSize) {
+            recordSkew(sequence - windowSize);
+        }
+        sendTimes[(int) (sequence & mask)] = sendTime;
+    }
+
+    /**
+     * Record a delivery of a message. Called from the event loop which owns the row.
+     *
+     * @param row row of the event loop of the subscriber.
+     * @param sequence sequence no of the message.
+     * @param receiveTime {@link System#nanoTime()} when the message was received.
+     */
+    public void recordDelivery(int row, long sequence, long receiveTime) {
+        int index = row * windowSize + (int) (sequence & mask);
+        long slotSequence = sequences.get(index);
+        if (slotSequence == sequence) {
+            lastReceiveTimes.lazySet(index, receiveTime);
+        } else if (slotSequence < sequence) {
+            // The times are published before the sequence no, which is read first by the publisher
+            firstReceiveTimes.lazySet(index, receiveTime);
+            lastReceiveTimes.lazySet(index, receiveTime);
+            sequences.lazySet(index, sequence);
+        }
+    }
+
+    /**
+     * Record the skew of the messages which are still in the window. Called after all the connections are closed.
+     *
+     * @param lastSequence sequence no of the last message which was published, -1 if none.
+     */
+    public void finish(long lastSequence) {
+        for (long sequence = Math.max(0, lastSequence - windowSize + 1); sequence <= lastSequence; sequence++) {
+            recordSkew(sequence);
+        }
+    }
+
+    private void recordSkew(long sequence) {
+        int slot = (int) (sequence & mask);
+        long firstReceiveTime = Long.MAX_VALUE;
+        long lastReceiveTime = Long.MIN_VALUE;
+        for (int row = 0; row < noOfRows; row++) {
+            int index = row * windowSize + slot;
+            if (sequences.get(index) == sequence) {
+                firstReceiveTime = Math.min(firstReceiveTime, firstReceiveTimes.get(index));
+                lastReceiveTime = Math.max(lastReceiveTime, lastReceiveTimes.get(index));
+            }
+        }
+        if (firstReceiveTime <= lastReceiveTime && measurementWindow.contains(sendTimes[slot])) {
+            skewHistogram.recordValue(lastReceiveTime - firstReceiveTime);
+        }
+    }
+
+    /**
+     * Skew histogram of the messages of the publisher.
+     * It is updated by the event loop of the publisher and should be read after {@link #finish(long)}.
+     */
+    public LatencyHistogram getSkewHistogram() {
+        return skewHistogram;
+    }
+}
@@ -0,0 +1,262 @@
+package org.irunika.websocket.test.bench;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.irunika.websocket.test.bench.metrics.GeneratorMetrics;
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.irunika.websocket.test.bench.metrics.MetricNames;
+import org.irunika.websocket.test.bench.metrics.MetricsRegistry;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the load generator itself while a test is running, so a server limit can be told apart from a test
+ * bench limit. Every 100 ms a probe task is handed to each event loop, which measures how long the task waited
+ * before it ran and how many tasks were queued behind it. Every second the bytes queued for writing on all the
+ * connections, the CPU time of the process, the GC pauses and the bytes allocated by all the threads are sampled.
+ * <p>
+ * A probe which waits longer than the probe interval also stands for the probes which would have been handed to
+ * the event loop meanwhile, so a stall is counted for its whole length. Allocations of threads which end between
+ * two samples are not counted.
+ *
+ * @author irunika
+ */
+public class GeneratorMonitor {
+
+    private static final long PROBE_INTERVAL_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SAMPLE_INTERVAL_IN_MILLIS = 1000;
+
+    private final ClientTransport transport;
+    private final List<LagProbe> lagProbes = new ArrayList<>();
+    private final List<GarbageCollectorMXBean> garbageCollectors = new ArrayList<>();
+    private final com.sun.management.OperatingSystemMXBean operatingSystem;
+    private final com.sun.management.ThreadMXBean threads;
+    private final int noOfCores = Runtime.getRuntime().availableProcessors();
+    private final ScheduledExecutorService scheduler;
+    private Map<Long, Long> allocatedBytesByThread = new HashMap<>();
+    private long startTime;
+    private long startCpuTime;
+    private long startNoOfGcs;
+    private long startGcTime;
+    private long lastSampleTime;
+    private long lastCpuTime;
+    private double peakCpuUtilization;
+    private long maxPendingWriteBytes;
+    private volatile long cpuPercentage;
+    private volatile long pendingWriteBytes;
+    private volatile long allocatedBytes;
+    private GeneratorMetrics metrics;
+
+    /**
+     * @param transport transport of the test, whose event loops and connections are watched.
+     * @param registry registry to which the live values are added.
+     */
+    public GeneratorMonitor(ClientTransport transport, MetricsRegistry registry) {
+        this.transport = transport;
+        for (EventExecutor eventLoop : transport.getEventLoopGroup()) {
+            lagProbes.add(new LagProbe(eventLoop));
+        }
+        for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            // Concurrent cycles of G1, ZGC and Shenandoah run beside the application threads and are not pauses
+            String name = garbageCollector.getName();
+            if (!name.contains("Cycles") && !name.contains("Concurrent")) {
+                garbageCollectors.add(garbageCollector);
+            }
+        }
+        OperatingSystemMXBean operatingSystemMXBean = ManagementFactory.getOperatingSystemMXBean();
+        this.operatingSystem = operatingSystemMXBean instanceof com.sun.management.OperatingSystemMXBean ?
+                (com.sun.management.OperatingSystemMXBean) operatingSystemMXBean : null;
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        this.threads = threadMXBean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemoryEnabled() ?
+                (com.sun.management.ThreadMXBean) threadMXBean : null;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "generator-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        registry.histogram(MetricNames.GENERATOR_EVENT_LOOP_LAG, lagProbes, lagProbe -> lagProbe.lagHistogram);
+        registry.gauge(MetricNames.GENERATOR_PENDING_TASKS, () -> {
+            long noOfPendingTasks = 0;
+            for (LagProbe lagProbe : lagProbes) {
+                noOfPendingTasks += lagProbe.noOfPendingTasks;
+            }
+            return noOfPendingTasks;
+        });
+        registry.gauge(MetricNames.GENERATOR_PENDING_WRITE_BYTES, () -> pendingWriteBytes);
+        registry.gauge(MetricNames.GENERATOR_CPU_PERCENTAGE, () -> cpuPercentage);
+        registry.gauge(MetricNames.GENERATOR_GC_TIME, () -> getGcTime() - startGcTime);
+        registry.gauge(MetricNames.GENERATOR_ALLOCATED_BYTES, () -> allocatedBytes);
+    }
+
+    public void start() {
+        startTime = System.nanoTime();
+        startCpuTime = getCpuTime();
+        startNoOfGcs = getNoOfGcs();
+        startGcTime = getGcTime();
+        lastSampleTime = startTime;
+        lastCpuTime = startCpuTime;
+        sampleAllocations(false);
+        scheduler.scheduleAtFixedRate(this::probeEventLoops, 0, PROBE_INTERVAL_IN_NANOS, TimeUnit.NANOSECONDS);
+        scheduler.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL_IN_MILLIS, SAMPLE_INTERVAL_IN_MILLIS,
+                                      TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop monitoring. A last sample is taken before stopping. Calling it again returns the same metrics.
+     *
+     * @return the load of the generator over the monitored time.
+     */
+    public synchronized GeneratorMetrics stop() {
+        if (metrics != null) {
+            return metrics;
+        }
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(SAMPLE_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sample();
+        metrics = new GeneratorMetrics();
+        long maxNoOfPendingTasks = 0;
+        for (LagProbe lagProbe : lagProbes) {
+            metrics.getEventLoopLagHistogram().add(lagProbe.lagHistogram);
+            maxNoOfPendingTasks = Math.max(maxNoOfPendingTasks, lagProbe.maxNoOfPendingTasks);
+        }
+        long cpuTime = getCpuTime();
+        metrics.setProcessTotals(System.nanoTime() - startTime, cpuTime >= 0 ? cpuTime - startCpuTime : -1,
+                                 noOfCores, getNoOfGcs() - startNoOfGcs, getGcTime() - startGcTime,
+                                 allocatedBytes);
+        metrics.setPeaks(peakCpuUtilization, maxNoOfPendingTasks, maxPendingWriteBytes);
+        return metrics;
+    }
+
+    private void probeEventLoops() {
+        for (LagProbe lagProbe : lagProbes) {
+            lagProbe.submit();
+        }
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        long cpuTime = getCpuTime();
+        if (cpuTime >= 0 && now > lastSampleTime) {
+            double cpuUtilization = (double) (cpuTime - lastCpuTime) / ((now - lastSampleTime) * noOfCores);
+            peakCpuUtilization = Math.max(peakCpuUtilization, cpuUtilization);
+            cpuPercentage = Math.round(cpuUtilization * 100);
+        }
+        lastSampleTime = now;
+        lastCpuTime = cpuTime;
+        sampleAllocations(true);
+        pendingWriteBytes = transport.getPendingWriteBytes();
+        maxPendingWriteBytes = Math.max(maxPendingWriteBytes, pendingWriteBytes);
+    }
+
+    /**
+     * Add the bytes allocated by each thread since the last sample. Threads which started since then are counted
+     * from their start.
+     */
+    private void sampleAllocations(boolean count) {
+        if (threads == null) {
+            return;
+        }
+        long[] threadIds = threads.getAllThreadIds();
+        long[] threadAllocatedBytes = threads.getThreadAllocatedBytes(threadIds);
+        Map<Long, Long> currentAllocatedBytesByThread = new HashMap<>(threadIds.length * 2);
+        long newlyAllocatedBytes = 0;
+        for (int i = 0; i < threadIds.length; i++) {
+            if (threadAllocatedBytes[i] < 0) {
+                // Thread ended
+                continue;
+            }
+            Long lastAllocatedBytes = allocatedBytesByThread.get(threadIds[i]);
+            newlyAllocatedBytes += threadAllocatedBytes[i] - (lastAllocatedBytes != null ? lastAllocatedBytes : 0);
+            currentAllocatedBytesByThread.put(threadIds[i], threadAllocatedBytes[i]);
+        }
+        allocatedBytesByThread = currentAllocatedBytesByThread;
+        if (count) {
+            allocatedBytes += newlyAllocatedBytes;
+        }
+    }
+
+    private long getCpuTime() {
+        return operatingSystem != null ? operatingSystem.getProcessCpuTime() : -1;
+    }
+
+    private long getNoOfGcs() {
+        long noOfGcs = 0;
+        for (GarbageCollectorMXBean garbageCollector : garbageCollectors) {
+            noOfGcs += Math.max(garbageCollector.getCollectionCount(), 0);
+        }
+        return noOfGcs;
+    }
+
+    private long getGcTime() {
+        long gcTime = 0;
+        for (GarbageCollectorMXBean garbageCollector : garbageCollectors) {
+            gcTime += Math.max(garbageCollector.getCollectionTime(), 0);
+        }
+        return gcTime;
+    }
+
+    /**
+     * Task which measures the scheduling lag of an event loop. At most one probe of an event loop is queued at a
+     * time. The histogram and the pending task counts are written only by the event loop.
+     */
+    private static class LagProbe implements Runnable {
+
+        private final EventExecutor eventLoop;
+        private final LatencyHistogram lagHistogram = new LatencyHistogram();
+        private volatile long submitTime;
+        private volatile boolean queued;
+        private volatile int noOfPendingTasks;
+        private volatile int maxNoOfPendingTasks;
+
+        LagProbe(EventExecutor eventLoop) {
+            this.eventLoop = eventLoop;
+        }
+
+        void submit() {
+            if (queued) {
+                // Still waiting, its lag covers this probe
+                return;
+            }
+            queued = true;
+            submitTime = System.nanoTime();
+            try {
+                eventLoop.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Event loop is shut down at the end of the test
+                queued = false;
+            }
+        }
+
+        @Override
+        public void run() {
+            long lag = System.nanoTime() - submitTime;
+            lagHistogram.recordValue(lag);
+            for (long missedLag = lag - PROBE_INTERVAL_IN_NANOS; missedLag > 0;
+                 missedLag -= PROBE_INTERVAL_IN_NANOS) {
+                lagHistogram.recordValue(missedLag);
+            }
+            if (eventLoop instanceof SingleThreadEventExecutor) {
+                // Tasks queued behind the probe, which may only be counted on the event loop
+                noOfPendingTasks = ((SingleThreadEventExecutor) eventLoop).pendingTasks();
+                maxNoOfPendingTasks = Math.max(maxNoOfPendingTasks, noOfPendingTasks);
+            }
+            queued = false;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.irunika.websocket.test.bench;
+
+import com.beust.jcommander.ParameterException;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.ssl.SslHandler;
+import org.irunika.websocket.test.bench.config.Args;
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.irunika.websocket.test.bench.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test of the TLS handshake rate of a server.
+ * Each of the -n slots runs a closed loop of connecting, completing the TLS handshake and closing the connection,
+ * -m times or until the test time is over. There is no WebSocket upgrade. Handshakes which resumed an earlier
+ * session are measured separately from full handshakes. Each slot runs on one event loop and keeps its own
+ * histograms, which are merged when the test is completed.
+ *
+ * @author irunika
+ */
+public class HandshakeRateTest {
+
+    private static final Logger log = LoggerFactory.getLogger(HandshakeRateTest.class);
+
+    // Wait for the close_notify of the server, which follows the session tickets of TLS 1.3
+    private static final long CLOSE_NOTIFY_READ_TIMEOUT_IN_MILLIS = 1000;
+
+    private final Args args;
+    private final ClientTransport transport;
+    private final String host;
+    private final int port;
+    private final ConnectionMetrics connectionMetrics;
+    private volatile boolean stopped;
+
+    /**
+     * @param args test configuration, with a wss URL.
+     * @param transport transport with the TLS context of the test.
+     * @param registry registry of the test, which the connection metrics are registered in.
+     */
+    public HandshakeRateTest(Args args, ClientTransport transport, MetricsRegistry registry)
+            throws URISyntaxException {
+        URI uri = new URI(args.getUrl());
+        if (!"wss".equalsIgnoreCase(uri.getScheme()) || transport.getSslContext() == null) {
+            throw new ParameterException("Handshake test needs a wss URL: " + args.getUrl());
+        }
+        this.args = args;
+        this.transport = transport;
+        this.host = uri.getHost() == null ? "127.0.0.1" : uri.getHost();
+        this.port = uri.getPort() == -1 ? 443 : uri.getPort();
+        this.connectionMetrics = new ConnectionMetrics(registry);
+    }
+
+    /**
+     * Run the test.
+     *
+     * @return result of the test, with the connect and TLS handshake times and the connection metrics.
+     */
+    public TestResult run() throws InterruptedException {
+        int noOfSlots = args.getNoOfConnections();
+        CountDownLatch countDownLatch = new CountDownLatch(noOfSlots);
+        List<Slot> slots = new ArrayList<>();
+        log.info("Starting {} handshake loops against {}:{}", noOfSlots, host, port);
+
+        long testStartTime = System.currentTimeMillis();
+        for (int i = 0; i < noOfSlots; i++) {
+            Slot slot = new Slot(args.getNoOfMessagesPerConnection(), countDownLatch);
+            slots.add(slot);
+            slot.start();
+        }
+        if (args.getTestTimeInMinutes() > 0) {
+            Thread.sleep(TimeUnit.MINUTES.toMillis(args.getTestTimeInMinutes()));
+            stopped = true;
+        }
+        countDownLatch.await();
+        long testEndTime = System.currentTimeMillis();
+
+        TestResult result = new TestResult();
+        for (Slot slot : slots) {
+            result.getConnectTimeHistogram().add(slot.connectTimeHistogram);
+            result.getTlsHandshakeTimeHistogram().add(slot.tlsHandshakeTimeHistogram);
+            result.getResumedTlsHandshakeTimeHistogram().add(slot.resumedTlsHandshakeTimeHistogram);
+        }
+        result.setTestTimeInMillis(testEndTime - testStartTime);
+        result.setNoOfConnections(noOfSlots);
+        result.setConnectionMetrics(connectionMetrics);
+        return result;
+    }
+
+    /**
+     * A closed loop of handshakes on one event loop. The histograms are updated only by that event loop.
+     */
+    private class Slot {
+
+        private final Bootstrap bootstrap;
+        private final CountDownLatch countDownLatch;
+        private final LatencyHistogram connectTimeHistogram = new LatencyHistogram();
+        private final LatencyHistogram tlsHandshakeTimeHistogram = new LatencyHistogram();
+        private final LatencyHistogram resumedTlsHandshakeTimeHistogram = new LatencyHistogram();
+        private int remainingHandshakes;
+
+        /**
+         * @param noOfHandshakes no of handshakes to do, -1 to do handshakes until the test is stopped.
+         * @param countDownLatch latch which is counted down when the loop is completed.
+         */
+        Slot(int noOfHandshakes, CountDownLatch countDownLatch) {
+            this.remainingHandshakes = noOfHandshakes;
+            this.countDownLatch = countDownLatch;
+            this.bootstrap = new Bootstrap()
+                    .group(transport.getEventLoopGroup().next())
+                    .channel(transport.getChannelClass())
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            transport.track(ch);
+                            SslHandler sslHandler = transport.getSslContext().newHandler(ch.alloc(), host, port);
+                            sslHandler.setCloseNotifyReadTimeoutMillis(CLOSE_NOTIFY_READ_TIMEOUT_IN_MILLIS);
+                            ch.pipeline().addLast(sslHandler, new ChannelInboundHandlerAdapter() {
+                                @Override
+                                public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                                    // Failures are recorded from the handshake future
+                                    ctx.close();
+                                }
+                            });
+                        }
+                    });
+        }
+
+        void start() {
+            bootstrap.config().group().execute(this::connect);
+        }
+
+        private void connect() {
+            if (stopped || remainingHandshakes == 0) {
+                countDownLatch.countDown();
+                return;
+            }
+            if (remainingHandshakes > 0) {
+                remainingHandshakes--;
+            }
+            long connectStartTime = System.nanoTime();
+            bootstrap.connect(host, port).addListener((ChannelFuture connectFuture) -> {
+                if (!connectFuture.isSuccess()) {
+                    connectionMetrics.recordFailure("connect", connectFuture.cause());
+                    connect();
+                    return;
+                }
+                long tlsStartTime = System.nanoTime();
+                long tlsStartTimeInMillis = System.currentTimeMillis();
+                connectTimeHistogram.recordValue(tlsStartTime - connectStartTime);
+                Channel channel = connectFuture.channel();
+                SslHandler sslHandler = channel.pipeline().get(SslHandler.class);
+                sslHandler.handshakeFuture().addListener(handshakeFuture -> {
+                    if (handshakeFuture.isSuccess()) {
+                        long tlsHandshakeTime = System.nanoTime() - tlsStartTime;
+                        if (TlsSessions.isResumed(sslHandler, tlsStartTimeInMillis)) {
+                            resumedTlsHandshakeTimeHistogram.recordValue(tlsHandshakeTime);
+                        } else {
+                            tlsHandshakeTimeHistogram.recordValue(tlsHandshakeTime);
+                        }
+                        if (!transport.isSessionResumption()) {
+                            TlsSessions.invalidate(sslHandler);
+                        }
+                        connectionMetrics.recordConnectionEstablished();
+                        connectionMetrics.recordConnectionClosed();
+                    } else {
+                        connectionMetrics.recordFailure("tls", handshakeFuture.cause());
+                    }
+                    channel.close();
+                });
+                channel.closeFuture().addListener(closeFuture -> connect());
+            });
+        }
+    }
+}
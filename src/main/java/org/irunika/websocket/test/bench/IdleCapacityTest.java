@@ -0,0 +1,421 @@
+package org.irunika.websocket.test.bench;
+
+import com.beust.jcommander.ParameterException;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.irunika.websocket.test.bench.config.Args;
+import org.irunika.websocket.test.bench.config.DeflateParameters;
+import org.irunika.websocket.test.bench.metrics.Counter;
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.irunika.websocket.test.bench.metrics.MemoryMonitor;
+import org.irunika.websocket.test.bench.metrics.MetricNames;
+import org.irunika.websocket.test.bench.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.ClosedChannelException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Test of how many mostly idle connections a server can hold, and what each of them costs the test bench.
+ * The -n connections are opened at the ramp up rate and held for -t minutes, sending only a ping every ping
+ * interval, and are closed once the time is over, or as soon as they are all open if no time is given. The
+ * memory used by the test bench is measured after a GC before the connections are opened and once they are open,
+ * and the difference is reported per connection.
+ * <p>
+ * Connections are kept lean: the URI, headers and pipeline initializer are shared, the handshaker of a connection
+ * is dropped once it is upgraded, there are no message queues or validators, socket buffers are small and
+ * histograms and counters are kept per event loop instead of per connection. A connection which is closed by the
+ * server while the test is running is recorded as an idle failure.
+ *
+ * @author irunika
+ */
+public class IdleCapacityTest {
+
+    private static final Logger log = LoggerFactory.getLogger(IdleCapacityTest.class);
+
+    private static final int MAX_FRAME_SIZE = 64 * 1024;
+    private static final String TLS_PHASE = "tls";
+    private static final String UPGRADE_PHASE = "upgrade";
+
+    private final Args args;
+    private final ClientTransport transport;
+    private final int firstClientId;
+    private final int clientIdStride;
+    private final URI uri;
+    private final String host;
+    private final int port;
+    private final DeflateParameters deflateParameters;
+    private final long pingIntervalInNanos;
+    private final Map<EventExecutor, EventLoopMetrics> eventLoopMetrics = new IdentityHashMap<>();
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private final MetricsRegistry registry;
+    private final ConnectionMetrics connectionMetrics;
+    private CountDownLatch connectionAttempts;
+    private volatile boolean stopped;
+
+    /**
+     * @param args test configuration.
+     * @param transport shared transport.
+     * @param registry registry of the test, which the metrics are registered in.
+     * @param firstClientId client id of the first connection, which gives its ramp up delay.
+     * @param clientIdStride difference between the client ids of two consecutive connections.
+     */
+    public IdleCapacityTest(Args args, ClientTransport transport, MetricsRegistry registry, int firstClientId,
+                            int clientIdStride)
+            throws URISyntaxException {
+        if (args.getNoOfPublishers() > 0 || args.isHandshakeTest()) {
+            throw new ParameterException("Idle test cannot be combined with --publishers or --handshake-test");
+        }
+        this.uri = new URI(args.getUrl());
+        boolean ssl = "wss".equalsIgnoreCase(uri.getScheme());
+        if (!ssl && !"ws".equalsIgnoreCase(uri.getScheme())) {
+            throw new URISyntaxException(args.getUrl(), "Only WS(S) is supported");
+        }
+        if (ssl && transport.getSslContext() == null) {
+            throw new ParameterException("TLS is not configured for " + args.getUrl());
+        }
+        this.args = args;
+        this.transport = transport;
+        this.registry = registry;
+        this.connectionMetrics = new ConnectionMetrics(registry);
+        this.firstClientId = firstClientId;
+        this.clientIdStride = clientIdStride;
+        this.host = uri.getHost() == null ? "127.0.0.1" : uri.getHost();
+        this.port = uri.getPort() != -1 ? uri.getPort() : ssl ? 443 : 80;
+        this.deflateParameters = args.getDeflateParameters();
+        this.pingIntervalInNanos = TimeUnit.SECONDS.toNanos(args.getPingIntervalInSeconds());
+        for (EventExecutor eventLoop : transport.getEventLoopGroup()) {
+            eventLoopMetrics.put(eventLoop, new EventLoopMetrics());
+        }
+        registry.sum(MetricNames.MESSAGES_RECEIVED, eventLoopMetrics.values(), metrics -> metrics.noOfPongs.get());
+        registry.histogram(MetricNames.ROUND_TRIP_LATENCY, eventLoopMetrics.values(),
+                           metrics -> metrics.pingRoundTripTimeHistogram);
+    }
+
+    /**
+     * Run the test.
+     *
+     * @param intervalListener listener of the interval reports, null for none. Pongs are reported as messages.
+     * @return result of the test, with the connection times, ping round trip times and memory per connection.
+     */
+    public TestResult run(Consumer<IntervalSnapshot> intervalListener) throws InterruptedException, IOException {
+        int noOfConnections = args.getNoOfConnections();
+        connectionAttempts = new CountDownLatch(noOfConnections);
+        RampUpScheduler rampUpScheduler = new RampUpScheduler(args.getRampUpRate(), args.getRampUpStages());
+        Bootstrap bootstrap = createBootstrap();
+        IntervalReportWriter intervalReportWriter = null;
+        IntervalReporter intervalReporter = null;
+        if (args.getReportIntervalInSeconds() > 0) {
+            intervalReportWriter = new IntervalReportWriter(args.getReportFile());
+            intervalReporter = new IntervalReporter(registry, args.getReportIntervalInSeconds(),
+                                                    intervalReportWriter, intervalListener);
+            intervalReporter.start();
+        }
+        MemoryMonitor memoryMonitor = new MemoryMonitor();
+        long baselineHeapMemory;
+        long baselineDirectMemory;
+        long idleHeapMemory;
+        long idleDirectMemory;
+        long noOfIdleConnections;
+        long testStartTime;
+        long testEndTime;
+        try {
+            collectGarbage();
+            baselineHeapMemory = memoryMonitor.getUsedHeapMemory();
+            baselineDirectMemory = memoryMonitor.getUsedDirectMemory();
+            memoryMonitor.start();
+            log.info("Opening {} idle connections to {}:{} with a ping every {} seconds", noOfConnections, host,
+                     port, args.getPingIntervalInSeconds());
+
+            testStartTime = System.currentTimeMillis();
+            for (int i = 0; i < noOfConnections; i++) {
+                long launchDelay = testStartTime + rampUpScheduler.getLaunchDelayInMillis(
+                        firstClientId + i * clientIdStride) - System.currentTimeMillis();
+                if (launchDelay > 0) {
+                    Thread.sleep(launchDelay);
+                }
+                connect(bootstrap);
+            }
+            connectionAttempts.await();
+
+            collectGarbage();
+            noOfIdleConnections = connectionMetrics.getNoOfActiveConnections();
+            idleHeapMemory = memoryMonitor.getUsedHeapMemory() - baselineHeapMemory;
+            idleDirectMemory = memoryMonitor.getUsedDirectMemory() - baselineDirectMemory;
+            log.info("{} connections are open, using {} heap bytes and {} direct bytes each", noOfIdleConnections,
+                     idleHeapMemory / Math.max(noOfIdleConnections, 1),
+                     idleDirectMemory / Math.max(noOfIdleConnections, 1));
+
+            if (args.getTestTimeInMinutes() > 0) {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(args.getTestTimeInMinutes()));
+            }
+            testEndTime = System.currentTimeMillis();
+        } finally {
+            stopped = true;
+            channels.writeAndFlush(new CloseWebSocketFrame(1000, "Going away")).awaitUninterruptibly();
+            channels.close().awaitUninterruptibly();
+            if (intervalReporter != null) {
+                intervalReporter.stop();
+                intervalReportWriter.close();
+            }
+            memoryMonitor.stop();
+        }
+
+        TestResult result = new TestResult();
+        long noOfPingsSent = 0;
+        for (EventLoopMetrics metrics : eventLoopMetrics.values()) {
+            result.getConnectTimeHistogram().add(metrics.connectTimeHistogram);
+            result.getUpgradeTimeHistogram().add(metrics.upgradeTimeHistogram);
+            result.getPingRoundTripTimeHistogram().add(metrics.pingRoundTripTimeHistogram);
+            noOfPingsSent += metrics.noOfPingsSent.get();
+        }
+        result.setTestTimeInMillis(testEndTime - testStartTime);
+        result.setNoOfConnections(noOfConnections);
+        result.setConnectionMetrics(connectionMetrics);
+        result.setPeakMemory(memoryMonitor);
+        result.setIdleMemory(noOfIdleConnections, idleHeapMemory, idleDirectMemory);
+        result.setNoOfPingsSent(noOfPingsSent);
+        return result;
+    }
+
+    private Bootstrap createBootstrap() {
+        Bootstrap bootstrap = new Bootstrap()
+                .group(transport.getEventLoopGroup())
+                .channel(transport.getChannelClass())
+                .option(ChannelOption.TCP_NODELAY, true)
+                // Reads of an idle connection are tiny, so start from a small read buffer
+                .option(ChannelOption.RCVBUF_ALLOCATOR, new AdaptiveRecvByteBufAllocator(64, 256, MAX_FRAME_SIZE))
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline p = ch.pipeline();
+                        transport.track(ch);
+                        if (transport.getSslContext() != null && "wss".equalsIgnoreCase(uri.getScheme())) {
+                            p.addLast(transport.getSslContext().newHandler(ch.alloc(), host, port));
+                        }
+                        // The codec and the aggregator are replaced by the frame codec on the upgrade
+                        p.addLast(new HttpClientCodec(), new HttpObjectAggregator(8192));
+                        if (deflateParameters != null) {
+                            p.addLast(deflateParameters.newClientHandler());
+                        }
+                        p.addLast(new IdleConnection());
+                    }
+                });
+        if (args.getSocketBufferSize() > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, args.getSocketBufferSize())
+                    .option(ChannelOption.SO_SNDBUF, args.getSocketBufferSize());
+        }
+        return bootstrap;
+    }
+
+    private void connect(Bootstrap bootstrap) {
+        long connectStartTime = System.nanoTime();
+        bootstrap.connect(host, port).addListener((ChannelFuture connectFuture) -> {
+            if (connectFuture.isSuccess()) {
+                connectFuture.channel().pipeline().get(IdleConnection.class).connected(connectStartTime);
+            } else {
+                connectionMetrics.recordFailure("connect", connectFuture.cause());
+                connectionAttempts.countDown();
+            }
+        });
+    }
+
+    private static void collectGarbage() throws InterruptedException {
+        System.gc();
+        // Let the reference handler release the direct buffers of collected objects
+        Thread.sleep(100);
+    }
+
+    /**
+     * Histograms and counters of the connections of one event loop, which are updated only by that event loop.
+     */
+    private static class EventLoopMetrics {
+
+        private final LatencyHistogram connectTimeHistogram = new LatencyHistogram();
+        private final LatencyHistogram upgradeTimeHistogram = new LatencyHistogram();
+        private final LatencyHistogram pingRoundTripTimeHistogram = new LatencyHistogram();
+        private final Counter noOfPingsSent = new Counter();
+        private final Counter noOfPongs = new Counter();
+    }
+
+    /**
+     * Handler of an idle connection, which upgrades it and then sends a ping every ping interval. The send time
+     * of a ping is its payload, so no state is kept for pings in flight.
+     */
+    private class IdleConnection extends ChannelInboundHandlerAdapter implements Runnable {
+
+        private WebSocketClientHandshaker handshaker = WebSocketClientHandshakerFactory.newHandshaker(
+                uri, WebSocketVersion.V13, null, true, EmptyHttpHeaders.INSTANCE, MAX_FRAME_SIZE);
+        private ChannelHandlerContext ctx;
+        private EventLoopMetrics metrics;
+        private String phase = TLS_PHASE;
+        private long upgradeStartTime;
+        private boolean attemptCompleted;
+        private boolean failed;
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+            this.metrics = eventLoopMetrics.get(ctx.channel().eventLoop());
+        }
+
+        /**
+         * Called from the event loop once the TCP connection is established.
+         */
+        void connected(long connectStartTime) {
+            long now = System.nanoTime();
+            metrics.connectTimeHistogram.recordValue(now - connectStartTime);
+            SslHandler sslHandler = ctx.pipeline().get(SslHandler.class);
+            if (sslHandler == null) {
+                startUpgrade();
+                return;
+            }
+            sslHandler.handshakeFuture().addListener(future -> {
+                if (!future.isSuccess()) {
+                    attemptFailed(future.cause());
+                    return;
+                }
+                if (!transport.isSessionResumption()) {
+                    TlsSessions.invalidate(sslHandler);
+                }
+                startUpgrade();
+            });
+        }
+
+        private void startUpgrade() {
+            phase = UPGRADE_PHASE;
+            upgradeStartTime = System.nanoTime();
+            handshaker.handshake(ctx.channel());
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (failed) {
+                ReferenceCountUtil.release(msg);
+                return;
+            }
+            if (handshaker != null) {
+                try {
+                    handshaker.finishHandshake(ctx.channel(), (FullHttpResponse) msg);
+                } catch (Exception e) {
+                    attemptFailed(e);
+                    return;
+                } finally {
+                    ((FullHttpResponse) msg).release();
+                }
+                metrics.upgradeTimeHistogram.recordValue(System.nanoTime() - upgradeStartTime);
+                handshaker = null;
+                attemptCompleted = true;
+                connectionMetrics.recordConnectionEstablished();
+                channels.add(ctx.channel());
+                connectionAttempts.countDown();
+                if (pingIntervalInNanos > 0) {
+                    // Spread the pings of the connections over the interval
+                    ctx.executor().schedule(this, ThreadLocalRandom.current().nextLong(pingIntervalInNanos),
+                                            TimeUnit.NANOSECONDS);
+                }
+                return;
+            }
+
+            WebSocketFrame frame = (WebSocketFrame) msg;
+            try {
+                if (frame instanceof PongWebSocketFrame) {
+                    ByteBuf content = frame.content();
+                    if (content.readableBytes() == Long.BYTES) {
+                        metrics.pingRoundTripTimeHistogram.recordValue(
+                                System.nanoTime() - content.getLong(content.readerIndex()));
+                        metrics.noOfPongs.increment();
+                    }
+                } else if (frame instanceof PingWebSocketFrame) {
+                    ctx.writeAndFlush(new PongWebSocketFrame(frame.content().retain()));
+                } else if (frame instanceof CloseWebSocketFrame) {
+                    ctx.close();
+                }
+            } finally {
+                frame.release();
+            }
+        }
+
+        /**
+         * Send a ping and schedule the next one.
+         */
+        @Override
+        public void run() {
+            if (stopped || !ctx.channel().isActive()) {
+                return;
+            }
+            ByteBuf payload = ctx.alloc().buffer(Long.BYTES).writeLong(System.nanoTime());
+            ctx.writeAndFlush(new PingWebSocketFrame(payload));
+            metrics.noOfPingsSent.increment();
+            ctx.executor().schedule(this, pingIntervalInNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (!attemptCompleted) {
+                attemptFailed(new ClosedChannelException());
+                return;
+            }
+            connectionMetrics.recordConnectionClosed();
+            if (!stopped) {
+                connectionMetrics.recordFailure("idle", new ClosedChannelException());
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (!attemptCompleted) {
+                attemptFailed(cause);
+            } else {
+                log.debug("Idle connection failed", cause);
+                ctx.close();
+            }
+        }
+
+        private void attemptFailed(Throwable cause) {
+            if (attemptCompleted) {
+                return;
+            }
+            attemptCompleted = true;
+            failed = true;
+            handshaker = null;
+            connectionMetrics.recordFailure(phase, cause);
+            connectionAttempts.countDown();
+            ctx.close();
+        }
+    }
+}
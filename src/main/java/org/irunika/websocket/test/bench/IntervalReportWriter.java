@@ -0,0 +1,103 @@
+package org.irunika.websocket.test.bench;
+
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Logs interval snapshots and appends them to a results file, as JSON lines if the file name ends with ".json"
+ * or ".jsonl" and as CSV otherwise.
+ *
+ * @author irunika
+ */
+public class IntervalReportWriter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(IntervalReportWriter.class);
+
+    private static final String CSV_HEADER = "timestamp,elapsed_seconds,active_connections,messages,throughput," +
+            "errors,out_of_order,missing,duplicate,corrupted,p50_ms,p90_ms,p99_ms,p99_9_ms,max_ms";
+
+    private final BufferedWriter writer;
+    private final boolean json;
+
+    /**
+     * @param reportFile file to append the rows to, null to only log them.
+     * @throws IOException if the report file cannot be opened.
+     */
+    public IntervalReportWriter(String reportFile) throws IOException {
+        if (reportFile != null && !reportFile.isEmpty()) {
+            Path path = Paths.get(reportFile);
+            boolean newFile = !Files.exists(path) || Files.size(path) == 0;
+            this.json = reportFile.endsWith(".json") || reportFile.endsWith(".jsonl");
+            this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                                                  StandardOpenOption.APPEND);
+            if (!json && newFile) {
+                writer.write(CSV_HEADER);
+                writer.newLine();
+            }
+        } else {
+            this.json = false;
+            this.writer = null;
+        }
+    }
+
+    public synchronized void write(IntervalSnapshot snapshot) {
+        LatencyHistogram histogram = snapshot.getLatencyHistogram();
+        String p50 = toMillis(histogram.getValueAtPercentile(50));
+        String p90 = toMillis(histogram.getValueAtPercentile(90));
+        String p99 = toMillis(histogram.getValueAtPercentile(99));
+        String p999 = toMillis(histogram.getValueAtPercentile(99.9));
+        String max = toMillis(histogram.getMaxValue());
+
+        log.info(String.format(Locale.ROOT, "[%.0fs] Active connections: %d, messages: %d, throughput: %.1f, " +
+                                       "errors: %d, latency (ms) p50: %s, p90: %s, p99: %s, p99.9: %s, max: %s",
+                               snapshot.getElapsedSeconds(), snapshot.getActiveConnections(),
+                               snapshot.getNoOfMessages(), snapshot.getThroughput(), snapshot.getNoOfErrors(), p50,
+                               p90, p99, p999, max));
+
+        if (writer == null) {
+            return;
+        }
+        try {
+            String format = json ? "{\"timestamp\":%d,\"elapsed_seconds\":%.3f,\"active_connections\":%d," +
+                    "\"messages\":%d,\"throughput\":%.3f,\"errors\":%d,\"out_of_order\":%d,\"missing\":%d," +
+                    "\"duplicate\":%d,\"corrupted\":%d,\"p50_ms\":%s,\"p90_ms\":%s,\"p99_ms\":%s," +
+                    "\"p99_9_ms\":%s,\"max_ms\":%s}" : "%d,%.3f,%d,%d,%.3f,%d,%d,%d,%d,%d,%s,%s,%s,%s,%s";
+            writer.write(String.format(Locale.ROOT, format, snapshot.getTimestamp(), snapshot.getElapsedSeconds(),
+                                       snapshot.getActiveConnections(), snapshot.getNoOfMessages(),
+                                       snapshot.getThroughput(), snapshot.getNoOfErrors(),
+                                       snapshot.getNoOfOutOfOrderMessages(), snapshot.getNoOfMissingMessages(),
+                                       snapshot.getNoOfDuplicateMessages(), snapshot.getNoOfCorruptedMessages(),
+                                       p50, p90, p99, p999, max));
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            log.error("Error writing to the report file", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.error("Error closing the report file", e);
+            }
+        }
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", (double) nanos / 1_000_000);
+    }
+}
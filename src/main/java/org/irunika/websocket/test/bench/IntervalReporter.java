@@ -0,0 +1,111 @@
+package org.irunika.websocket.test.bench;
+
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.irunika.websocket.test.bench.metrics.MetricNames;
+import org.irunika.websocket.test.bench.metrics.MetricsRegistry;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Periodically reports the progress of a running test.
+ * Each interval the counters and the latency histogram of the test are read from the metrics registry while the
+ * connections keep running and the difference from the previous interval is written by an
+ * {@link IntervalReportWriter} and passed to an optional listener, eg: to stream it to a coordinator.
+ * <p>
+ * Values are read without synchronizing with the event loops, so an interval may be off by the few messages
+ * which are being recorded at the time of the snapshot.
+ *
+ * @author irunika
+ */
+public class IntervalReporter implements Runnable {
+
+    private final MetricsRegistry registry;
+    private final long intervalInMillis;
+    private final ScheduledExecutorService scheduler;
+    private final IntervalReportWriter reportWriter;
+    private final Consumer<IntervalSnapshot> listener;
+    private final long startTime;
+    private int intervalIndex;
+    private long lastReportTime;
+    private long lastNoOfMessages;
+    private long lastNoOfOutOfOrderMessages;
+    private long lastNoOfMissingMessages;
+    private long lastNoOfDuplicateMessages;
+    private long lastNoOfCorruptedMessages;
+    private LatencyHistogram lastLatencyHistogram = new LatencyHistogram();
+
+    /**
+     * @param registry metrics registry of the test.
+     * @param intervalInSeconds report interval.
+     * @param reportWriter writer of the intervals, null if they should only be passed to the listener.
+     * @param listener listener of the intervals, null for none.
+     */
+    public IntervalReporter(MetricsRegistry registry, int intervalInSeconds,
+                            IntervalReportWriter reportWriter, Consumer<IntervalSnapshot> listener) {
+        this.registry = registry;
+        this.reportWriter = reportWriter;
+        this.listener = listener;
+        this.intervalInMillis = TimeUnit.SECONDS.toMillis(intervalInSeconds);
+        this.startTime = System.currentTimeMillis();
+        this.lastReportTime = startTime;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "interval-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleAtFixedRate(this, intervalInMillis, intervalInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop reporting. The partial interval since the last report is reported before stopping.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(intervalInMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        run();
+    }
+
+    @Override
+    public synchronized void run() {
+        long now = System.currentTimeMillis();
+        long noOfMessages = registry.get(MetricNames.MESSAGES_RECEIVED);
+        long noOfOutOfOrderMessages = registry.get(MetricNames.MESSAGES_OUT_OF_ORDER);
+        long noOfMissingMessages = registry.get(MetricNames.MESSAGES_MISSING);
+        long noOfDuplicateMessages = registry.get(MetricNames.MESSAGES_DUPLICATE);
+        long noOfCorruptedMessages = registry.get(MetricNames.MESSAGES_CORRUPTED);
+        LatencyHistogram latencyHistogram = registry.getHistogram(MetricNames.ROUND_TRIP_LATENCY);
+
+        LatencyHistogram intervalHistogram = latencyHistogram.copy();
+        intervalHistogram.subtract(lastLatencyHistogram);
+        IntervalSnapshot snapshot = new IntervalSnapshot(
+                ++intervalIndex, now, (now - startTime) / 1000.0, Math.max(now - lastReportTime, 1) / 1000.0,
+                (int) registry.get(MetricNames.CONNECTIONS_ACTIVE), noOfMessages - lastNoOfMessages,
+                noOfOutOfOrderMessages - lastNoOfOutOfOrderMessages, noOfMissingMessages - lastNoOfMissingMessages,
+                noOfDuplicateMessages - lastNoOfDuplicateMessages, noOfCorruptedMessages - lastNoOfCorruptedMessages,
+                intervalHistogram);
+        if (reportWriter != null) {
+            reportWriter.write(snapshot);
+        }
+        if (listener != null) {
+            listener.accept(snapshot);
+        }
+
+        lastReportTime = now;
+        lastNoOfMessages = noOfMessages;
+        lastNoOfOutOfOrderMessages = noOfOutOfOrderMessages;
+        lastNoOfMissingMessages = noOfMissingMessages;
+        lastNoOfDuplicateMessages = noOfDuplicateMessages;
+        lastNoOfCorruptedMessages = noOfCorruptedMessages;
+        lastLatencyHistogram = latencyHistogram;
+    }
+}
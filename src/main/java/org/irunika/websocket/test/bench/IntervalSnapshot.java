@@ -0,0 +1,149 @@
+package org.irunika.websocket.test.bench;
+
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Counters and latencies of one report interval of a test.
+ * Snapshots of the same interval taken by several processes can be merged into one.
+ *
+ * @author irunika
+ */
+public class IntervalSnapshot {
+
+    private final int intervalIndex;
+    private final long timestamp;
+    private final double elapsedSeconds;
+    private final double intervalSeconds;
+    private final int activeConnections;
+    private final long noOfMessages;
+    private final long noOfOutOfOrderMessages;
+    private final long noOfMissingMessages;
+    private final long noOfDuplicateMessages;
+    private final long noOfCorruptedMessages;
+    private final LatencyHistogram latencyHistogram;
+
+    /**
+     * @param intervalIndex index of the interval, starting from 1.
+     * @param timestamp wall clock time at the end of the interval in milliseconds.
+     * @param elapsedSeconds time from the start of the test until the end of the interval.
+     * @param intervalSeconds length of the interval.
+     * @param activeConnections no of active connections at the end of the interval.
+     * @param noOfMessages no of messages received in the interval.
+     * @param noOfOutOfOrderMessages no of out of order messages in the interval.
+     * @param noOfMissingMessages no of missing messages in the interval.
+     * @param noOfDuplicateMessages no of duplicate messages in the interval.
+     * @param noOfCorruptedMessages no of corrupted messages in the interval.
+     * @param latencyHistogram round trip latencies recorded in the interval.
+     */
+    public IntervalSnapshot(int intervalIndex, long timestamp, double elapsedSeconds, double intervalSeconds,
+                            int activeConnections, long noOfMessages, long noOfOutOfOrderMessages,
+                            long noOfMissingMessages, long noOfDuplicateMessages, long noOfCorruptedMessages,
+                            LatencyHistogram latencyHistogram) {
+        this.intervalIndex = intervalIndex;
+        this.timestamp = timestamp;
+        this.elapsedSeconds = elapsedSeconds;
+        this.intervalSeconds = intervalSeconds;
+        this.activeConnections = activeConnections;
+        this.noOfMessages = noOfMessages;
+        this.noOfOutOfOrderMessages = noOfOutOfOrderMessages;
+        this.noOfMissingMessages = noOfMissingMessages;
+        this.noOfDuplicateMessages = noOfDuplicateMessages;
+        this.noOfCorruptedMessages = noOfCorruptedMessages;
+        this.latencyHistogram = latencyHistogram;
+    }
+
+    /**
+     * Merge the snapshot of the same interval taken by another process.
+     *
+     * @param other snapshot to be merged.
+     * @return a new merged snapshot.
+     */
+    public IntervalSnapshot merge(IntervalSnapshot other) {
+        LatencyHistogram mergedHistogram = latencyHistogram.copy();
+        mergedHistogram.add(other.latencyHistogram);
+        return new IntervalSnapshot(intervalIndex, Math.max(timestamp, other.timestamp),
+                                    Math.max(elapsedSeconds, other.elapsedSeconds),
+                                    Math.max(intervalSeconds, other.intervalSeconds),
+                                    activeConnections + other.activeConnections, noOfMessages + other.noOfMessages,
+                                    noOfOutOfOrderMessages + other.noOfOutOfOrderMessages,
+                                    noOfMissingMessages + other.noOfMissingMessages,
+                                    noOfDuplicateMessages + other.noOfDuplicateMessages,
+                                    noOfCorruptedMessages + other.noOfCorruptedMessages, mergedHistogram);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(intervalIndex);
+        out.writeLong(timestamp);
+        out.writeDouble(elapsedSeconds);
+        out.writeDouble(intervalSeconds);
+        out.writeInt(activeConnections);
+        out.writeLong(noOfMessages);
+        out.writeLong(noOfOutOfOrderMessages);
+        out.writeLong(noOfMissingMessages);
+        out.writeLong(noOfDuplicateMessages);
+        out.writeLong(noOfCorruptedMessages);
+        latencyHistogram.writeTo(out);
+    }
+
+    public static IntervalSnapshot readFrom(DataInput in) throws IOException {
+        return new IntervalSnapshot(in.readInt(), in.readLong(), in.readDouble(), in.readDouble(), in.readInt(),
+                                    in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+                                    LatencyHistogram.readFrom(in));
+    }
+
+    public int getIntervalIndex() {
+        return intervalIndex;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public double getElapsedSeconds() {
+        return elapsedSeconds;
+    }
+
+    public double getIntervalSeconds() {
+        return intervalSeconds;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public long getNoOfMessages() {
+        return noOfMessages;
+    }
+
+    public double getThroughput() {
+        return intervalSeconds > 0 ? noOfMessages / intervalSeconds : 0;
+    }
+
+    public long getNoOfOutOfOrderMessages() {
+        return noOfOutOfOrderMessages;
+    }
+
+    public long getNoOfMissingMessages() {
+        return noOfMissingMessages;
+    }
+
+    public long getNoOfDuplicateMessages() {
+        return noOfDuplicateMessages;
+    }
+
+    public long getNoOfCorruptedMessages() {
+        return noOfCorruptedMessages;
+    }
+
+    public long getNoOfErrors() {
+        return noOfOutOfOrderMessages + noOfMissingMessages + noOfDuplicateMessages + noOfCorruptedMessages;
+    }
+
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+}
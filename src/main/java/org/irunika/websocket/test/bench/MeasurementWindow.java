@@ -0,0 +1,45 @@
+package org.irunika.websocket.test.bench;
+
+/**
+ * Steady state window of a test.
+ * Latencies of messages sent before the window starts, eg: while connections are ramping up or during warmup,
+ * are not recorded in the latency histograms and do not count towards the steady state throughput.
+ *
+ * @author irunika
+ */
+public class MeasurementWindow {
+
+    private volatile boolean started;
+    private volatile long startTime;
+    private volatile long startTimeInMillis;
+
+    /**
+     * Start the window after a delay.
+     *
+     * @param delayInMillis delay from now in milliseconds.
+     */
+    public void start(long delayInMillis) {
+        startTimeInMillis = System.currentTimeMillis() + delayInMillis;
+        startTime = System.nanoTime() + delayInMillis * 1_000_000;
+        started = true;
+    }
+
+    /**
+     * @param sendTime {@link System#nanoTime()} when a message was sent.
+     * @return true if the message was sent within the window.
+     */
+    public boolean contains(long sendTime) {
+        return started && sendTime - startTime >= 0;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * @return wall clock time in milliseconds at which the window starts.
+     */
+    public long getStartTimeInMillis() {
+        return startTimeInMillis;
+    }
+}
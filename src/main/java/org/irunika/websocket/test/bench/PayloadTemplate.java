@@ -0,0 +1,216 @@
+package org.irunika.websocket.test.bench;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.util.zip.CRC32;
+
+/**
+ * Preallocated payload of a connection.
+ * The payload is kept once in a pooled direct buffer. Each frame is a composite of a small pooled header, which
+ * carries the message id and the send time as fixed width hex digits, and a retained duplicate of the template,
+ * so building a message neither copies nor encodes the payload.
+ * <p>
+ * Header format: 16 hex digits of the message id followed by 16 hex digits of the send time in nanoseconds.
+ * The header is ASCII, so the same layout is valid in both text and binary frames.
+ * <p>
+ * With a {@link RandomPayload} the body of each frame is a random slice of the shared pool instead of the
+ * template, so the checksum of the body differs per frame and is read with {@link #getLastBodyChecksum()}.
+ *
+ * @author irunika
+ */
+public class PayloadTemplate {
+
+    public static final int HEADER_LENGTH = 32;
+    public static final byte PAYLOAD_BYTE = '#';
+    private static final int FIELD_LENGTH = 16;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+
+    private final ByteBuf template;
+    private final RandomPayload randomPayload;
+    private final ByteBufAllocator allocator;
+    private final boolean binary;
+    private final int bodyLength;
+    private final int bodyChecksum;
+    private final CRC32 crc = new CRC32();
+    private int randomState;
+    private int lastBodyChecksum;
+
+    /**
+     * @param payloadSize size of the payload in bytes, excluding the header.
+     * @param binary true if binary frames should be created instead of text frames.
+     * @param allocator allocator for the template and the headers.
+     */
+    public PayloadTemplate(int payloadSize, boolean binary, ByteBufAllocator allocator) {
+        this.allocator = allocator;
+        this.binary = binary;
+        ByteBuf buffer = allocator.directBuffer(payloadSize, payloadSize);
+        for (int i = 0; i < payloadSize; i++) {
+            buffer.writeByte(PAYLOAD_BYTE);
+        }
+        this.template = buffer.asReadOnly();
+        this.randomPayload = null;
+        this.bodyLength = payloadSize;
+        this.bodyChecksum = Checksums.checksum(template);
+    }
+
+    /**
+     * @param payloadSize size of the payload in bytes, excluding the header.
+     * @param binary true if binary frames should be created instead of text frames.
+     * @param randomPayload shared pool which the body of each frame is sliced from.
+     * @param seed seed of the offsets of the slices, which should differ per connection.
+     * @param allocator allocator for the headers.
+     */
+    public PayloadTemplate(int payloadSize, boolean binary, RandomPayload randomPayload, int seed,
+                           ByteBufAllocator allocator) {
+        this.allocator = allocator;
+        this.binary = binary;
+        this.template = null;
+        this.randomPayload = randomPayload;
+        this.bodyLength = payloadSize;
+        this.bodyChecksum = 0;
+        // Xorshift needs a non zero state
+        this.randomState = seed * 0x9E3779B9 | 1;
+    }
+
+    /**
+     * Create a frame for a message. The returned frame holds its own reference to the template.
+     *
+     * @param messageId id of the message.
+     * @param sendTime {@link System#nanoTime()} when the message is sent.
+     * @return a new frame.
+     */
+    public WebSocketFrame newFrame(long messageId, long sendTime) {
+        if (randomPayload != null) {
+            return newFrame(messageId, sendTime, bodyLength);
+        }
+        return newFrame(messageId, sendTime, template.retainedDuplicate());
+    }
+
+    /**
+     * Create a frame for a message with a body which is a prefix of the template, or a random slice of the random
+     * payload.
+     *
+     * @param messageId id of the message.
+     * @param sendTime {@link System#nanoTime()} when the message is sent.
+     * @param bodyLength length of the body, at most the payload size.
+     * @return a new frame.
+     */
+    public WebSocketFrame newFrame(long messageId, long sendTime, int bodyLength) {
+        if (randomPayload != null) {
+            randomState ^= randomState << 13;
+            randomState ^= randomState >>> 17;
+            randomState ^= randomState << 5;
+            ByteBuf body = randomPayload.slice(randomState, bodyLength);
+            crc.reset();
+            Checksums.update(crc, body, body.readerIndex(), bodyLength);
+            lastBodyChecksum = (int) crc.getValue();
+            return newFrame(messageId, sendTime, body);
+        }
+        return newFrame(messageId, sendTime, template.retainedSlice(template.readerIndex(), bodyLength));
+    }
+
+    private WebSocketFrame newFrame(long messageId, long sendTime, ByteBuf body) {
+        ByteBuf header = allocator.directBuffer(HEADER_LENGTH, HEADER_LENGTH);
+        writeHex(header, messageId);
+        writeHex(header, sendTime);
+        CompositeByteBuf content = allocator.compositeDirectBuffer(2);
+        content.addComponents(true, header, body);
+        return binary ? new BinaryWebSocketFrame(content) : new TextWebSocketFrame(content);
+    }
+
+    /**
+     * @return length of the content of a frame, including the header.
+     */
+    public int getFrameLength() {
+        return HEADER_LENGTH + bodyLength;
+    }
+
+    /**
+     * @return length of the payload, excluding the header.
+     */
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * @return CRC32 of the payload, excluding the header. Not valid if the body is sliced from a random payload.
+     */
+    public int getBodyChecksum() {
+        return bodyChecksum;
+    }
+
+    /**
+     * @return true if the body of each frame is sliced from a random payload, in which case the checksum of the
+     * body should be read with {@link #getLastBodyChecksum()} after each frame is created.
+     */
+    public boolean isRandom() {
+        return randomPayload != null;
+    }
+
+    /**
+     * @return CRC32 of the body of the last frame which was created from a random payload.
+     */
+    public int getLastBodyChecksum() {
+        return lastBodyChecksum;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Release the template. Frames which are still in flight keep their own reference.
+     */
+    public void release() {
+        if (template != null) {
+            template.release();
+        }
+    }
+
+    /**
+     * Read the message id from the header of a received payload without changing its reader index.
+     *
+     * @param content content of a frame.
+     * @return message id, or -1 if the content does not start with a valid header.
+     */
+    public static long readMessageId(ByteBuf content) {
+        return readHex(content, content.readerIndex());
+    }
+
+    /**
+     * Read the send time from the header of a received payload without changing its reader index.
+     * The header should already be validated with {@link #readMessageId(ByteBuf)}.
+     *
+     * @param content content of a frame.
+     * @return send time in nanoseconds.
+     */
+    public static long readSendTime(ByteBuf content) {
+        return readHex(content, content.readerIndex() + FIELD_LENGTH);
+    }
+
+    private static void writeHex(ByteBuf buffer, long value) {
+        for (int shift = (FIELD_LENGTH - 1) * 4; shift >= 0; shift -= 4) {
+            buffer.writeByte(HEX_DIGITS[(int) (value >>> shift) & 0xF]);
+        }
+    }
+
+    private static long readHex(ByteBuf buffer, int index) {
+        if (buffer.writerIndex() < index + FIELD_LENGTH) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = index; i < index + FIELD_LENGTH; i++) {
+            int digit = Character.digit(buffer.getByte(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,82 @@
+package org.irunika.websocket.test.bench;
+
+import com.beust.jcommander.ParameterException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes when each connection of a test should be opened.
+ * Connections are opened at a given rate, or all at once if the rate is 0. With stages, connections are opened
+ * until the target of a stage is reached and then held for the duration of the stage before the next stage starts.
+ * Connections after the last stage are opened at the same rate.
+ *
+ * @author irunika
+ */
+public class RampUpScheduler {
+
+    private final double connectionsPerSecond;
+    private final List<int[]> stages;
+
+    /**
+     * @param connectionsPerSecond rate at which connections are opened, 0 to open them all at once.
+     * @param stages stages in the format {@code <target connections>:<hold seconds>,...}, null or empty for none.
+     */
+    public RampUpScheduler(double connectionsPerSecond, String stages) {
+        this.connectionsPerSecond = connectionsPerSecond;
+        this.stages = parseStages(stages);
+    }
+
+    /**
+     * @param connectionIndex index of a connection, starting from 0.
+     * @return delay from the start of the test in milliseconds after which the connection should be opened.
+     */
+    public long getLaunchDelayInMillis(int connectionIndex) {
+        double stageStartInSecs = 0;
+        int previousTarget = 0;
+        for (int[] stage : stages) {
+            int target = stage[0];
+            if (connectionIndex < target) {
+                return toMillis(stageStartInSecs + rampTime(connectionIndex - previousTarget));
+            }
+            stageStartInSecs += rampTime(target - previousTarget) + stage[1];
+            previousTarget = target;
+        }
+        return toMillis(stageStartInSecs + rampTime(connectionIndex - previousTarget));
+    }
+
+    public boolean isEnabled() {
+        return connectionsPerSecond > 0 || !stages.isEmpty();
+    }
+
+    private double rampTime(int noOfConnections) {
+        return connectionsPerSecond > 0 ? noOfConnections / connectionsPerSecond : 0;
+    }
+
+    private static long toMillis(double seconds) {
+        return (long) (seconds * 1000);
+    }
+
+    private static List<int[]> parseStages(String stages) {
+        List<int[]> parsedStages = new ArrayList<>();
+        if (stages == null || stages.trim().isEmpty()) {
+            return parsedStages;
+        }
+        int previousTarget = 0;
+        for (String stage : stages.split(",")) {
+            String[] parts = stage.trim().split(":");
+            try {
+                int target = Integer.parseInt(parts[0].trim());
+                int holdInSecs = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 0;
+                if (parts.length > 2 || target <= previousTarget || holdInSecs < 0) {
+                    throw new ParameterException("Invalid ramp up stage: " + stage);
+                }
+                parsedStages.add(new int[]{target, holdInSecs});
+                previousTarget = target;
+            } catch (NumberFormatException e) {
+                throw new ParameterException("Invalid ramp up stage: " + stage);
+            }
+        }
+        return parsedStages;
+    }
+}
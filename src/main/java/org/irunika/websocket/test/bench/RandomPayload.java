@@ -0,0 +1,77 @@
+package org.irunika.websocket.test.bench;
+
+import com.beust.jcommander.ParameterException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Pool of random payload bytes with a given entropy, which is shared by all the connections of a test.
+ * Bytes are drawn uniformly from an alphabet of 2^entropy symbols (rounded to a whole no of symbols), printable
+ * ASCII for text frames. Each message is a slice of the pool at a random offset, so consecutive messages differ
+ * and a compressor cannot simply refer back to the previous message. The pool is much larger than a deflate
+ * window for the same reason.
+ * <p>
+ * The pool is read only and cannot be released, so slices are handed out without touching a shared reference
+ * count. It is freed by the garbage collector once the test is over.
+ *
+ * @author irunika
+ */
+public class RandomPayload {
+
+    private static final int MIN_POOL_SIZE = 1024 * 1024;
+    private static final byte[] TEXT_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes();
+    private static final long SEED = 0x5DEECE66DL;
+
+    private final ByteBuf pool;
+    private final double entropy;
+
+    /**
+     * @param entropy entropy in bits per byte.
+     * @param binary true if the payload is sent in binary frames, false for text frames.
+     * @param maxBodyLength length of the longest message body which will be sliced from the pool.
+     */
+    public RandomPayload(double entropy, boolean binary, int maxBodyLength) {
+        int maxAlphabetSize = binary ? 256 : TEXT_ALPHABET.length;
+        int alphabetSize = (int) Math.round(Math.pow(2, entropy));
+        if (entropy <= 0 || alphabetSize > maxAlphabetSize) {
+            throw new ParameterException("Payload entropy should be more than 0 and at most " +
+                                                 (binary ? "8 bits per byte for binary frames" :
+                                                         "6 bits per byte for text frames, use --binary for more"));
+        }
+        this.entropy = Math.log(alphabetSize) / Math.log(2);
+
+        int size = Math.max(MIN_POOL_SIZE, maxBodyLength * 4);
+        byte[] bytes = new byte[size];
+        Random random = new Random(SEED);
+        for (int i = 0; i < size; i++) {
+            int symbol = random.nextInt(alphabetSize);
+            bytes[i] = binary ? (byte) symbol : TEXT_ALPHABET[symbol];
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(bytes).flip();
+        this.pool = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(buffer).asReadOnly());
+    }
+
+    /**
+     * Get a slice of the pool. The slice does not need to be released.
+     *
+     * @param random random value which selects the offset of the slice.
+     * @param length length of the slice, at most the max body length of the pool.
+     * @return the slice.
+     */
+    public ByteBuf slice(int random, int length) {
+        int offset = (random & Integer.MAX_VALUE) % (pool.capacity() - length + 1);
+        return pool.slice(offset, length);
+    }
+
+    /**
+     * @return actual entropy of the payload in bits per byte, after rounding the alphabet size.
+     */
+    public double getEntropy() {
+        return entropy;
+    }
+}
@@ -0,0 +1,631 @@
+package org.irunika.websocket.test.bench;
+
+import com.beust.jcommander.ParameterException;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.irunika.websocket.test.bench.config.Args;
+import org.irunika.websocket.test.bench.config.DeflateParameters;
+import org.irunika.websocket.test.bench.config.ResponseCheck;
+import org.irunika.websocket.test.bench.metrics.Counter;
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.irunika.websocket.test.bench.metrics.MemoryMonitor;
+import org.irunika.websocket.test.bench.metrics.MetricNames;
+import org.irunika.websocket.test.bench.metrics.MetricsRegistry;
+import org.irunika.websocket.test.bench.replay.SessionFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Test which replays a recorded session, see {@link SessionFile}, so the server gets the message sizes, timing
+ * and mix of real traffic. Each of the -n copies of the session is started by the ramp up, and each recorded
+ * connection of a copy is opened when its first message was recorded, relative to the start of the session.
+ * Messages of a connection are sent at their recorded times relative to its first message, divided by the replay
+ * speed, whether or not the earlier responses were received. With a speed of 0 a connection instead sends each
+ * message as soon as the responses recorded before it are received.
+ * <p>
+ * Responses are paired with the recorded responses of the connection in order and checked with the response
+ * check. The latency of a response is measured from the intended send time of the last message sent before it in
+ * the recording, so all the responses to one message, eg: of a subscription, are measured from that message. A
+ * response which arrives before that message is sent is measured from the last message which was sent. A connection
+ * is closed once all its recorded responses are received, or when the responses which are still missing are
+ * {@link #RESPONSE_TIMEOUT_IN_MILLIS} late. Payloads are sent straight from the mapped session file, so the session
+ * does not have to fit on the heap.
+ *
+ * @author irunika
+ */
+public class ReplayTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplayTest.class);
+
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    private static final long RESPONSE_TIMEOUT_IN_MILLIS = 5000;
+    private static final long CLOSE_TIMEOUT_IN_MILLIS = 1000;
+
+    private final Args args;
+    private final ClientTransport transport;
+    private final int firstClientId;
+    private final int clientIdStride;
+    private final URI uri;
+    private final String host;
+    private final int port;
+    private final boolean ssl;
+    private final DeflateParameters deflateParameters;
+    private final SessionFile sessionFile;
+    private final double speed;
+    private final ResponseCheck responseCheck;
+    private final long sessionStartTimeInMicros;
+    // Filled while the metrics exporter may already be reading it
+    private final Queue<ReplayedConnection> connections = new ConcurrentLinkedQueue<>();
+    private final MetricsRegistry registry;
+    private final ConnectionMetrics connectionMetrics;
+    private volatile boolean stopped;
+
+    /**
+     * @param args test configuration.
+     * @param transport shared transport.
+     * @param registry registry of the test, which the metrics are registered in.
+     * @param firstClientId client id of the first copy of the session, which gives its ramp up delay.
+     * @param clientIdStride difference between the client ids of two consecutive copies.
+     */
+    public ReplayTest(Args args, ClientTransport transport, MetricsRegistry registry, int firstClientId,
+                      int clientIdStride)
+            throws URISyntaxException, IOException {
+        if (args.getNoOfPublishers() > 0 || args.isHandshakeTest() || args.isIdleTest() || args.isChurnTest()) {
+            throw new ParameterException(
+                    "Replay cannot be combined with --publishers, --handshake-test, --idle-test or --churn-test");
+        }
+        if (args.getFragmentSize() > 0) {
+            throw new ParameterException("Fragmented messages are not supported in a replay");
+        }
+        if (args.getReplaySpeed() < 0) {
+            throw new ParameterException("Invalid replay speed: " + args.getReplaySpeed());
+        }
+        this.uri = new URI(args.getUrl());
+        this.ssl = "wss".equalsIgnoreCase(uri.getScheme());
+        if (!ssl && !"ws".equalsIgnoreCase(uri.getScheme())) {
+            throw new URISyntaxException(args.getUrl(), "Only WS(S) is supported");
+        }
+        if (ssl && transport.getSslContext() == null) {
+            throw new ParameterException("TLS is not configured for " + args.getUrl());
+        }
+        this.args = args;
+        this.transport = transport;
+        this.registry = registry;
+        this.connectionMetrics = new ConnectionMetrics(registry);
+        this.firstClientId = firstClientId;
+        this.clientIdStride = clientIdStride;
+        this.host = uri.getHost() == null ? "127.0.0.1" : uri.getHost();
+        this.port = uri.getPort() != -1 ? uri.getPort() : ssl ? 443 : 80;
+        this.deflateParameters = args.getDeflateParameters();
+        this.speed = args.getReplaySpeed();
+        this.responseCheck = args.getResponseCheck();
+        this.sessionFile = SessionFile.open(Paths.get(args.getReplayFile()));
+        if (sessionFile.getConversations().isEmpty()) {
+            throw new ParameterException("Session file " + sessionFile + " has no messages");
+        }
+        long startTime = Long.MAX_VALUE;
+        for (SessionFile.Conversation conversation : sessionFile.getConversations()) {
+            startTime = Math.min(startTime, sessionFile.getTimeInMicros(conversation.getOffset(0)));
+        }
+        this.sessionStartTimeInMicros = startTime;
+        registry.sum(MetricNames.MESSAGES_RECEIVED, connections, connection -> connection.noOfResponses.get());
+        registry.sum(MetricNames.MESSAGES_CORRUPTED, connections,
+                     connection -> connection.noOfMismatchedResponses.get());
+        registry.sum(MetricNames.MESSAGES_MISSING, connections,
+                     connection -> connection.noOfMissingResponses.get());
+        registry.histogram(MetricNames.ROUND_TRIP_LATENCY, connections, connection -> connection.latencyHistogram);
+    }
+
+    /**
+     * Run the test.
+     *
+     * @param intervalListener listener of the interval reports, null for none.
+     * @return result of the test, with the replayed messages and the checked responses.
+     */
+    public TestResult run(Consumer<IntervalSnapshot> intervalListener) throws InterruptedException, IOException {
+        int noOfCopies = args.getNoOfConnections();
+        List<SessionFile.Conversation> conversations = sessionFile.getConversations();
+        CountDownLatch countDownLatch = new CountDownLatch(noOfCopies * conversations.size());
+        RampUpScheduler rampUpScheduler = new RampUpScheduler(args.getRampUpRate(), args.getRampUpStages());
+        for (int i = 0; i < noOfCopies; i++) {
+            for (SessionFile.Conversation conversation : conversations) {
+                connections.add(new ReplayedConnection(firstClientId + i * clientIdStride, conversation,
+                                                       countDownLatch));
+            }
+        }
+        IntervalReportWriter intervalReportWriter = null;
+        IntervalReporter intervalReporter = null;
+        if (args.getReportIntervalInSeconds() > 0) {
+            intervalReportWriter = new IntervalReportWriter(args.getReportFile());
+            intervalReporter = new IntervalReporter(registry, args.getReportIntervalInSeconds(),
+                                                    intervalReportWriter, intervalListener);
+            intervalReporter.start();
+        }
+        MemoryMonitor memoryMonitor = new MemoryMonitor();
+        memoryMonitor.start();
+        log.info("Replaying {} copies of the {} connections of {} against {}:{} at {} speed", noOfCopies,
+                 conversations.size(), sessionFile, host, port, speed > 0 ? speed + "x" : "max");
+
+        long testStartTime = System.currentTimeMillis();
+        try {
+            for (ReplayedConnection connection : connections) {
+                long launchDelay = testStartTime + rampUpScheduler.getLaunchDelayInMillis(connection.clientId) -
+                        System.currentTimeMillis();
+                if (launchDelay > 0) {
+                    Thread.sleep(launchDelay);
+                }
+                long startTime = sessionFile.getTimeInMicros(connection.conversation.getOffset(0));
+                connection.start(speed > 0 ? (long) ((startTime - sessionStartTimeInMicros) / speed) : 0);
+            }
+            if (args.getTestTimeInMinutes() > 0) {
+                long testEndTime = testStartTime + TimeUnit.MINUTES.toMillis(args.getTestTimeInMinutes());
+                if (!countDownLatch.await(Math.max(testEndTime - System.currentTimeMillis(), 0),
+                                          TimeUnit.MILLISECONDS)) {
+                    stopped = true;
+                    connections.forEach(ReplayedConnection::stop);
+                }
+            }
+            countDownLatch.await();
+        } finally {
+            if (intervalReporter != null) {
+                intervalReporter.stop();
+                intervalReportWriter.close();
+            }
+            memoryMonitor.stop();
+        }
+        long testTimeInMillis = System.currentTimeMillis() - testStartTime;
+
+        TestResult result = new TestResult();
+        long noOfResponses = 0;
+        for (ReplayedConnection connection : connections) {
+            long connectionNoOfResponses = connection.noOfResponses.get();
+            noOfResponses += connectionNoOfResponses;
+            result.getConnectTimeHistogram().add(connection.connectTimeHistogram);
+            result.getTlsHandshakeTimeHistogram().add(connection.tlsHandshakeTimeHistogram);
+            result.getResumedTlsHandshakeTimeHistogram().add(connection.resumedTlsHandshakeTimeHistogram);
+            result.getUpgradeTimeHistogram().add(connection.upgradeTimeHistogram);
+            result.addReplay(connectionNoOfResponses / (testTimeInMillis / 1000.0),
+                             connection.conversation.getNoOfSentMessages(), connection.noOfMessagesReplayed,
+                             connectionNoOfResponses, connection.noOfMatchedResponses,
+                             connection.noOfMismatchedResponses.get(), connection.noOfMissingResponses.get(),
+                             connection.noOfUnexpectedResponses, connection.latencyHistogram);
+        }
+        result.setTestTimeInMillis(testTimeInMillis);
+        result.setNoOfConnections(connections.size());
+        result.setConnectionMetrics(connectionMetrics);
+        result.setPeakMemory(memoryMonitor);
+        result.setThroughput(noOfResponses / (testTimeInMillis / 1000.0));
+        return result;
+    }
+
+    /**
+     * Handler of one recorded connection of one copy of the session. Everything except the counters which are
+     * registered in the registry is accessed only by its event loop.
+     */
+    private class ReplayedConnection extends ChannelInboundHandlerAdapter implements Runnable {
+
+        private final int clientId;
+        private final SessionFile.Conversation conversation;
+        private final CountDownLatch countDownLatch;
+        private final EventLoop eventLoop;
+        private final LatencyHistogram connectTimeHistogram = new LatencyHistogram();
+        private final LatencyHistogram tlsHandshakeTimeHistogram = new LatencyHistogram();
+        private final LatencyHistogram resumedTlsHandshakeTimeHistogram = new LatencyHistogram();
+        private final LatencyHistogram upgradeTimeHistogram = new LatencyHistogram();
+        private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+        private final Counter noOfResponses = new Counter();
+        private final Counter noOfMismatchedResponses = new Counter();
+        private final Counter noOfMissingResponses = new Counter();
+        private long noOfMessagesReplayed;
+        private long noOfMatchedResponses;
+        private long noOfUnexpectedResponses;
+        private WebSocketClientHandshaker handshaker = WebSocketClientHandshakerFactory.newHandshaker(
+                uri, WebSocketVersion.V13, null, true, EmptyHttpHeaders.INSTANCE, MAX_FRAME_SIZE);
+        private ChannelHandlerContext ctx;
+        private ScheduledFuture<?> startFuture;
+        private ScheduledFuture<?> responseTimeoutFuture;
+        private String phase = "connect";
+        private long upgradeStartTime;
+        private long replayStartTime;
+        private long lastSendTime;
+        // Index of the next record to be sent, and of the record after the last paired response
+        private int sendIndex;
+        private int responseIndex;
+        // Index of the last message of the client before the record at responseIndex, and of the last message
+        // which was sent, -1 if none
+        private int requestIndex = -1;
+        private int lastSentIndex = -1;
+        private int noOfPairedResponses;
+        private boolean failed;
+        private boolean upgraded;
+        private boolean closing;
+        private boolean done;
+
+        ReplayedConnection(int clientId, SessionFile.Conversation conversation, CountDownLatch countDownLatch) {
+            this.clientId = clientId;
+            this.conversation = conversation;
+            this.countDownLatch = countDownLatch;
+            this.eventLoop = transport.getEventLoopGroup().next();
+        }
+
+        /**
+         * @param delayInMicros delay from now until the connection is opened.
+         */
+        void start(long delayInMicros) {
+            startFuture = eventLoop.schedule(this::connect, delayInMicros, TimeUnit.MICROSECONDS);
+        }
+
+        /**
+         * Stop the replay at the end of the test: close the connection normally, or do not open it.
+         */
+        void stop() {
+            eventLoop.execute(() -> {
+                if (startFuture.cancel(false)) {
+                    finish();
+                } else if (ctx != null) {
+                    close(1000);
+                }
+            });
+        }
+
+        private void connect() {
+            if (stopped) {
+                finish();
+                return;
+            }
+            long connectStartTime = System.nanoTime();
+            Bootstrap bootstrap = new Bootstrap()
+                    .group(eventLoop)
+                    .channel(transport.getChannelClass())
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ChannelPipeline p = ch.pipeline();
+                            transport.track(ch);
+                            if (ssl) {
+                                p.addLast(transport.getSslContext().newHandler(ch.alloc(), host, port));
+                            }
+                            p.addLast(new HttpClientCodec(), new HttpObjectAggregator(8192));
+                            if (deflateParameters != null) {
+                                p.addLast(deflateParameters.newClientHandler());
+                            }
+                            p.addLast(ReplayedConnection.this);
+                        }
+                    });
+            bootstrap.connect(host, port).addListener((ChannelFuture connectFuture) -> {
+                if (connectFuture.isSuccess()) {
+                    connected(connectStartTime);
+                } else {
+                    connectionMetrics.recordFailure(phase, connectFuture.cause());
+                    finish();
+                }
+            });
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        private void connected(long connectStartTime) {
+            phase = "tls";
+            long tlsStartTime = System.nanoTime();
+            long tlsStartTimeInMillis = System.currentTimeMillis();
+            connectTimeHistogram.recordValue(tlsStartTime - connectStartTime);
+            SslHandler sslHandler = ctx.pipeline().get(SslHandler.class);
+            if (sslHandler == null) {
+                startUpgrade();
+                return;
+            }
+            sslHandler.handshakeFuture().addListener(future -> {
+                if (!future.isSuccess()) {
+                    attemptFailed(future.cause());
+                    return;
+                }
+                long tlsHandshakeTime = System.nanoTime() - tlsStartTime;
+                if (TlsSessions.isResumed(sslHandler, tlsStartTimeInMillis)) {
+                    resumedTlsHandshakeTimeHistogram.recordValue(tlsHandshakeTime);
+                } else {
+                    tlsHandshakeTimeHistogram.recordValue(tlsHandshakeTime);
+                }
+                if (!transport.isSessionResumption()) {
+                    TlsSessions.invalidate(sslHandler);
+                }
+                startUpgrade();
+            });
+        }
+
+        private void startUpgrade() {
+            phase = "upgrade";
+            upgradeStartTime = System.nanoTime();
+            handshaker.handshake(ctx.channel());
+        }
+
+        private void upgraded() {
+            long now = System.nanoTime();
+            upgradeTimeHistogram.recordValue(now - upgradeStartTime);
+            handshaker = null;
+            upgraded = true;
+            connectionMetrics.recordConnectionEstablished();
+            if (stopped) {
+                close(1000);
+                return;
+            }
+            // Recorded responses may be split into several frames by the server
+            ctx.pipeline().addBefore(ctx.name(), null, new WebSocketFrameAggregator(MAX_FRAME_SIZE));
+            replayStartTime = now;
+            if (speed > 0) {
+                long lastTime = getIntendedTime(conversation.getLastTimeInMicros());
+                ctx.executor().schedule(() -> close(1000), lastTime - now +
+                        TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_IN_MILLIS), TimeUnit.NANOSECONDS);
+            }
+            run();
+        }
+
+        /**
+         * @param timeInMicros recorded time of a message.
+         * @return intended time of the message in this replay in nanoseconds.
+         */
+        private long getIntendedTime(long timeInMicros) {
+            long firstTime = sessionFile.getTimeInMicros(conversation.getOffset(0));
+            return replayStartTime + (long) (TimeUnit.MICROSECONDS.toNanos(timeInMicros - firstTime) / speed);
+        }
+
+        /**
+         * Send the messages which are due, and schedule the next ones or wait for the responses before them.
+         */
+        @Override
+        public void run() {
+            if (closing || !ctx.channel().isActive()) {
+                return;
+            }
+            long now = System.nanoTime();
+            boolean sent = false;
+            while (sendIndex < conversation.getNoOfRecords()) {
+                long offset = conversation.getOffset(sendIndex);
+                if (!sessionFile.isSentByClient(offset)) {
+                    if (speed == 0 && responseIndex <= sendIndex) {
+                        // Wait for the recorded response, and give up on it after the response timeout
+                        if (responseTimeoutFuture == null) {
+                            responseTimeoutFuture = ctx.executor().schedule(
+                                    () -> close(1000), RESPONSE_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+                        }
+                        break;
+                    }
+                    sendIndex++;
+                    continue;
+                }
+                long sendTime = speed > 0 ? getIntendedTime(sessionFile.getTimeInMicros(offset)) : now;
+                if (sendTime > now) {
+                    ctx.executor().schedule(this, sendTime - now, TimeUnit.NANOSECONDS);
+                    break;
+                }
+                ByteBuf payload = Unpooled.wrappedBuffer(sessionFile.getPayload(offset));
+                ctx.write(sessionFile.isBinary(offset) ? new BinaryWebSocketFrame(payload) :
+                                  new TextWebSocketFrame(payload), ctx.voidPromise());
+                lastSendTime = sendTime;
+                lastSentIndex = sendIndex;
+                noOfMessagesReplayed++;
+                sendIndex++;
+                sent = true;
+            }
+            if (sent) {
+                ctx.flush();
+            }
+            closeIfDone();
+        }
+
+        /**
+         * Pair a response with the next recorded response of the connection and check it.
+         */
+        private void responseReceived(WebSocketFrame frame) {
+            long now = System.nanoTime();
+            noOfResponses.increment();
+            if (conversation.getNoOfResponses() == 0) {
+                return;
+            }
+            if (noOfPairedResponses == conversation.getNoOfResponses()) {
+                noOfUnexpectedResponses++;
+                return;
+            }
+            while (sessionFile.isSentByClient(conversation.getOffset(responseIndex))) {
+                requestIndex = responseIndex++;
+            }
+            long offset = conversation.getOffset(responseIndex++);
+            noOfPairedResponses++;
+            // Later responses to the same message, eg: of a subscription, are measured from the same message, and
+            // a response which arrives before the message recorded before it is sent from the last message sent
+            int measuredIndex = Math.min(requestIndex, lastSentIndex);
+            if (measuredIndex >= 0) {
+                long requestTime = speed > 0 ?
+                        getIntendedTime(sessionFile.getTimeInMicros(conversation.getOffset(measuredIndex))) :
+                        lastSendTime;
+                latencyHistogram.recordValue(now - requestTime);
+            }
+            if (matches(frame, offset)) {
+                noOfMatchedResponses++;
+            } else {
+                noOfMismatchedResponses.increment();
+            }
+            if (speed == 0) {
+                if (responseTimeoutFuture != null) {
+                    responseTimeoutFuture.cancel(false);
+                    responseTimeoutFuture = null;
+                }
+                run();
+            } else {
+                closeIfDone();
+            }
+        }
+
+        private boolean matches(WebSocketFrame frame, long offset) {
+            if (responseCheck == ResponseCheck.NONE) {
+                return true;
+            }
+            ByteBuf content = frame.content();
+            if ((frame instanceof BinaryWebSocketFrame) != sessionFile.isBinary(offset) ||
+                    content.readableBytes() != sessionFile.getPayloadLength(offset)) {
+                return false;
+            }
+            return responseCheck == ResponseCheck.LENGTH ||
+                    content.nioBuffer().equals(sessionFile.getPayload(offset));
+        }
+
+        private void closeIfDone() {
+            if (sendIndex == conversation.getNoOfRecords() &&
+                    noOfPairedResponses == conversation.getNoOfResponses()) {
+                close(1000);
+            }
+        }
+
+        void close(int closeCode) {
+            if (closing) {
+                return;
+            }
+            closing = true;
+            if (!upgraded) {
+                ctx.channel().config().setOption(ChannelOption.SO_LINGER, 0);
+                ctx.close();
+                return;
+            }
+            ctx.writeAndFlush(new CloseWebSocketFrame(closeCode, ""));
+            ctx.executor().schedule((Runnable) ctx::close, CLOSE_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (failed) {
+                ReferenceCountUtil.release(msg);
+                return;
+            }
+            if (handshaker != null) {
+                try {
+                    handshaker.finishHandshake(ctx.channel(), (FullHttpResponse) msg);
+                } catch (Exception e) {
+                    attemptFailed(e);
+                    return;
+                } finally {
+                    ((FullHttpResponse) msg).release();
+                }
+                upgraded();
+                return;
+            }
+
+            WebSocketFrame frame = (WebSocketFrame) msg;
+            try {
+                if (frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame) {
+                    responseReceived(frame);
+                } else if (frame instanceof PingWebSocketFrame) {
+                    ctx.writeAndFlush(new PongWebSocketFrame(frame.content().retain()));
+                } else if (frame instanceof CloseWebSocketFrame) {
+                    closing = true;
+                    ctx.close();
+                }
+            } finally {
+                frame.release();
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (!upgraded) {
+                if (closing) {
+                    // Closed by the end of the test while it was being opened
+                    finish();
+                } else {
+                    attemptFailed(new ClosedChannelException());
+                }
+                return;
+            }
+            connectionMetrics.recordConnectionClosed();
+            noOfMissingResponses.add(getNoOfMissingResponses());
+            finish();
+        }
+
+        /**
+         * @return no of recorded responses which were not received. When the test is stopped before the end of the
+         * replay, responses to messages which were not sent are not missing.
+         */
+        private long getNoOfMissingResponses() {
+            if (!stopped) {
+                return conversation.getNoOfResponses() - noOfPairedResponses;
+            }
+            long noOfMissing = 0;
+            for (int i = responseIndex; i < sendIndex; i++) {
+                if (!sessionFile.isSentByClient(conversation.getOffset(i))) {
+                    noOfMissing++;
+                }
+            }
+            return noOfMissing;
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (!upgraded) {
+                attemptFailed(cause);
+            } else {
+                log.debug("Client {}: Connection of recorded connection {} failed", clientId,
+                          conversation.getConnectionId(), cause);
+                ctx.close();
+            }
+        }
+
+        /**
+         * Record a failed TLS handshake or upgrade. The recorded connection is not replayed.
+         */
+        private void attemptFailed(Throwable cause) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+            handshaker = null;
+            connectionMetrics.recordFailure(phase, cause);
+            ctx.close().addListener(future -> finish());
+        }
+
+        private void finish() {
+            if (!done) {
+                done = true;
+                countDownLatch.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.irunika.websocket.test.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Result of a test run which is kept in a file, eg: as the baseline of later runs.
+ * The file holds the arguments of the test, the {@link TestResult} with all its merged histograms and the interval
+ * snapshots of the run (only if --report-interval was set), written with {@link DataOutputStream} in the same form
+ * as they are sent by the workers of a distributed test, and compressed with gzip.
+ * <p>
+ * {@link #VERSION} should be changed whenever the serialization of a test result or an interval snapshot changes.
+ *
+ * @author irunika
+ */
+public class ResultFile {
+
+    private static final int MAGIC = 0x57534252;
+    private static final int VERSION = 3;
+
+    private final long timestamp;
+    private final List<String> arguments;
+    private final TestResult result;
+    private final List<IntervalSnapshot> intervals;
+
+    /**
+     * @param timestamp wall clock time at the end of the run in milliseconds.
+     * @param arguments arguments of the test.
+     * @param result result of the run.
+     * @param intervals interval snapshots of the run, in order.
+     */
+    public ResultFile(long timestamp, List<String> arguments, TestResult result, List<IntervalSnapshot> intervals) {
+        this.timestamp = timestamp;
+        this.arguments = arguments;
+        this.result = result;
+        this.intervals = intervals;
+    }
+
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(timestamp);
+            out.writeInt(arguments.size());
+            for (String argument : arguments) {
+                out.writeUTF(argument);
+            }
+            result.writeTo(out);
+            out.writeInt(intervals.size());
+            for (IntervalSnapshot interval : intervals) {
+                interval.writeTo(out);
+            }
+        }
+    }
+
+    /**
+     * @param path result file.
+     * @return the result of the run which is kept in the file.
+     * @throws IOException if the file cannot be read, or it is not a result file of this version.
+     */
+    public static ResultFile read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a result file: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Result file " + path + " has version " + version + ", expected " +
+                                              VERSION);
+            }
+            long timestamp = in.readLong();
+            int noOfArguments = in.readInt();
+            List<String> arguments = new ArrayList<>(noOfArguments);
+            for (int i = 0; i < noOfArguments; i++) {
+                arguments.add(in.readUTF());
+            }
+            TestResult result = TestResult.readFrom(in);
+            int noOfIntervals = in.readInt();
+            List<IntervalSnapshot> intervals = new ArrayList<>(noOfIntervals);
+            for (int i = 0; i < noOfIntervals; i++) {
+                intervals.add(IntervalSnapshot.readFrom(in));
+            }
+            return new ResultFile(timestamp, arguments, result, intervals);
+        }
+    }
+
+    /**
+     * @return wall clock time at the end of the run in milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public List<String> getArguments() {
+        return Collections.unmodifiableList(arguments);
+    }
+
+    public TestResult getResult() {
+        return result;
+    }
+
+    public List<IntervalSnapshot> getIntervals() {
+        return Collections.unmodifiableList(intervals);
+    }
+}
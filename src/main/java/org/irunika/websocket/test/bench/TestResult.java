@@ -0,0 +1,669 @@
+package org.irunika.websocket.test.bench;
+
+import org.irunika.websocket.test.bench.metrics.DeliveryMetrics;
+import org.irunika.websocket.test.bench.metrics.GeneratorMetrics;
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.irunika.websocket.test.bench.metrics.MemoryMonitor;
+import org.irunika.websocket.test.bench.metrics.TrafficMetrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregated result of a test run.
+ * Results of runs which ran at the same time in several processes can be merged into one. Counters and
+ * histograms are added, while throughputs and rates are summed since the runs generate load in parallel.
+ *
+ * @author irunika
+ */
+public class TestResult {
+
+    private long testTimeInMillis;
+    private int noOfConnections;
+    private long maxNoOfActiveConnections;
+    private long noOfConnectionsEstablished;
+    private double connectRate;
+    private final Map<String, Long> connectionFailures = new TreeMap<>();
+    private int noOfClientsStarted;
+    private double totalTPS;
+    private long noOfMessages;
+    private long noOfOutOfOrderMessages;
+    private long noOfMissingMessages;
+    private long noOfDuplicateMessages;
+    private long noOfCorruptedMessages;
+    private long noOfLateMessages;
+    private double throughput;
+    private double steadyStateThroughput = -1;
+    private long peakHeapMemory;
+    private long peakDirectMemory;
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+    private final LatencyHistogram connectTimeHistogram = new LatencyHistogram();
+    private final LatencyHistogram tlsHandshakeTimeHistogram = new LatencyHistogram();
+    private final LatencyHistogram resumedTlsHandshakeTimeHistogram = new LatencyHistogram();
+    private final LatencyHistogram upgradeTimeHistogram = new LatencyHistogram();
+    private final Map<String, MessageClassResult> messageClassResults = new TreeMap<>();
+    private final TrafficMetrics trafficMetrics = new TrafficMetrics();
+    private final DeliveryMetrics deliveryMetrics = new DeliveryMetrics();
+    private final LatencyHistogram deliveryLatencyHistogram = new LatencyHistogram();
+    private final LatencyHistogram fanOutSkewHistogram = new LatencyHistogram();
+    private long noOfPingsSent;
+    private final LatencyHistogram pingRoundTripTimeHistogram = new LatencyHistogram();
+    private long noOfIdleConnections;
+    private long idleHeapMemory;
+    private long idleDirectMemory;
+    private final Map<String, Long> closes = new TreeMap<>();
+    private long noOfMessagesLostOnClose;
+    private long noOfRecordedMessages;
+    private long noOfMessagesReplayed;
+    private long noOfMatchedResponses;
+    private long noOfUnexpectedResponses;
+    private final GeneratorMetrics generatorMetrics = new GeneratorMetrics();
+
+    /**
+     * Merge the result of a run which ran in parallel with this one.
+     *
+     * @param other result to be merged into this one.
+     */
+    public void merge(TestResult other) {
+        testTimeInMillis = Math.max(testTimeInMillis, other.testTimeInMillis);
+        noOfConnections += other.noOfConnections;
+        maxNoOfActiveConnections += other.maxNoOfActiveConnections;
+        noOfConnectionsEstablished += other.noOfConnectionsEstablished;
+        connectRate += other.connectRate;
+        other.connectionFailures.forEach((key, count) -> connectionFailures.merge(key, count, Long::sum));
+        noOfClientsStarted += other.noOfClientsStarted;
+        totalTPS += other.totalTPS;
+        noOfMessages += other.noOfMessages;
+        noOfOutOfOrderMessages += other.noOfOutOfOrderMessages;
+        noOfMissingMessages += other.noOfMissingMessages;
+        noOfDuplicateMessages += other.noOfDuplicateMessages;
+        noOfCorruptedMessages += other.noOfCorruptedMessages;
+        noOfLateMessages += other.noOfLateMessages;
+        throughput += other.throughput;
+        if (other.steadyStateThroughput >= 0) {
+            steadyStateThroughput = Math.max(steadyStateThroughput, 0) + other.steadyStateThroughput;
+        }
+        peakHeapMemory += other.peakHeapMemory;
+        peakDirectMemory += other.peakDirectMemory;
+        latencyHistogram.add(other.latencyHistogram);
+        connectTimeHistogram.add(other.connectTimeHistogram);
+        tlsHandshakeTimeHistogram.add(other.tlsHandshakeTimeHistogram);
+        resumedTlsHandshakeTimeHistogram.add(other.resumedTlsHandshakeTimeHistogram);
+        upgradeTimeHistogram.add(other.upgradeTimeHistogram);
+        other.messageClassResults.forEach(
+                (name, classResult) -> getMessageClassResult(name).merge(classResult));
+        trafficMetrics.add(other.trafficMetrics);
+        deliveryMetrics.add(other.deliveryMetrics);
+        deliveryLatencyHistogram.add(other.deliveryLatencyHistogram);
+        fanOutSkewHistogram.add(other.fanOutSkewHistogram);
+        noOfPingsSent += other.noOfPingsSent;
+        pingRoundTripTimeHistogram.add(other.pingRoundTripTimeHistogram);
+        noOfIdleConnections += other.noOfIdleConnections;
+        idleHeapMemory += other.idleHeapMemory;
+        idleDirectMemory += other.idleDirectMemory;
+        other.closes.forEach((kind, count) -> closes.merge(kind, count, Long::sum));
+        noOfMessagesLostOnClose += other.noOfMessagesLostOnClose;
+        noOfRecordedMessages += other.noOfRecordedMessages;
+        noOfMessagesReplayed += other.noOfMessagesReplayed;
+        noOfMatchedResponses += other.noOfMatchedResponses;
+        noOfUnexpectedResponses += other.noOfUnexpectedResponses;
+        generatorMetrics.add(other.generatorMetrics);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(testTimeInMillis);
+        out.writeInt(noOfConnections);
+        out.writeLong(maxNoOfActiveConnections);
+        out.writeLong(noOfConnectionsEstablished);
+        out.writeDouble(connectRate);
+        out.writeInt(connectionFailures.size());
+        for (Map.Entry<String, Long> failure : connectionFailures.entrySet()) {
+            out.writeUTF(failure.getKey());
+            out.writeLong(failure.getValue());
+        }
+        out.writeInt(noOfClientsStarted);
+        out.writeDouble(totalTPS);
+        out.writeLong(noOfMessages);
+        out.writeLong(noOfOutOfOrderMessages);
+        out.writeLong(noOfMissingMessages);
+        out.writeLong(noOfDuplicateMessages);
+        out.writeLong(noOfCorruptedMessages);
+        out.writeLong(noOfLateMessages);
+        out.writeDouble(throughput);
+        out.writeDouble(steadyStateThroughput);
+        out.writeLong(peakHeapMemory);
+        out.writeLong(peakDirectMemory);
+        latencyHistogram.writeTo(out);
+        connectTimeHistogram.writeTo(out);
+        tlsHandshakeTimeHistogram.writeTo(out);
+        resumedTlsHandshakeTimeHistogram.writeTo(out);
+        upgradeTimeHistogram.writeTo(out);
+        out.writeInt(messageClassResults.size());
+        for (Map.Entry<String, MessageClassResult> classResult : messageClassResults.entrySet()) {
+            out.writeUTF(classResult.getKey());
+            classResult.getValue().writeTo(out);
+        }
+        trafficMetrics.writeTo(out);
+        deliveryMetrics.writeTo(out);
+        deliveryLatencyHistogram.writeTo(out);
+        fanOutSkewHistogram.writeTo(out);
+        out.writeLong(noOfPingsSent);
+        pingRoundTripTimeHistogram.writeTo(out);
+        out.writeLong(noOfIdleConnections);
+        out.writeLong(idleHeapMemory);
+        out.writeLong(idleDirectMemory);
+        out.writeInt(closes.size());
+        for (Map.Entry<String, Long> close : closes.entrySet()) {
+            out.writeUTF(close.getKey());
+            out.writeLong(close.getValue());
+        }
+        out.writeLong(noOfMessagesLostOnClose);
+        out.writeLong(noOfRecordedMessages);
+        out.writeLong(noOfMessagesReplayed);
+        out.writeLong(noOfMatchedResponses);
+        out.writeLong(noOfUnexpectedResponses);
+        generatorMetrics.writeTo(out);
+    }
+
+    public static TestResult readFrom(DataInput in) throws IOException {
+        TestResult result = new TestResult();
+        result.testTimeInMillis = in.readLong();
+        result.noOfConnections = in.readInt();
+        result.maxNoOfActiveConnections = in.readLong();
+        result.noOfConnectionsEstablished = in.readLong();
+        result.connectRate = in.readDouble();
+        int noOfFailureKinds = in.readInt();
+        for (int i = 0; i < noOfFailureKinds; i++) {
+            result.connectionFailures.put(in.readUTF(), in.readLong());
+        }
+        result.noOfClientsStarted = in.readInt();
+        result.totalTPS = in.readDouble();
+        result.noOfMessages = in.readLong();
+        result.noOfOutOfOrderMessages = in.readLong();
+        result.noOfMissingMessages = in.readLong();
+        result.noOfDuplicateMessages = in.readLong();
+        result.noOfCorruptedMessages = in.readLong();
+        result.noOfLateMessages = in.readLong();
+        result.throughput = in.readDouble();
+        result.steadyStateThroughput = in.readDouble();
+        result.peakHeapMemory = in.readLong();
+        result.peakDirectMemory = in.readLong();
+        result.latencyHistogram.add(LatencyHistogram.readFrom(in));
+        result.connectTimeHistogram.add(LatencyHistogram.readFrom(in));
+        result.tlsHandshakeTimeHistogram.add(LatencyHistogram.readFrom(in));
+        result.resumedTlsHandshakeTimeHistogram.add(LatencyHistogram.readFrom(in));
+        result.upgradeTimeHistogram.add(LatencyHistogram.readFrom(in));
+        int noOfMessageClasses = in.readInt();
+        for (int i = 0; i < noOfMessageClasses; i++) {
+            result.getMessageClassResult(in.readUTF()).readFrom(in);
+        }
+        result.trafficMetrics.add(TrafficMetrics.readFrom(in));
+        result.deliveryMetrics.add(DeliveryMetrics.readFrom(in));
+        result.deliveryLatencyHistogram.add(LatencyHistogram.readFrom(in));
+        result.fanOutSkewHistogram.add(LatencyHistogram.readFrom(in));
+        result.noOfPingsSent = in.readLong();
+        result.pingRoundTripTimeHistogram.add(LatencyHistogram.readFrom(in));
+        result.noOfIdleConnections = in.readLong();
+        result.idleHeapMemory = in.readLong();
+        result.idleDirectMemory = in.readLong();
+        int noOfCloseKinds = in.readInt();
+        for (int i = 0; i < noOfCloseKinds; i++) {
+            result.closes.put(in.readUTF(), in.readLong());
+        }
+        result.noOfMessagesLostOnClose = in.readLong();
+        result.noOfRecordedMessages = in.readLong();
+        result.noOfMessagesReplayed = in.readLong();
+        result.noOfMatchedResponses = in.readLong();
+        result.noOfUnexpectedResponses = in.readLong();
+        result.generatorMetrics.add(GeneratorMetrics.readFrom(in));
+        return result;
+    }
+
+    public long getTestTimeInMillis() {
+        return testTimeInMillis;
+    }
+
+    public void setTestTimeInMillis(long testTimeInMillis) {
+        this.testTimeInMillis = testTimeInMillis;
+    }
+
+    public int getNoOfConnections() {
+        return noOfConnections;
+    }
+
+    public void setNoOfConnections(int noOfConnections) {
+        this.noOfConnections = noOfConnections;
+    }
+
+    public long getMaxNoOfActiveConnections() {
+        return maxNoOfActiveConnections;
+    }
+
+    public long getNoOfConnectionsEstablished() {
+        return noOfConnectionsEstablished;
+    }
+
+    public double getConnectRate() {
+        return connectRate;
+    }
+
+    public Map<String, Long> getConnectionFailures() {
+        return connectionFailures;
+    }
+
+    public long getNoOfConnectionFailures() {
+        return connectionFailures.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Copy the connection level metrics of the run.
+     *
+     * @param connectionMetrics connection metrics of the run.
+     */
+    public void setConnectionMetrics(ConnectionMetrics connectionMetrics) {
+        this.maxNoOfActiveConnections = connectionMetrics.getMaxNoOfActiveConnections();
+        this.noOfConnectionsEstablished = connectionMetrics.getNoOfConnectionsEstablished();
+        this.connectRate = connectionMetrics.getConnectRate();
+        this.connectionFailures.putAll(connectionMetrics.getFailures());
+    }
+
+    /**
+     * Add the counters of a client which established its connection.
+     *
+     * @param tps TPS of the client.
+     * @param noOfMessages no of messages received by the client.
+     * @param echoValidator validator of the client.
+     * @param latencyHistogram round trip latencies of the client.
+     */
+    public void addClient(double tps, long noOfMessages, EchoValidator echoValidator,
+                          LatencyHistogram latencyHistogram) {
+        this.noOfClientsStarted++;
+        this.totalTPS += tps;
+        this.noOfMessages += noOfMessages;
+        this.noOfOutOfOrderMessages += echoValidator.getNoOfOutOfOrderMessages();
+        this.noOfMissingMessages += echoValidator.getNoOfMissingMessages();
+        this.noOfDuplicateMessages += echoValidator.getNoOfDuplicateMessages();
+        this.noOfCorruptedMessages += echoValidator.getNoOfCorruptedMessages();
+        this.noOfLateMessages += echoValidator.getNoOfLateMessages();
+        this.latencyHistogram.add(latencyHistogram);
+    }
+
+    /**
+     * Add the counters of a client which established its connection to the result of its scenario message class.
+     *
+     * @param messageClass name of the message class of the client.
+     * @param noOfMessages no of messages received by the client.
+     * @param echoValidator validator of the client.
+     * @param latencyHistogram round trip latencies of the client.
+     */
+    public void addMessageClassClient(String messageClass, long noOfMessages, EchoValidator echoValidator,
+                                      LatencyHistogram latencyHistogram) {
+        MessageClassResult classResult = getMessageClassResult(messageClass);
+        classResult.noOfConnections++;
+        classResult.noOfMessages += noOfMessages;
+        classResult.noOfErrorMessages += echoValidator.getNoOfErrors();
+        classResult.latencyHistogram.add(latencyHistogram);
+    }
+
+    /**
+     * Add the deliveries of a subscriber of a fan-out test after its connection is closed.
+     *
+     * @param deliveryTracker delivery tracker of the subscriber.
+     * @param lastSequences sequence no of the last message of each publisher in this process.
+     * @param latencyHistogram delivery latencies of the subscriber.
+     */
+    public void addSubscriber(DeliveryTracker deliveryTracker, long[] lastSequences,
+                              LatencyHistogram latencyHistogram) {
+        deliveryMetrics.recordSubscriber(deliveryTracker.getNoOfDeliveries(),
+                                         deliveryTracker.getNoOfExpectedDeliveries(lastSequences),
+                                         deliveryTracker.getNoOfMissingDeliveries(lastSequences),
+                                         deliveryTracker.getNoOfOutOfOrderDeliveries(),
+                                         deliveryTracker.getNoOfCorruptedDeliveries());
+        deliveryLatencyHistogram.add(latencyHistogram);
+    }
+
+    /**
+     * Add the closes of a client of a churn test.
+     *
+     * @param closes no of connections closed at the end of their lifetime by close code, or closed by the server.
+     * @param noOfMessagesLostOnClose no of messages which were not echoed when their connection was closed.
+     */
+    public void addChurn(Map<String, Long> closes, long noOfMessagesLostOnClose) {
+        closes.forEach((kind, count) -> this.closes.merge(kind, count, Long::sum));
+        this.noOfMessagesLostOnClose += noOfMessagesLostOnClose;
+    }
+
+    /**
+     * @return no of connections of a churn test closed by close code, {@code reset} or {@code server}, sorted by
+     * kind.
+     */
+    public Map<String, Long> getCloses() {
+        return closes;
+    }
+
+    /**
+     * @return no of messages of a churn test which were not echoed when their connection was closed.
+     */
+    public long getNoOfMessagesLostOnClose() {
+        return noOfMessagesLostOnClose;
+    }
+
+    /**
+     * Add the counters of a replayed connection. Responses which do not match their recorded response are counted
+     * as corrupted messages, and recorded responses which were not received as missing messages.
+     *
+     * @param tps TPS of the connection.
+     * @param noOfRecordedMessages no of messages the recorded client sent.
+     * @param noOfMessagesReplayed no of messages sent in the replay.
+     * @param noOfResponses no of responses received in the replay.
+     * @param noOfMatchedResponses no of responses which matched their recorded response.
+     * @param noOfMismatchedResponses no of responses which did not match their recorded response.
+     * @param noOfMissingResponses no of recorded responses which were not received.
+     * @param noOfUnexpectedResponses no of responses received after all the recorded responses.
+     * @param latencyHistogram latencies from sending a message until its response is received.
+     */
+    public void addReplay(double tps, long noOfRecordedMessages, long noOfMessagesReplayed, long noOfResponses,
+                          long noOfMatchedResponses, long noOfMismatchedResponses, long noOfMissingResponses,
+                          long noOfUnexpectedResponses, LatencyHistogram latencyHistogram) {
+        this.noOfClientsStarted++;
+        this.totalTPS += tps;
+        this.noOfMessages += noOfResponses;
+        this.noOfRecordedMessages += noOfRecordedMessages;
+        this.noOfMessagesReplayed += noOfMessagesReplayed;
+        this.noOfMatchedResponses += noOfMatchedResponses;
+        this.noOfCorruptedMessages += noOfMismatchedResponses;
+        this.noOfMissingMessages += noOfMissingResponses;
+        this.noOfUnexpectedResponses += noOfUnexpectedResponses;
+        this.latencyHistogram.add(latencyHistogram);
+    }
+
+    /**
+     * @return no of messages sent by the recorded clients of a replay, over all the copies of the session.
+     */
+    public long getNoOfRecordedMessages() {
+        return noOfRecordedMessages;
+    }
+
+    /**
+     * @return no of messages sent in a replay.
+     */
+    public long getNoOfMessagesReplayed() {
+        return noOfMessagesReplayed;
+    }
+
+    /**
+     * @return no of responses of a replay which matched their recorded response.
+     */
+    public long getNoOfMatchedResponses() {
+        return noOfMatchedResponses;
+    }
+
+    /**
+     * @return no of responses of a replay which were received after all the recorded responses.
+     */
+    public long getNoOfUnexpectedResponses() {
+        return noOfUnexpectedResponses;
+    }
+
+    /**
+     * @return connections established per second over the whole test.
+     */
+    public double getSustainedConnectRate() {
+        return testTimeInMillis > 0 ? noOfConnectionsEstablished / (testTimeInMillis / 1000.0) : 0;
+    }
+
+    /**
+     * @return results of each scenario message class by name, empty if the test has no scenario.
+     */
+    public Map<String, MessageClassResult> getMessageClassResults() {
+        return messageClassResults;
+    }
+
+    private MessageClassResult getMessageClassResult(String messageClass) {
+        return messageClassResults.computeIfAbsent(messageClass, name -> new MessageClassResult());
+    }
+
+    public double getAverageTPSPerClient() {
+        return totalTPS / Math.max(noOfClientsStarted, 1);
+    }
+
+    public long getNoOfMessages() {
+        return noOfMessages;
+    }
+
+    public long getNoOfErrorMessages() {
+        return noOfOutOfOrderMessages + noOfMissingMessages + noOfDuplicateMessages + noOfCorruptedMessages +
+                noOfUnexpectedResponses;
+    }
+
+    public long getNoOfOutOfOrderMessages() {
+        return noOfOutOfOrderMessages;
+    }
+
+    public long getNoOfMissingMessages() {
+        return noOfMissingMessages;
+    }
+
+    public long getNoOfDuplicateMessages() {
+        return noOfDuplicateMessages;
+    }
+
+    public long getNoOfCorruptedMessages() {
+        return noOfCorruptedMessages;
+    }
+
+    /**
+     * @return no of echoes which arrived after more than --validation-window newer messages were sent. They are
+     * validated and measured, and are not errors.
+     */
+    public long getNoOfLateMessages() {
+        return noOfLateMessages;
+    }
+
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public void setThroughput(double throughput) {
+        this.throughput = throughput;
+    }
+
+    /**
+     * @return throughput after the warmup, negative if the test had no warmup.
+     */
+    public double getSteadyStateThroughput() {
+        return steadyStateThroughput;
+    }
+
+    public void setSteadyStateThroughput(double steadyStateThroughput) {
+        this.steadyStateThroughput = steadyStateThroughput;
+    }
+
+    /**
+     * Copy the peak memory used by the test bench during the run.
+     *
+     * @param memoryMonitor memory monitor of the run.
+     */
+    public void setPeakMemory(MemoryMonitor memoryMonitor) {
+        this.peakHeapMemory = memoryMonitor.getPeakHeapMemory();
+        this.peakDirectMemory = memoryMonitor.getPeakDirectMemory();
+    }
+
+    /**
+     * @return peak heap memory used by the test bench in bytes, summed over the processes of a distributed test.
+     */
+    public long getPeakHeapMemory() {
+        return peakHeapMemory;
+    }
+
+    /**
+     * @return peak direct memory used by the test bench in bytes, summed over the processes of a distributed test.
+     */
+    public long getPeakDirectMemory() {
+        return peakDirectMemory;
+    }
+
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    public LatencyHistogram getConnectTimeHistogram() {
+        return connectTimeHistogram;
+    }
+
+    /**
+     * @return times of the full TLS handshakes, which did not resume an earlier session.
+     */
+    public LatencyHistogram getTlsHandshakeTimeHistogram() {
+        return tlsHandshakeTimeHistogram;
+    }
+
+    /**
+     * @return times of the TLS handshakes which resumed an earlier session.
+     */
+    public LatencyHistogram getResumedTlsHandshakeTimeHistogram() {
+        return resumedTlsHandshakeTimeHistogram;
+    }
+
+    public LatencyHistogram getUpgradeTimeHistogram() {
+        return upgradeTimeHistogram;
+    }
+
+    /**
+     * @return delivery counters of the subscribers of a fan-out test.
+     */
+    public DeliveryMetrics getDeliveryMetrics() {
+        return deliveryMetrics;
+    }
+
+    /**
+     * @return latencies from a publisher sending a message until a subscriber receives it, in a fan-out test.
+     */
+    public LatencyHistogram getDeliveryLatencyHistogram() {
+        return deliveryLatencyHistogram;
+    }
+
+    /**
+     * @return times between the first and the last subscriber receiving a message, in a fan-out test.
+     */
+    public LatencyHistogram getFanOutSkewHistogram() {
+        return fanOutSkewHistogram;
+    }
+
+    /**
+     * @return no of keepalive pings sent in an idle test.
+     */
+    public long getNoOfPingsSent() {
+        return noOfPingsSent;
+    }
+
+    public void setNoOfPingsSent(long noOfPingsSent) {
+        this.noOfPingsSent = noOfPingsSent;
+    }
+
+    /**
+     * @return times from sending a keepalive ping until its pong is received, in an idle test.
+     */
+    public LatencyHistogram getPingRoundTripTimeHistogram() {
+        return pingRoundTripTimeHistogram;
+    }
+
+    /**
+     * Set the memory used by the test bench to hold the connections of an idle test.
+     *
+     * @param noOfIdleConnections no of connections which were open when the memory was measured.
+     * @param idleHeapMemory heap memory used by the connections in bytes.
+     * @param idleDirectMemory direct memory used by the connections in bytes.
+     */
+    public void setIdleMemory(long noOfIdleConnections, long idleHeapMemory, long idleDirectMemory) {
+        this.noOfIdleConnections = noOfIdleConnections;
+        this.idleHeapMemory = idleHeapMemory;
+        this.idleDirectMemory = idleDirectMemory;
+    }
+
+    /**
+     * @return no of connections whose memory was measured in an idle test, summed over the workers.
+     */
+    public long getNoOfIdleConnections() {
+        return noOfIdleConnections;
+    }
+
+    /**
+     * @return heap memory used by the test bench per connection of an idle test in bytes.
+     */
+    public long getHeapMemoryPerIdleConnection() {
+        return idleHeapMemory / Math.max(noOfIdleConnections, 1);
+    }
+
+    /**
+     * @return direct memory used by the test bench per connection of an idle test in bytes.
+     */
+    public long getDirectMemoryPerIdleConnection() {
+        return idleDirectMemory / Math.max(noOfIdleConnections, 1);
+    }
+
+    /**
+     * @return byte and compression counters of all the connections.
+     */
+    public TrafficMetrics getTrafficMetrics() {
+        return trafficMetrics;
+    }
+
+    /**
+     * @return load of the test bench itself, and whether it was saturated.
+     */
+    public GeneratorMetrics getGeneratorMetrics() {
+        return generatorMetrics;
+    }
+
+    /**
+     * Counters of the connections which sent one message class of a scenario.
+     */
+    public static class MessageClassResult {
+
+        private int noOfConnections;
+        private long noOfMessages;
+        private long noOfErrorMessages;
+        private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+
+        private void merge(MessageClassResult other) {
+            noOfConnections += other.noOfConnections;
+            noOfMessages += other.noOfMessages;
+            noOfErrorMessages += other.noOfErrorMessages;
+            latencyHistogram.add(other.latencyHistogram);
+        }
+
+        private void writeTo(DataOutput out) throws IOException {
+            out.writeInt(noOfConnections);
+            out.writeLong(noOfMessages);
+            out.writeLong(noOfErrorMessages);
+            latencyHistogram.writeTo(out);
+        }
+
+        private void readFrom(DataInput in) throws IOException {
+            noOfConnections = in.readInt();
+            noOfMessages = in.readLong();
+            noOfErrorMessages = in.readLong();
+            latencyHistogram.add(LatencyHistogram.readFrom(in));
+        }
+
+        public int getNoOfConnections() {
+            return noOfConnections;
+        }
+
+        public long getNoOfMessages() {
+            return noOfMessages;
+        }
+
+        public long getNoOfErrorMessages() {
+            return noOfErrorMessages;
+        }
+
+        public LatencyHistogram getLatencyHistogram() {
+            return latencyHistogram;
+        }
+    }
+}
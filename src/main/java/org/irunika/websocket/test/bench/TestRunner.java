@@ -1,20 +1,52 @@
 package org.irunika.websocket.test.bench;
 
 import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+import io.netty.handler.ssl.SslContext;
 import org.irunika.websocket.test.bench.config.Args;
+import org.irunika.websocket.test.bench.config.RegressionThresholds;
+import org.irunika.websocket.test.bench.config.RunnerModel;
 import org.irunika.websocket.test.bench.config.TimeFormatter;
+import org.irunika.websocket.test.bench.config.TlsParameters;
+import org.irunika.websocket.test.bench.distributed.Coordinator;
+import org.irunika.websocket.test.bench.distributed.Worker;
+import org.irunika.websocket.test.bench.server.EchoServer;
+import org.irunika.websocket.test.bench.metrics.DeliveryMetrics;
+import org.irunika.websocket.test.bench.metrics.GeneratorMetrics;
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.irunika.websocket.test.bench.metrics.MemoryMonitor;
+import org.irunika.websocket.test.bench.metrics.MetricsExporter;
+import org.irunika.websocket.test.bench.metrics.MetricNames;
+import org.irunika.websocket.test.bench.metrics.MetricsRegistry;
+import org.irunika.websocket.test.bench.metrics.TrafficMetrics;
+import org.irunika.websocket.test.bench.replay.SessionFileWriter;
+import org.irunika.websocket.test.bench.scenario.MessageClass;
+import org.irunika.websocket.test.bench.scenario.Scenario;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.cert.CertificateException;
 import java.text.DateFormat;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.time.format.DateTimeFormatter;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import javax.net.ssl.SSLException;
 
 /**
  * This class is contain the main class to run the test.
@@ -25,35 +57,194 @@ public class TestRunner {
 
     private static final Logger log = LoggerFactory.getLogger(TestRunner.class);
 
-    public static void main(String[] argv) throws InterruptedException {
+    /**
+     * Exit code of a test or a comparison which regressed against its baseline.
+     */
+    public static final int REGRESSION_EXIT_CODE = 2;
+
+    public static void main(String[] argv)
+            throws InterruptedException, IOException, CertificateException, URISyntaxException {
 
         // Use JCommander for argument parsing
         Args args = new Args();
         JCommander.newBuilder().addObject(args).build().parse(argv);
 
-        String url = args.getUrl();
+        if (args.getEchoServerPort() > 0) {
+            SslContext sslContext = args.isTls() ? args.getTlsParameters().newServerContext() : null;
+            EchoServer echoServer = new EchoServer(args.getEchoServerPort(), args.getNoOfEventLoopThreads(),
+                                                   args.isEpoll(), args.getDeflateParameters(), sslContext,
+                                                   args.isBroadcast());
+            Runtime.getRuntime().addShutdownHook(new Thread(echoServer::stop));
+            echoServer.start();
+            echoServer.awaitTermination();
+        } else if (args.getWorkerPort() > 0) {
+            new Worker(args.getWorkerPort()).run();
+        } else if (args.getCompareFile() != null) {
+            if (args.getBaselineFile() == null) {
+                throw new ParameterException("--compare needs a --baseline result file");
+            }
+            compareWithBaseline(args.getBaselineFile(), ResultFile.read(Paths.get(args.getBaselineFile())),
+                                ResultFile.read(Paths.get(args.getCompareFile())), args.getRegressionThresholds());
+        } else if (args.getReplayImportFile() != null) {
+            if (args.getReplayFile() == null) {
+                throw new ParameterException("--replay-import needs a --replay session file to write");
+            }
+            long noOfMessages = SessionFileWriter.importMessageLog(Paths.get(args.getReplayImportFile()),
+                                                                   Paths.get(args.getReplayFile()));
+            log.info("Imported {} messages from {} into {}", noOfMessages, args.getReplayImportFile(),
+                     args.getReplayFile());
+        } else {
+            // Read the baseline first, so a bad baseline fails before the test is run
+            ResultFile baseline = null;
+            RegressionThresholds thresholds = null;
+            if (args.getBaselineFile() != null) {
+                thresholds = args.getRegressionThresholds();
+                baseline = ResultFile.read(Paths.get(args.getBaselineFile()));
+            }
+            List<IntervalSnapshot> intervals = Collections.synchronizedList(new ArrayList<>());
+            TestResult result = args.getWorkers() != null ? new Coordinator(args, argv).run(intervals::add) :
+                    runTest(args, 0, 1, intervals::add);
+            logResult(result);
+            ResultFile resultFile = new ResultFile(System.currentTimeMillis(), Arrays.asList(argv), result,
+                                                   new ArrayList<>(intervals));
+            if (args.getResultFile() != null) {
+                resultFile.write(Paths.get(args.getResultFile()));
+                log.info("Result is written to {}", args.getResultFile());
+            }
+            if (baseline != null) {
+                compareWithBaseline(args.getBaselineFile(), baseline, resultFile, thresholds);
+            }
+        }
+    }
+
+    /**
+     * Compare a result with the baseline result file and exit with {@link #REGRESSION_EXIT_CODE} if it regressed.
+     */
+    private static void compareWithBaseline(String baselineFile, ResultFile baseline, ResultFile resultFile,
+                                            RegressionThresholds thresholds) {
+        log.info("Comparing with the baseline {} of {}", baselineFile,
+                 Instant.ofEpochMilli(baseline.getTimestamp()));
+        if (new BaselineComparison(thresholds).compare(baseline, resultFile)) {
+            System.exit(REGRESSION_EXIT_CODE);
+        }
+    }
+
+    /**
+     * Run a test in this process.
+     * Connection i of the test gets the client id {@code firstClientId + i * clientIdStride}, which is also the
+     * index used for its ramp up delay. This lets several processes share the ramp up schedule of one test.
+     *
+     * @param args test configuration.
+     * @param firstClientId client id of the first connection.
+     * @param clientIdStride difference between the client ids of two consecutive connections.
+     * @param intervalListener listener of the interval reports, null for none.
+     * @return result of the test.
+     */
+    public static TestResult runTest(Args args, int firstClientId, int clientIdStride,
+                                     Consumer<IntervalSnapshot> intervalListener)
+            throws InterruptedException, IOException, URISyntaxException {
+        MetricsRegistry registry = new MetricsRegistry();
+        ClientTransport transport = createTransport(args);
+        GeneratorMonitor generatorMonitor = new GeneratorMonitor(transport, registry);
+        MetricsExporter metricsExporter = MetricsExporter.start(registry, args.getMetricsPort(), args.isJmx());
+        generatorMonitor.start();
+        TestResult result;
+        GeneratorMetrics generatorMetrics;
+        try {
+            result = runTest(args, registry, transport, firstClientId, clientIdStride, intervalListener);
+        } finally {
+            // The last sample of the monitor reads the transport, so it is shut down only after the monitor
+            generatorMetrics = generatorMonitor.stop();
+            if (metricsExporter != null) {
+                metricsExporter.stop();
+            }
+            transport.shutdownGracefully();
+        }
+        generatorMetrics.checkSaturation(args.getSaturationLagInMillis(), args.getSaturationCpuPercentage(),
+                                         args.getSaturationGcPercentage());
+        result.getGeneratorMetrics().add(generatorMetrics);
+        return result;
+    }
+
+    private static TestResult runTest(Args args, MetricsRegistry registry, ClientTransport transport,
+                                      int firstClientId, int clientIdStride,
+                                      Consumer<IntervalSnapshot> intervalListener)
+            throws InterruptedException, IOException, URISyntaxException {
+        if (args.isHandshakeTest()) {
+            return new HandshakeRateTest(args, transport, registry).run();
+        }
+        if (args.isIdleTest()) {
+            return new IdleCapacityTest(args, transport, registry, firstClientId, clientIdStride)
+                    .run(intervalListener);
+        }
+        if (args.isChurnTest()) {
+            return new ChurnTest(args, transport, registry, firstClientId, clientIdStride).run(intervalListener);
+        }
+        if (args.getReplayFile() != null) {
+            return new ReplayTest(args, transport, registry, firstClientId, clientIdStride).run(intervalListener);
+        }
+
         int noOfConnections = args.getNoOfConnections();
         int noOfMessages = args.getNoOfMessages();
-        int payloadInBytes = args.getPayloadInBytes();
         int testTimeInMinutes = args.getTestTimeInMinutes();
-        long messageDelay = args.getMessageDelay();
 
         CountDownLatch countDownLatch = new CountDownLatch(noOfConnections);
-        List<WebSocketClientRunner> webSocketClientRunners = new LinkedList<>();
-        ExecutorService executor = Executors.newFixedThreadPool(noOfConnections);
-        log.info("Creating connections...");
+        Queue<WebSocketClientRunner> webSocketClientRunners = new ConcurrentLinkedQueue<>();
+        Scenario scenario = args.getScenarioFile() != null ? Scenario.load(args.getScenarioFile()) : null;
+        RandomPayload randomPayload = args.getPayloadEntropy() > 0 ? createRandomPayload(args, scenario) : null;
+        RunnerModel runnerModel = args.getRunnerModel();
+        ExecutorService executor = runnerModel.createExecutor(noOfConnections);
+        ConnectionMetrics connectionMetrics = new ConnectionMetrics(registry);
+        registerClientMetrics(registry, webSocketClientRunners);
+        IntervalReportWriter intervalReportWriter = null;
+        IntervalReporter intervalReporter = null;
+        if (args.getReportIntervalInSeconds() > 0) {
+            intervalReportWriter = new IntervalReportWriter(args.getReportFile());
+            intervalReporter = new IntervalReporter(registry, args.getReportIntervalInSeconds(),
+                                                    intervalReportWriter, intervalListener);
+            intervalReporter.start();
+        }
+        MemoryMonitor memoryMonitor = new MemoryMonitor();
+        memoryMonitor.start();
+        MeasurementWindow measurementWindow = new MeasurementWindow();
+        FanOut fanOut = args.getNoOfPublishers() > 0 ?
+                new FanOut(args, firstClientId, clientIdStride, transport, measurementWindow) : null;
+        RampUpScheduler rampUpScheduler = new RampUpScheduler(args.getRampUpRate(), args.getRampUpStages());
+        boolean delayMeasurements = rampUpScheduler.isEnabled() || args.getWarmupInSeconds() > 0;
+        if (!delayMeasurements) {
+            measurementWindow.start(0);
+        }
+        log.info("Creating connections using the {} runner model...", runnerModel);
 
-        long testStartTime = 0L;
+        long testStartTime = System.currentTimeMillis();
         try {
-            for (int clientId = 0; clientId < noOfConnections; clientId++) {
+            List<WebSocketClientRunner> publishers = new ArrayList<>();
+            for (int i = 0; i < noOfConnections; i++) {
+                int clientId = firstClientId + i * clientIdStride;
                 WebSocketClientRunner webSocketClientRunner = new WebSocketClientRunner(
-                        clientId, url, testTimeInMinutes > 0 ? -1 : noOfMessages, payloadInBytes, messageDelay,
-                        countDownLatch);
+                        clientId, args, scenario != null ? scenario.getMessageClass(clientId) : null, randomPayload,
+                        fanOut != null ? fanOut.getLatch(clientId) : countDownLatch, transport, connectionMetrics,
+                        measurementWindow, fanOut);
                 webSocketClientRunners.add(webSocketClientRunner);
-                if (clientId == 0L) {
-                    testStartTime = System.currentTimeMillis();
+                if (fanOut != null && fanOut.isPublisher(clientId)) {
+                    // Publishers start once the subscribers are connected
+                    publishers.add(webSocketClientRunner);
+                    continue;
+                }
+                launch(webSocketClientRunner, executor,
+                       testStartTime + rampUpScheduler.getLaunchDelayInMillis(clientId));
+            }
+            if (fanOut != null) {
+                fanOut.awaitSubscribers();
+                for (WebSocketClientRunner publisher : publishers) {
+                    launch(publisher, executor,
+                           testStartTime + rampUpScheduler.getLaunchDelayInMillis(publisher.getClientId()));
                 }
-                executor.execute(webSocketClientRunner);
+            }
+            if (delayMeasurements) {
+                log.info("All connections are launched. Measurements start after {} seconds of warmup",
+                         args.getWarmupInSeconds());
+                measurementWindow.start(TimeUnit.SECONDS.toMillis(args.getWarmupInSeconds()));
             }
 
             if (testTimeInMinutes > 0) {
@@ -62,42 +253,316 @@ public class TestRunner {
                         webSocketClientRunner -> webSocketClientRunner.setStopSendingMessages(true));
             }
 
-            if (!countDownLatch.await(Long.MAX_VALUE, TimeUnit.SECONDS)) {
+            if (fanOut != null) {
+                fanOut.awaitCompletion(webSocketClientRunners, () -> registry.get(MetricNames.MESSAGES_RECEIVED));
+            } else if (!countDownLatch.await(Long.MAX_VALUE, TimeUnit.SECONDS)) {
                 log.error("Latch countdown without completion");
             }
 
         } finally {
-            long testEndTime = System.currentTimeMillis();
-            executor.shutdown();
-            long totalNoOfMessages = 0;
-            double totalTPS = 0;
-            int totalNoOfErrorMessages = 0;
-            for (WebSocketClientRunner webSocketClientRunner : webSocketClientRunners) {
-                totalNoOfMessages = totalNoOfMessages + webSocketClientRunner.getNoOfMessagesReceived();
-                totalNoOfErrorMessages = totalNoOfErrorMessages + webSocketClientRunner.getNoOfErrorMessages();
-                double tps = calculateTPS(noOfMessages, webSocketClientRunner);
-                totalTPS = totalTPS + tps;
-                log.info("Client {}: Test run TPS: {}", webSocketClientRunner.getClientId(), tps);
+            if (intervalReporter != null) {
+                intervalReporter.stop();
+                intervalReportWriter.close();
+            }
+            if (executor != null) {
+                executor.shutdown();
+            }
+            memoryMonitor.stop();
+        }
+
+        long testEndTime = System.currentTimeMillis();
+        TestResult result = new TestResult();
+        long[] lastSequences = null;
+        if (fanOut != null) {
+            lastSequences = fanOut.finish(webSocketClientRunners);
+            for (int publisherId = 0; publisherId < fanOut.getNoOfPublishers(); publisherId++) {
+                if (fanOut.isLocalPublisher(publisherId)) {
+                    result.getFanOutSkewHistogram().add(fanOut.getSkew(publisherId).getSkewHistogram());
+                }
+            }
+        }
+        long totalNoOfMeasuredMessages = 0;
+        for (WebSocketClientRunner webSocketClientRunner : webSocketClientRunners) {
+            WebSocketClient webSocketClient = webSocketClientRunner.getWebSocketClient();
+            recordIfMeasured(result.getConnectTimeHistogram(), webSocketClient.getConnectTime());
+            recordIfMeasured(webSocketClient.isTlsSessionResumed() ? result.getResumedTlsHandshakeTimeHistogram() :
+                                     result.getTlsHandshakeTimeHistogram(), webSocketClient.getTlsHandshakeTime());
+            recordIfMeasured(result.getUpgradeTimeHistogram(), webSocketClient.getUpgradeTime());
+            if (webSocketClientRunner.getStartTime() == 0) {
+                // Connection was not established
+                continue;
+            }
+            result.getTrafficMetrics().add(webSocketClient.getTrafficMetrics());
+            if (webSocketClientRunner.isSubscriber()) {
+                result.addSubscriber(webSocketClient.getDeliveryTracker(), lastSequences,
+                                     webSocketClientRunner.getLatencyHistogram());
+                continue;
             }
+            totalNoOfMeasuredMessages += webSocketClient.getNoOfMeasuredMessages();
+            double tps = calculateTPS(noOfMessages, webSocketClientRunner);
+            log.info("Client {}: Test run TPS: {}", webSocketClientRunner.getClientId(), tps);
+            LatencyHistogram latencyHistogram = webSocketClientRunner.getLatencyHistogram();
+            logLatency("Client " + webSocketClientRunner.getClientId() + ": Round trip latency", latencyHistogram);
+            result.addClient(tps, webSocketClientRunner.getNoOfMessagesReceived(),
+                             webSocketClientRunner.getEchoValidator(), latencyHistogram);
+            if (webSocketClientRunner.getMessageClass() != null) {
+                result.addMessageClassClient(webSocketClientRunner.getMessageClass().getName(),
+                                             webSocketClientRunner.getNoOfMessagesReceived(),
+                                             webSocketClientRunner.getEchoValidator(), latencyHistogram);
+            }
+        }
+
+        result.setTestTimeInMillis(testTimeInMinutes > 0 ? testTimeInMinutes * 60 * 1000 :
+                                           testEndTime - testStartTime);
+        result.setNoOfConnections(noOfConnections);
+        result.setConnectionMetrics(connectionMetrics);
+        result.setPeakMemory(memoryMonitor);
+        result.setThroughput(getThroughput(testStartTime, testEndTime, result.getNoOfMessages()));
+        if (delayMeasurements && measurementWindow.isStarted()) {
+            result.setSteadyStateThroughput(getThroughput(measurementWindow.getStartTimeInMillis(), testEndTime,
+                                                          totalNoOfMeasuredMessages));
+        }
+        return result;
+    }
+
+    /**
+     * Launch a client at the given time, on a thread of the executor or on its event loop if there is no executor.
+     */
+    private static void launch(WebSocketClientRunner webSocketClientRunner, ExecutorService executor,
+                               long launchTime) throws InterruptedException {
+        long launchDelay = launchTime - System.currentTimeMillis();
+        if (launchDelay > 0) {
+            Thread.sleep(launchDelay);
+        }
+        if (executor != null) {
+            executor.execute(webSocketClientRunner);
+        } else {
+            webSocketClientRunner.start();
+        }
+    }
+
+    /**
+     * Register the metrics which are kept by each connection. Each connection updates its own counters and
+     * histograms on its event loop, and they are summed when they are read.
+     */
+    private static void registerClientMetrics(MetricsRegistry registry, Queue<WebSocketClientRunner> runners) {
+        registry.sum(MetricNames.MESSAGES_RECEIVED, runners, WebSocketClientRunner::getNoOfMessagesReceived);
+        registry.sum(MetricNames.MESSAGES_OUT_OF_ORDER, runners,
+                     runner -> validatorValue(runner, EchoValidator::getNoOfOutOfOrderMessages));
+        registry.sum(MetricNames.MESSAGES_MISSING, runners,
+                     runner -> validatorValue(runner, EchoValidator::getNoOfMissingMessages));
+        registry.sum(MetricNames.MESSAGES_DUPLICATE, runners,
+                     runner -> validatorValue(runner, EchoValidator::getNoOfDuplicateMessages));
+        registry.sum(MetricNames.MESSAGES_CORRUPTED, runners,
+                     runner -> validatorValue(runner, EchoValidator::getNoOfCorruptedMessages));
+        registry.histogram(MetricNames.ROUND_TRIP_LATENCY, runners, WebSocketClientRunner::getLatencyHistogram);
+    }
 
-            log.info("Average TPS per client: {}", (totalTPS / noOfConnections));
+    private static long validatorValue(WebSocketClientRunner runner, ToLongFunction<EchoValidator> value) {
+        EchoValidator echoValidator = runner.getEchoValidator();
+        return echoValidator != null ? value.applyAsLong(echoValidator) : 0;
+    }
+
+    /**
+     * Create the transport of a test, with a TLS context which is shared by all the connections if the URL is wss.
+     */
+    private static ClientTransport createTransport(Args args) throws URISyntaxException, SSLException {
+        if (!"wss".equalsIgnoreCase(new URI(args.getUrl()).getScheme())) {
+            return ClientTransport.create(args.getNoOfEventLoopThreads(), args.isEpoll(), null, false);
+        }
+        TlsParameters tlsParameters = args.getTlsParameters();
+        return ClientTransport.create(args.getNoOfEventLoopThreads(), args.isEpoll(),
+                                      tlsParameters.newClientContext(), tlsParameters.isSessionResumption());
+    }
+
+    /**
+     * Log the summary of a test.
+     *
+     * @param result result of the test, merged from all the workers in distributed mode.
+     */
+    public static void logResult(TestResult result) {
+        log.info("Average TPS per client: {}", result.getAverageTPSPerClient());
+
+        TimeFormatter timeFormatter = new TimeFormatter(result.getTestTimeInMillis());
+        log.info("Total time taken for the test: {}hr {}min {}sec {}ms", timeFormatter.getHours(),
+                 timeFormatter.getMinutes(), timeFormatter.getSeconds(), timeFormatter.getMilliSeconds());
+
+        log.info("Max no of concurrent connections: {}/{}", result.getMaxNoOfActiveConnections(),
+                 result.getNoOfConnections());
+
+        log.info("Connections established: {}, connect rate: {} connections/sec",
+                 result.getNoOfConnectionsEstablished(), result.getConnectRate());
+        logLatency("TCP connect time", result.getConnectTimeHistogram());
+        long noOfFullTlsHandshakes = result.getTlsHandshakeTimeHistogram().getTotalCount();
+        long noOfResumedTlsHandshakes = result.getResumedTlsHandshakeTimeHistogram().getTotalCount();
+        if (noOfFullTlsHandshakes + noOfResumedTlsHandshakes > 0) {
+            log.info("TLS handshakes: full: {}, resumed: {}", noOfFullTlsHandshakes, noOfResumedTlsHandshakes);
+        }
+        if (noOfFullTlsHandshakes > 0) {
+            logLatency("TLS handshake time (full)", result.getTlsHandshakeTimeHistogram());
+        }
+        if (noOfResumedTlsHandshakes > 0) {
+            logLatency("TLS handshake time (resumed)", result.getResumedTlsHandshakeTimeHistogram());
+        }
+        logLatency("WebSocket upgrade time", result.getUpgradeTimeHistogram());
+        log.info("Connection failures: {} {}", result.getNoOfConnectionFailures(), result.getConnectionFailures());
+        if (!result.getCloses().isEmpty()) {
+            log.info(String.format(Locale.ROOT, "Sustained connect rate: %.1f connections/sec",
+                                   result.getSustainedConnectRate()));
+            log.info("Connections closed by kind: {}, messages lost around reconnects: {}", result.getCloses(),
+                     result.getNoOfMessagesLostOnClose());
+        }
+        if (result.getNoOfRecordedMessages() > 0) {
+            log.info("Messages replayed: {} out of {}, responses matched: {}, mismatched: {}, missing: {}, " +
+                             "unexpected: {}", result.getNoOfMessagesReplayed(), result.getNoOfRecordedMessages(),
+                     result.getNoOfMatchedResponses(), result.getNoOfCorruptedMessages(),
+                     result.getNoOfMissingMessages(), result.getNoOfUnexpectedResponses());
+        }
+
+        log.info("Total no of message round trips: {}", result.getNoOfMessages());
+        if (result.getNoOfLateMessages() > 0) {
+            log.info("Late echoes (echoed after more than --validation-window newer messages were sent): {}",
+                     result.getNoOfLateMessages());
+        }
 
-            TimeFormatter timeFormatter = new TimeFormatter(testTimeInMinutes > 0 ? testTimeInMinutes * 60 * 1000 :
-                                                                    testEndTime - testStartTime);
-            log.info("Total time taken for the test: {}hr {}min {}sec {}ms", timeFormatter.getHours(),
-                     timeFormatter.getMinutes(), timeFormatter.getSeconds(), timeFormatter.getMilliSeconds());
+        log.info("No of error messages: {} out of {} (out of order: {}, missing: {}, duplicate: {}, corrupted: {})",
+                 result.getNoOfErrorMessages(), result.getNoOfMessages(), result.getNoOfOutOfOrderMessages(),
+                 result.getNoOfMissingMessages(), result.getNoOfDuplicateMessages(),
+                 result.getNoOfCorruptedMessages());
+
+        log.info("Throughput: {}", result.getThroughput());
+
+        if (result.getSteadyStateThroughput() >= 0) {
+            log.info("Steady state throughput (after warmup): {}", result.getSteadyStateThroughput());
+        }
 
-            log.info("Max no of concurrent connections: {}/{}", WebSocketClientRunner.getMaxNoOfActiveConnections(),
-                     noOfConnections);
+        if (result.getLatencyHistogram().getTotalCount() > 0) {
+            logLatency("Round trip latency", result.getLatencyHistogram());
+        }
 
-            log.info("Total no of message round trips: {}", totalNoOfMessages);
+        DeliveryMetrics deliveries = result.getDeliveryMetrics();
+        if (deliveries.getNoOfSubscribers() > 0) {
+            log.info("Fan-out deliveries: {} out of {} expected (missing: {}, out of order: {}, corrupted: {})",
+                     deliveries.getNoOfDeliveries(), deliveries.getNoOfExpectedDeliveries(),
+                     deliveries.getNoOfMissingDeliveries(), deliveries.getNoOfOutOfOrderDeliveries(),
+                     deliveries.getNoOfCorruptedDeliveries());
+            log.info(String.format(Locale.ROOT, "Complete subscribers: %d/%d, lowest completeness: %.4f",
+                                   deliveries.getNoOfCompleteSubscribers(), deliveries.getNoOfSubscribers(),
+                                   deliveries.getLowestCompleteness()));
+            logLatency("Delivery latency", result.getDeliveryLatencyHistogram());
+            logLatency("Fan-out skew (first to last subscriber)", result.getFanOutSkewHistogram());
+        }
 
-            log.info("No of error messages: {} out of {}", totalNoOfErrorMessages, totalNoOfMessages);
+        if (result.getNoOfPingsSent() > 0) {
+            log.info("Keepalive pings sent: {}, pongs received: {}", result.getNoOfPingsSent(),
+                     result.getPingRoundTripTimeHistogram().getTotalCount());
+            logLatency("Ping round trip time", result.getPingRoundTripTimeHistogram());
+        }
 
-            log.info("Throughput: {}", getThroughput(testStartTime, testEndTime, totalNoOfMessages));
+        if (result.getTrafficMetrics().getNoOfConnections() > 0) {
+            // Only the message tests count the traffic of their connections
+            logTraffic(result.getTrafficMetrics());
+        }
 
-            log.info("Done!");
+        log.info("Peak memory used by the test bench (MB): heap: {}, direct: {}",
+                 toMegabytes(result.getPeakHeapMemory()), toMegabytes(result.getPeakDirectMemory()));
+        if (result.getNoOfIdleConnections() > 0) {
+            log.info("Memory used by the test bench per idle connection (bytes): heap: {}, direct: {} " +
+                             "({} connections)", result.getHeapMemoryPerIdleConnection(),
+                     result.getDirectMemoryPerIdleConnection(), result.getNoOfIdleConnections());
         }
+
+        result.getMessageClassResults().forEach((name, classResult) -> {
+            log.info("Message class {}: connections: {}, message round trips: {}, error messages: {}", name,
+                     classResult.getNoOfConnections(), classResult.getNoOfMessages(),
+                     classResult.getNoOfErrorMessages());
+            logLatency("Message class " + name + ": Round trip latency", classResult.getLatencyHistogram());
+        });
+
+        logGenerator(result.getGeneratorMetrics());
+
+        log.info("Done!");
+    }
+
+    private static void logTraffic(TrafficMetrics traffic) {
+        log.info("Payload bytes sent: {}, received: {}", traffic.getPayloadBytesSent(),
+                 traffic.getPayloadBytesReceived());
+        log.info("Wire bytes sent: {}, received: {}", traffic.getWireBytesSent(), traffic.getWireBytesReceived());
+        log.info("Compression negotiated: {}/{} connections", traffic.getNoOfCompressedConnections(),
+                 traffic.getNoOfConnections());
+        if (traffic.getNoOfCompressedConnections() > 0) {
+            log.info(String.format(Locale.ROOT, "Compression ratio (payload/wire) sent: %.3f, received: %.3f",
+                                   traffic.getCompressionRatioSent(), traffic.getCompressionRatioReceived()));
+            log.info(String.format(Locale.ROOT, "Client compression time: %s ms (%.3f us per frame), " +
+                                           "decompression time: %s ms (%.3f us per frame)",
+                                   toMillis(traffic.getCompressionTimeInNanos()),
+                                   perFrameInMicros(traffic.getCompressionTimeInNanos(),
+                                                    traffic.getNoOfFramesCompressed()),
+                                   toMillis(traffic.getDecompressionTimeInNanos()),
+                                   perFrameInMicros(traffic.getDecompressionTimeInNanos(),
+                                                    traffic.getNoOfFramesDecompressed())));
+        }
+    }
+
+    private static void logGenerator(GeneratorMetrics generator) {
+        logLatency("Event loop lag of the test bench", generator.getEventLoopLagHistogram());
+        log.info("Peak queues of the test bench: event loop tasks: {}, bytes pending to be written: {}",
+                 generator.getMaxNoOfPendingTasks(), generator.getMaxPendingWriteBytes());
+        if (generator.getCpuUtilization() >= 0) {
+            log.info(String.format(Locale.ROOT, "CPU use of the test bench: average: %.1f%%, peak: %.1f%%",
+                                   generator.getCpuUtilization() * 100, generator.getPeakCpuUtilization() * 100));
+        }
+        log.info(String.format(Locale.ROOT, "GC pauses of the test bench: %d, total: %d ms (%.2f%% of the time), " +
+                                       "allocation rate: %s MB/sec", generator.getNoOfGcs(),
+                               generator.getGcTimeInMillis(), generator.getGcTimeFraction() * 100,
+                               toMegabytes((long) generator.getAllocationRate())));
+        if (generator.isSaturated()) {
+            log.warn("INVALID RUN: the test bench was saturated and may have measured itself instead of the " +
+                             "server: {}", String.join(", ", generator.getSaturationReasons()));
+        } else {
+            log.info("The test bench was not saturated");
+        }
+    }
+
+    private static double perFrameInMicros(long timeInNanos, long noOfFrames) {
+        return noOfFrames > 0 ? (double) timeInNanos / noOfFrames / 1000 : 0;
+    }
+
+    /**
+     * Create the random payload pool of a test. Binary bytes are used only if every message is a binary frame.
+     */
+    private static RandomPayload createRandomPayload(Args args, Scenario scenario) {
+        if (scenario == null) {
+            return new RandomPayload(args.getPayloadEntropy(), args.isBinary(), args.getPayloadInBytes());
+        }
+        boolean binary = true;
+        int maxSize = 0;
+        for (MessageClass messageClass : scenario.getMessageClasses()) {
+            binary &= messageClass.isBinary();
+            maxSize = Math.max(maxSize, messageClass.getMaxSize());
+        }
+        return new RandomPayload(args.getPayloadEntropy(), binary, maxSize);
+    }
+
+    private static void logLatency(String title, LatencyHistogram histogram) {
+        log.info("{} (ms): p50: {}, p90: {}, p99: {}, p99.9: {}, max: {}", title,
+                 toMillis(histogram.getValueAtPercentile(50)), toMillis(histogram.getValueAtPercentile(90)),
+                 toMillis(histogram.getValueAtPercentile(99)), toMillis(histogram.getValueAtPercentile(99.9)),
+                 toMillis(histogram.getMaxValue()));
+    }
+
+    private static void recordIfMeasured(LatencyHistogram histogram, long value) {
+        if (value >= 0) {
+            histogram.recordValue(value);
+        }
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.3f", (double) nanos / 1_000_000);
+    }
+
+    private static String toMegabytes(long bytes) {
+        return String.format(Locale.ROOT, "%.1f", (double) bytes / (1024 * 1024));
     }
 
     private static double calculateTPS(int noOfMessages, WebSocketClientRunner webSocketClientRunner) {
@@ -0,0 +1,41 @@
+package org.irunika.websocket.test.bench;
+
+import io.netty.handler.ssl.ReferenceCountedOpenSslEngine;
+import io.netty.handler.ssl.SslHandler;
+
+/**
+ * Helpers for the TLS sessions of client connections.
+ *
+ * @author irunika
+ */
+public final class TlsSessions {
+
+    private TlsSessions() {
+    }
+
+    /**
+     * Check whether a completed handshake resumed an earlier session. A resumed session was created before the
+     * handshake started, while a full handshake creates a new session. The OpenSSL client engine of this Netty
+     * version does not resume sessions, and the creation time of its sessions is rounded to seconds, so its
+     * handshakes are always full handshakes.
+     *
+     * @param sslHandler handler of the connection.
+     * @param handshakeStartTimeInMillis {@link System#currentTimeMillis()} when the handshake was started.
+     * @return true if the session was resumed.
+     */
+    public static boolean isResumed(SslHandler sslHandler, long handshakeStartTimeInMillis) {
+        if (sslHandler.engine() instanceof ReferenceCountedOpenSslEngine) {
+            return false;
+        }
+        return sslHandler.engine().getSession().getCreationTime() < handshakeStartTimeInMillis;
+    }
+
+    /**
+     * Prevent the session of a connection from being resumed by later connections.
+     *
+     * @param sslHandler handler of the connection.
+     */
+    public static void invalidate(SslHandler sslHandler) {
+        sslHandler.engine().getSession().invalidate();
+    }
+}
@@ -1,31 +1,40 @@
 package org.irunika.websocket.test.bench;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpClientCodec;
 import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
 import io.netty.handler.codec.http.websocketx.WebSocketVersion;
-import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketClientCompressionHandler;
 import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslContextBuilder;
-import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.util.concurrent.Future;
+import org.irunika.websocket.test.bench.config.Args;
+import org.irunika.websocket.test.bench.config.DeflateParameters;
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.irunika.websocket.test.bench.metrics.TrafficMetrics;
+import org.irunika.websocket.test.bench.scenario.MessageClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.SSLException;
 
 /**
@@ -37,24 +46,105 @@ import javax.net.ssl.SSLException;
 public class WebSocketClient {
 
     private static final Logger log = LoggerFactory.getLogger(WebSocketClient.class);
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
 
     private final int clientId;
     private final int expectedNoOfMessages;
     private final String url;
-    private final Queue<String> messageQueue;
     private final CountDownLatch countDownLatch;
+    private final ClientTransport transport;
+    private final ConnectionMetrics connectionMetrics;
+    private final MeasurementWindow measurementWindow;
+    private final Semaphore inFlightPermits;
+    private final int flushBatchSize;
+    private final String initialPayload;
+    private final PayloadTemplate payloadTemplate;
+    private final int bodyLength;
+    private final int bodyChecksum;
+    private final int validationWindow;
+    private final MessageClass messageClass;
+    private final long messageDelayInNanos;
+    private final DeflateParameters deflateParameters;
+    private final int fragmentSize;
+    private final FanOut fanOut;
+    private final long messageIdPrefix;
+    private final FanOutSkew fanOutSkew;
+    private final TrafficMetrics trafficMetrics = new TrafficMetrics();
+    private int sizeIndex;
+    private int thinkTimeIndex;
+    private int noOfUnflushedMessages;
     private Channel channel;
-    private WebSocketClientHandler handler;
+    private volatile WebSocketClientHandler handler;
 
-    public WebSocketClient(int clientId, int expectedNoOfMessages, String url, CountDownLatch countDownLatch) {
+    /**
+     * @param clientId id of the client.
+     * @param args test configuration.
+     * @param initialPayload payload of text messages, which follows the message header.
+     * @param payloadTemplate template for zero copy messages, null if text messages should be created from
+     *                        the initial payload.
+     * @param messageClass scenario message class which gives the size of each message and the think times,
+     *                     null to send the whole payload template or initial payload with a fixed delay.
+     * @param countDownLatch latch which is counted down when the connection is closed.
+     * @param transport shared transport.
+     * @param connectionMetrics shared connection metrics.
+     * @param measurementWindow steady state window of the test.
+     * @param fanOut shared state of a fan-out test, null for an echo test.
+     */
+    public WebSocketClient(int clientId, Args args, String initialPayload, PayloadTemplate payloadTemplate,
+                           MessageClass messageClass, CountDownLatch countDownLatch, ClientTransport transport,
+                           ConnectionMetrics connectionMetrics, MeasurementWindow measurementWindow,
+                           FanOut fanOut) {
         this.clientId = clientId;
-        this.expectedNoOfMessages = expectedNoOfMessages;
-        this.url = url;
+        this.transport = transport;
+        this.connectionMetrics = connectionMetrics;
+        this.measurementWindow = measurementWindow;
+        this.inFlightPermits = args.getMaxInFlightMessages() > 0 ? new Semaphore(args.getMaxInFlightMessages()) : null;
+        this.flushBatchSize = args.getFlushBatchSize() > 0 ? args.getFlushBatchSize() : 1;
+        this.fanOut = fanOut;
+        boolean publisher = fanOut != null && fanOut.isPublisher(clientId);
+        // Subscribers receive messages until they are stopped
+        this.expectedNoOfMessages = fanOut != null && !publisher ? -1 : args.getNoOfMessagesPerConnection();
+        this.messageIdPrefix = publisher ? FanOut.messageIdPrefix(clientId) : 0;
+        this.fanOutSkew = publisher ? fanOut.getSkew(clientId) : null;
+        this.url = args.getUrl();
+        this.initialPayload = initialPayload;
+        this.payloadTemplate = payloadTemplate;
         this.countDownLatch = countDownLatch;
-        this.messageQueue = new ConcurrentLinkedQueue<>();
+        this.validationWindow = Math.max(args.getValidationWindow(), args.getMaxInFlightMessages());
+        this.messageClass = messageClass;
+        this.messageDelayInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(args.getMessageDelay(), 0));
+        this.deflateParameters = args.getDeflateParameters();
+        this.fragmentSize = args.getFragmentSize();
+        // Start each connection at a different point of the sampling tables
+        this.sizeIndex = clientId * 61;
+        this.thinkTimeIndex = clientId * 61;
+        if (payloadTemplate != null) {
+            this.bodyLength = payloadTemplate.getBodyLength();
+            this.bodyChecksum = payloadTemplate.getBodyChecksum();
+        } else {
+            byte[] body = initialPayload.getBytes(StandardCharsets.UTF_8);
+            this.bodyLength = body.length;
+            this.bodyChecksum = Checksums.checksum(Unpooled.wrappedBuffer(body));
+        }
     }
 
+    /**
+     * Connect to the server and wait until the WebSocket handshake is completed.
+     * Failures are recorded in the connection metrics and their cause is thrown. Once the connection attempt is
+     * started the latch is counted down when it fails or when the channel is closed.
+     */
     public void init() throws URISyntaxException, SSLException, InterruptedException {
+        sync(connect());
+    }
+
+    /**
+     * Start connecting to the server without waiting for the connection.
+     * If the TCP connection cannot be established the failure is recorded and the latch is counted down. Failures
+     * after that close the channel, which counts down the latch.
+     *
+     * @return future which is completed when the WebSocket handshake is completed or has failed.
+     */
+    public ChannelFuture connect() throws URISyntaxException, SSLException {
         URI uri = new URI(url);
         String scheme = uri.getScheme() == null? "ws" : uri.getScheme();
         final String host = uri.getHost() == null? "127.0.0.1" : uri.getHost();
@@ -73,58 +163,319 @@ public class WebSocketClient {
 
         if (!"ws".equalsIgnoreCase(scheme) && !"wss".equalsIgnoreCase(scheme)) {
             log.error("Only WS(S) is supported.");
-            return;
+            throw new URISyntaxException(url, "Only WS(S) is supported");
         }
 
         final boolean ssl = "wss".equalsIgnoreCase(scheme);
-        final SslContext sslCtx;
-        if (ssl) {
-            sslCtx = SslContextBuilder.forClient()
-                    .trustManager(InsecureTrustManagerFactory.INSTANCE).build();
-        } else {
-            sslCtx = null;
+        final SslContext sslCtx = ssl ? transport.getSslContext() : null;
+        if (ssl && sslCtx == null) {
+            throw new SSLException("TLS is not configured for " + url);
         }
 
-        EventLoopGroup group = new NioEventLoopGroup();
         handler = new WebSocketClientHandler(clientId, expectedNoOfMessages, WebSocketClientHandshakerFactory.newHandshaker(
-                uri,WebSocketVersion.V13, null, true, new DefaultHttpHeaders()), messageQueue, group, countDownLatch);
+                uri,WebSocketVersion.V13, null, true, new DefaultHttpHeaders(), MAX_FRAME_SIZE), new EchoValidator(validationWindow),
+                inFlightPermits, countDownLatch, connectionMetrics, measurementWindow, trafficMetrics,
+                transport.isSessionResumption());
+        if (fanOutSkew != null) {
+            handler.setPublisherId(clientId);
+        } else if (fanOut != null) {
+            handler.setDeliveryTracker(new DeliveryTracker(fanOut));
+        }
 
         Bootstrap b = new Bootstrap();
-        b.group(group).channel(NioSocketChannel.class).handler(new ChannelInitializer<SocketChannel>() {
+        b.group(transport.getEventLoopGroup()).channel(transport.getChannelClass()).handler(new ChannelInitializer<SocketChannel>() {
             @Override
             protected void initChannel(SocketChannel ch) {
                 ChannelPipeline p = ch.pipeline();
+                transport.track(ch);
                 if (sslCtx != null) {
                     p.addLast(sslCtx.newHandler(ch.alloc(), host, port));
                 }
-                p.addLast(new HttpClientCodec(), new HttpObjectAggregator(8192),
-                          WebSocketClientCompressionHandler.INSTANCE, handler);
+                DeflateTimer deflateTimer = new DeflateTimer(trafficMetrics);
+                p.addLast(new WireByteCounter(trafficMetrics), new HttpClientCodec(), new HttpObjectAggregator(8192),
+                          deflateTimer.compressedSide());
+                if (deflateParameters != null) {
+                    p.addLast(deflateParameters.newClientHandler());
+                }
+                p.addLast(deflateTimer.uncompressedSide(), handler);
             }
         });
 
-        channel = b.connect(uri.getHost(), port).sync().channel();
-        handler.handshakeFuture().sync();
-        WebSocketClientRunner.addConnection();
+        handler.setConnectStartTime(System.nanoTime());
+        ChannelFuture connectFuture = b.connect(uri.getHost(), port);
+        channel = connectFuture.channel();
+        ChannelPromise handshakePromise = channel.newPromise();
+        connectFuture.addListener(future -> {
+            if (!future.isSuccess()) {
+                connectionMetrics.recordFailure("connect", future.cause());
+                // The handler is never activated, so it does not count down the latch
+                countDownLatch.countDown();
+                handshakePromise.setFailure(future.cause());
+                return;
+            }
+            if (payloadTemplate != null) {
+                channel.closeFuture().addListener(closeFuture -> payloadTemplate.release());
+            }
+            handler.handshakeFuture().addListener(handshakeFuture -> {
+                if (handshakeFuture.isSuccess()) {
+                    handshakePromise.setSuccess();
+                } else {
+                    handshakePromise.setFailure(handshakeFuture.cause());
+                }
+            });
+        });
+        return handshakePromise;
+    }
+
+    /**
+     * Wait for a future like {@link Future#sync()}, but on a {@link CountDownLatch}. Netty futures wait on their
+     * monitor, which pins a virtual thread to its carrier thread for the whole wait.
+     *
+     * @param future future to wait for.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static void sync(Future<?> future) throws InterruptedException {
+        if (!future.isDone()) {
+            CountDownLatch done = new CountDownLatch(1);
+            future.addListener(completedFuture -> done.countDown());
+            done.await();
+        }
+        // Rethrow the cause of the failure
+        future.sync();
+    }
+
+    /**
+     * Send a message to the server.
+     * The message is built and written on the event loop of the channel, which owns the validation state.
+     * If an in-flight window is configured this does not wait for the write to complete. Instead it blocks only
+     * when the window is full, until the handler receives an echo and releases a permit. Writes are flushed once
+     * every flush batch and whenever the window is full.
+     *
+     * @param messageId id of the message.
+     * @throws InterruptedException if interrupted while waiting for the write or for the window.
+     */
+    public void sendMessage(int messageId) throws InterruptedException {
+        if (inFlightPermits == null) {
+            long sendTime = System.nanoTime();
+            ChannelPromise promise = channel.newPromise();
+            channel.eventLoop().execute(() -> {
+                writeMessage(messageId, sendTime, promise);
+                channel.flush();
+            });
+            sync(promise);
+            return;
+        }
+
+        if (!inFlightPermits.tryAcquire()) {
+            flush();
+            inFlightPermits.acquire();
+        }
+        if (!channel.isActive()) {
+            return;
+        }
+        long sendTime = System.nanoTime();
+        channel.eventLoop().execute(() -> writeMessage(messageId, sendTime, channel.voidPromise()));
+        if (++noOfUnflushedMessages >= flushBatchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Write and flush a message without waiting for the write. Should be called from the event loop of the channel.
+     *
+     * @param messageId id of the message.
+     * @param sendTime {@link System#nanoTime()} from which the round trip latency is measured.
+     * @return future which is completed when the message is written.
+     */
+    public ChannelFuture writeAndFlushMessage(int messageId, long sendTime) {
+        ChannelPromise promise = channel.newPromise();
+        writeMessage(messageId, sendTime, promise);
+        channel.flush();
+        return promise;
+    }
+
+    /**
+     * Write a message without flushing it or waiting for the write.
+     * This ignores the in-flight window and should be called from the event loop of the channel.
+     *
+     * @param messageId id of the message.
+     * @param sendTime {@link System#nanoTime()} from which the round trip latency is measured.
+     */
+    public void writeMessage(int messageId, long sendTime) {
+        writeMessage(messageId, sendTime, channel.voidPromise());
+        noOfUnflushedMessages++;
+    }
+
+    private void writeMessage(int sequence, long sendTime, ChannelPromise promise) {
+        long messageId = messageIdPrefix | sequence;
+        if (fanOutSkew != null) {
+            fanOutSkew.publish(sequence, sendTime);
+        }
+        WebSocketFrame frame;
+        if (messageClass != null) {
+            int sample = sizeIndex++;
+            int size = messageClass.getSize(sample);
+            frame = payloadTemplate.newFrame(messageId, sendTime, size);
+            handler.expectEcho(messageId, sendTime, size, payloadTemplate.isRandom() ?
+                    payloadTemplate.getLastBodyChecksum() : messageClass.getChecksum(sample));
+            write(frame, promise);
+            return;
+        }
+        int checksum = bodyChecksum;
+        if (payloadTemplate != null) {
+            frame = payloadTemplate.newFrame(messageId, sendTime);
+            if (payloadTemplate.isRandom()) {
+                checksum = payloadTemplate.getLastBodyChecksum();
+            }
+        } else {
+            frame = new TextWebSocketFrame(String.format("%016x%016x%s", messageId, sendTime, initialPayload));
+        }
+        handler.expectEcho(messageId, sendTime, bodyLength, checksum);
+        write(frame, promise);
+    }
+
+    /**
+     * Write a frame, split into fragments if it is larger than the fragment size. Each fragment is a retained
+     * slice of the content of the frame, so the message is not copied.
+     *
+     * @param frame frame to be written.
+     * @param promise promise which is completed when the final fragment is written.
+     */
+    private void write(WebSocketFrame frame, ChannelPromise promise) {
+        ByteBuf content = frame.content();
+        int length = content.readableBytes();
+        if (fragmentSize <= 0 || length <= fragmentSize) {
+            channel.write(frame, promise);
+            return;
+        }
+        int index = content.readerIndex();
+        ByteBuf firstFragment = content.retainedSlice(index, fragmentSize);
+        channel.write(frame instanceof BinaryWebSocketFrame ? new BinaryWebSocketFrame(false, 0, firstFragment) :
+                              new TextWebSocketFrame(false, 0, firstFragment), channel.voidPromise());
+        for (int offset = fragmentSize; offset < length; offset += fragmentSize) {
+            int fragmentLength = Math.min(fragmentSize, length - offset);
+            boolean finalFragment = offset + fragmentLength == length;
+            channel.write(new ContinuationWebSocketFrame(finalFragment, 0,
+                                                         content.retainedSlice(index + offset, fragmentLength)),
+                          finalFragment ? promise : channel.voidPromise());
+        }
+        frame.release();
+    }
+
+    /**
+     * Get the time to wait before sending the next message in a closed loop.
+     * Should be called only from the thread which sends the messages.
+     *
+     * @return the next think time of the message class, or the fixed message delay, in nanoseconds.
+     */
+    public long nextThinkTimeInNanos() {
+        return messageClass != null ? messageClass.getThinkTime(thinkTimeIndex++) : messageDelayInNanos;
+    }
+
+    public void flush() {
+        if (noOfUnflushedMessages > 0) {
+            noOfUnflushedMessages = 0;
+            channel.flush();
+        }
+    }
+
+    /**
+     * @return true if a flush batch worth of messages is written but not flushed.
+     */
+    public boolean isFlushBatchFull() {
+        return noOfUnflushedMessages >= flushBatchSize;
+    }
+
+    /**
+     * Byte and compression counters of the connection.
+     * They are updated by the event loop of the channel and should be read after the channel is closed.
+     */
+    public TrafficMetrics getTrafficMetrics() {
+        return trafficMetrics;
+    }
+
+    public LatencyHistogram getLatencyHistogram() {
+        return handler != null ? handler.getLatencyHistogram() : null;
+    }
+
+    /**
+     * @return true if a connection attempt was started, in which case the latch is counted down when the attempt
+     * fails or when the channel is closed.
+     */
+    public boolean isConnectStarted() {
+        return channel != null;
+    }
+
+    /**
+     * @return in-flight window of the connection, null if each write is awaited.
+     */
+    public Semaphore getInFlightPermits() {
+        return inFlightPermits;
     }
 
-    public void sendText(String text) throws InterruptedException {
-        messageQueue.add(text);
-        channel.writeAndFlush(new TextWebSocketFrame(text)).sync();
+    /**
+     * Set a listener which is called on the event loop after each echo is received.
+     */
+    public void setEchoListener(Runnable echoListener) {
+        handler.setEchoListener(echoListener);
+    }
+
+    public long getConnectTime() {
+        return handler != null ? handler.getConnectTime() : -1;
+    }
+
+    public long getTlsHandshakeTime() {
+        return handler != null ? handler.getTlsHandshakeTime() : -1;
+    }
+
+    public boolean isTlsSessionResumed() {
+        return handler != null && handler.isTlsSessionResumed();
+    }
+
+    public long getUpgradeTime() {
+        return handler != null ? handler.getUpgradeTime() : -1;
+    }
+
+    public long getNoOfMeasuredMessages() {
+        return handler != null ? handler.getNoOfMeasuredMessages() : 0;
+    }
+
+    public EventLoop eventLoop() {
+        return channel.eventLoop();
+    }
+
+    public boolean isActive() {
+        return channel.isActive();
     }
 
     public long getEndTime() {
         return handler.getEndTime();
     }
 
-    public int getNoOfErrorMessages() {
+    public long getNoOfErrorMessages() {
         return handler.getNoOfErrorMessages();
     }
 
-    public int getNoOfMessagesReceived() {
-        return handler.getNoOfMessagesReceived();
+    /**
+     * @return validator of the echoes, null if the connection is not initialized yet.
+     */
+    public EchoValidator getEchoValidator() {
+        return handler != null ? handler.getEchoValidator() : null;
+    }
+
+    /**
+     * @return tracker of the messages delivered to a subscriber of a fan-out test, null for other connections.
+     */
+    public DeliveryTracker getDeliveryTracker() {
+        return handler != null ? handler.getDeliveryTracker() : null;
+    }
+
+    public long getNoOfMessagesReceived() {
+        return handler != null ? handler.getNoOfMessagesReceived() : 0;
     }
 
     public void stop() {
+        flush();
         handler.setStopReceivingMessages();
     }
 }
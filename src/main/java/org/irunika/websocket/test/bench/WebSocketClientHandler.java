@@ -1,25 +1,32 @@
 package org.irunika.websocket.test.bench;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
-import io.netty.channel.EventLoopGroup;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.util.CharsetUtil;
+import org.irunika.websocket.test.bench.metrics.Counter;
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.irunika.websocket.test.bench.metrics.TrafficMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Queue;
+import java.nio.channels.ClosedChannelException;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Client handler for WebSocket frames.
@@ -30,28 +37,58 @@ public class WebSocketClientHandler extends ChannelInboundHandlerAdapter {
 
     private static final Logger log = LoggerFactory.getLogger(WebSocketClientHandler.class);
 
+    /**
+     * Time to wait for the close frame of the server, which follows the echoes of the messages in flight, before
+     * the socket is closed.
+     */
+    private static final long CLOSE_TIMEOUT_IN_MILLIS = 5000;
+
     private final int clientId;
     private final WebSocketClientHandshaker handshaker;
-    private final Queue<String> messageQueue;
-    private final EventLoopGroup eventLoopGroup;
+    private final EchoValidator echoValidator;
+    private final Semaphore inFlightPermits;
     private final CountDownLatch countDownLatch;
+    private final ConnectionMetrics connectionMetrics;
+    private final MeasurementWindow measurementWindow;
+    private final TrafficMetrics trafficMetrics;
     private ChannelPromise handshakeFuture;
-    private final AtomicInteger noOfMessagesReceived;
-    private final AtomicInteger noOfErrorMessagesAtomicInteger;
+    private final Counter noOfMessagesReceived;
+    private final LatencyHistogram latencyHistogram;
     private long endTime;
+    private long connectStartTime;
+    private long connectTime = -1;
+    private long tlsHandshakeTime = -1;
+    private boolean tlsSessionResumed;
+    private final boolean tlsSessionResumption;
+    private long upgradeStartTime;
+    private boolean upgradeStarted = false;
+    private long upgradeTime = -1;
+    private long noOfMeasuredMessages;
+    private boolean connectionCounted = false;
     private int expectedNoOfMessages;
     private ChannelHandlerContext ctx;
+    private boolean closing;
+    private Runnable echoListener;
+    private DeliveryTracker deliveryTracker;
+    private int publisherId = -1;
 
     public WebSocketClientHandler(int clientId, int expectedNoOfMessages, WebSocketClientHandshaker handshaker,
-                                  Queue<String> messageQueue, EventLoopGroup eventLoopGroup, CountDownLatch countDownLatch) {
+                                  EchoValidator echoValidator, Semaphore inFlightPermits,
+                                  CountDownLatch countDownLatch, ConnectionMetrics connectionMetrics,
+                                  MeasurementWindow measurementWindow, TrafficMetrics trafficMetrics,
+                                  boolean tlsSessionResumption) {
         this.clientId = clientId;
         this.expectedNoOfMessages = expectedNoOfMessages;
         this.handshaker = handshaker;
-        this.messageQueue = messageQueue;
-        this.eventLoopGroup = eventLoopGroup;
+        this.echoValidator = echoValidator;
+        this.inFlightPermits = inFlightPermits;
         this.countDownLatch = countDownLatch;
-        this.noOfMessagesReceived = new AtomicInteger();
-        this.noOfErrorMessagesAtomicInteger = new AtomicInteger();
+        this.connectionMetrics = connectionMetrics;
+        this.measurementWindow = measurementWindow;
+        this.trafficMetrics = trafficMetrics;
+        this.tlsSessionResumption = tlsSessionResumption;
+        this.noOfMessagesReceived = new Counter();
+        this.latencyHistogram = new LatencyHistogram();
     }
 
     public ChannelFuture handshakeFuture() {
@@ -64,8 +101,46 @@ public class WebSocketClientHandler extends ChannelInboundHandlerAdapter {
         handshakeFuture = ctx.newPromise();
     }
 
+    /**
+     * @param connectStartTime {@link System#nanoTime()} when the TCP connection was initiated.
+     */
+    public void setConnectStartTime(long connectStartTime) {
+        this.connectStartTime = connectStartTime;
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) {
+        if (deliveryTracker != null) {
+            deliveryTracker.setEventLoop(ctx.channel().eventLoop());
+        }
+        long tlsStartTime = System.nanoTime();
+        long tlsStartTimeInMillis = System.currentTimeMillis();
+        connectTime = tlsStartTime - connectStartTime;
+        SslHandler sslHandler = ctx.pipeline().get(SslHandler.class);
+        if (sslHandler == null) {
+            startUpgrade(ctx);
+            return;
+        }
+
+        // Start the upgrade only after TLS, so that TLS and upgrade times are measured separately
+        sslHandler.handshakeFuture().addListener(future -> {
+            if (future.isSuccess()) {
+                tlsHandshakeTime = System.nanoTime() - tlsStartTime;
+                tlsSessionResumed = TlsSessions.isResumed(sslHandler, tlsStartTimeInMillis);
+                if (!tlsSessionResumption) {
+                    TlsSessions.invalidate(sslHandler);
+                }
+                startUpgrade(ctx);
+            } else if (!handshakeFuture.isDone()) {
+                connectionMetrics.recordFailure("tls", future.cause());
+                handshakeFuture.setFailure(future.cause());
+            }
+        });
+    }
+
+    private void startUpgrade(ChannelHandlerContext ctx) {
+        upgradeStartTime = System.nanoTime();
+        upgradeStarted = true;
         handshaker.handshake(ctx.channel());
     }
 
@@ -73,24 +148,77 @@ public class WebSocketClientHandler extends ChannelInboundHandlerAdapter {
     public void channelInactive(ChannelHandlerContext ctx) {
         endTime = System.currentTimeMillis();
         logMessage("WebSocket Client disconnected!");
-        eventLoopGroup.shutdownGracefully().addListener(future -> {
-            WebSocketClientRunner.removeConnection();
-            countDownLatch.countDown();
-        });
+        if (!handshakeFuture.isDone()) {
+            failHandshake(new ClosedChannelException());
+        }
+        echoValidator.finish();
+        if (inFlightPermits != null) {
+            // Unblock the sender if it is waiting on a window which will never be drained.
+            inFlightPermits.release();
+        }
+        if (connectionCounted) {
+            connectionMetrics.recordConnectionClosed();
+        }
+        countDownLatch.countDown();
     }
 
     public long getEndTime() {
         return endTime;
     }
 
+    /**
+     * @return time taken to establish the TCP connection in nanoseconds, -1 if not connected.
+     */
+    public long getConnectTime() {
+        return connectTime;
+    }
+
+    /**
+     * @return time taken for the TLS handshake in nanoseconds, -1 if TLS is not used or not completed.
+     */
+    public long getTlsHandshakeTime() {
+        return tlsHandshakeTime;
+    }
+
+    /**
+     * @return true if the TLS handshake resumed the session of an earlier connection.
+     */
+    public boolean isTlsSessionResumed() {
+        return tlsSessionResumed;
+    }
+
+    /**
+     * @return time from sending the WebSocket upgrade request until the handshake is finished in nanoseconds,
+     * -1 if not completed.
+     */
+    public long getUpgradeTime() {
+        return upgradeTime;
+    }
+
+    /**
+     * @return no of echoes of messages which were sent within the measurement window.
+     */
+    public long getNoOfMeasuredMessages() {
+        return noOfMeasuredMessages;
+    }
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
         Channel ch = ctx.channel();
         if (!handshaker.isHandshakeComplete()) {
-            handshaker.finishHandshake(ch, (FullHttpResponse) msg);
+            try {
+                handshaker.finishHandshake(ch, (FullHttpResponse) msg);
+                // Compression is the only extension which is offered
+                trafficMetrics.recordUpgrade(
+                        ((FullHttpResponse) msg).headers().contains(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS));
+            } finally {
+                ((FullHttpResponse) msg).release();
+            }
+            upgradeTime = System.nanoTime() - upgradeStartTime;
             logMessage("WebSocket Client connected!");
+            connectionCounted = true;
+            connectionMetrics.recordConnectionEstablished();
             handshakeFuture.setSuccess();
-            ((FullHttpResponse) msg).release();
             return;
         }
 
@@ -103,18 +231,22 @@ public class WebSocketClientHandler extends ChannelInboundHandlerAdapter {
 
         WebSocketFrame frame = (WebSocketFrame) msg;
         try {
-            if (frame instanceof TextWebSocketFrame) {
-                TextWebSocketFrame textFrame = (TextWebSocketFrame) frame;
-                String expected = messageQueue.remove();
-                String actual = textFrame.text();
-                if (!expected.equals(actual)) {
-                    noOfErrorMessagesAtomicInteger.incrementAndGet();
-                    logMessage(String.format("Error receiving message expected: %s, actual: %s", expected, actual));
+            if (frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame) {
+                if (deliveryTracker != null) {
+                    deliveryReceived(frame.content());
+                } else if (isOtherPublisher(frame.content())) {
+                    // Publishers of a fan-out test do not track the messages of the other publishers
+                    return;
+                } else if (frame.isFinalFragment()) {
+                    echoReceived(ctx, echoValidator.validate(frame.content()));
+                } else {
+                    echoValidator.startFragments();
+                    echoValidator.updateFragment(frame.content());
                 }
-
-                if (expectedNoOfMessages == noOfMessagesReceived.incrementAndGet()) {
-                    ctx.writeAndFlush(new CloseWebSocketFrame(1000, "Going away")).addListener(
-                            ChannelFutureListener.CLOSE);
+            } else if (frame instanceof ContinuationWebSocketFrame) {
+                echoValidator.updateFragment(frame.content());
+                if (frame.isFinalFragment()) {
+                    echoReceived(ctx, echoValidator.finishFragments());
                 }
             } else if (frame instanceof PongWebSocketFrame) {
                 logMessage("WebSocket Client received pong");
@@ -127,32 +259,160 @@ public class WebSocketClientHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * Account for a complete echo. The latency of a fragmented message is measured until its final fragment. An
+     * echo which was not matched to a sent message, eg: a duplicate, is only counted as an error by the validator,
+     * so it neither frees an in flight permit nor counts towards the expected no of messages.
+     *
+     * @param matched true if the echo was matched to a sent message.
+     */
+    private void echoReceived(ChannelHandlerContext ctx, boolean matched) {
+        if (!matched) {
+            return;
+        }
+        if (measurementWindow.contains(echoValidator.getLastSendTime())) {
+            latencyHistogram.recordValue(System.nanoTime() - echoValidator.getLastSendTime());
+            noOfMeasuredMessages++;
+        }
+        if (inFlightPermits != null) {
+            inFlightPermits.release();
+        }
+        if (echoListener != null) {
+            echoListener.run();
+        }
+
+        if (expectedNoOfMessages == noOfMessagesReceived.increment()) {
+            close();
+        }
+    }
+
+    /**
+     * Start the closing handshake. The socket is closed once the close frame of the server is received, so the
+     * echoes of the messages still in flight are received before it and are not counted as missing, or after
+     * {@link #CLOSE_TIMEOUT_IN_MILLIS}.
+     */
+    private void close() {
+        if (closing) {
+            return;
+        }
+        closing = true;
+        ctx.writeAndFlush(new CloseWebSocketFrame(1000, "Going away"));
+        ctx.executor().schedule((Runnable) ctx::close, CLOSE_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Account for a message delivered to a subscriber of a fan-out test. The latency is measured from the send
+     * time of the publisher, if it runs in this process.
+     */
+    private void deliveryReceived(ByteBuf content) {
+        long receiveTime = System.nanoTime();
+        if (deliveryTracker.deliver(content, receiveTime) &&
+                measurementWindow.contains(deliveryTracker.getLastSendTime())) {
+            latencyHistogram.recordValue(receiveTime - deliveryTracker.getLastSendTime());
+            noOfMeasuredMessages++;
+        }
+        noOfMessagesReceived.increment();
+    }
+
+    /**
+     * @return true if this is a publisher of a fan-out test and the message was published by another one.
+     */
+    private boolean isOtherPublisher(ByteBuf content) {
+        if (publisherId < 0) {
+            return false;
+        }
+        long messageId = PayloadTemplate.readMessageId(content);
+        return messageId >= 0 && FanOut.publisherOf(messageId) != publisherId;
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         log.error("Error", cause);
         if (!handshakeFuture.isDone()) {
-            handshakeFuture.setFailure(cause);
+            failHandshake(cause);
         }
         log.info("exception caught: {}", cause.getMessage());
         ctx.close();
     }
 
+    private void failHandshake(Throwable cause) {
+        connectionMetrics.recordFailure(upgradeStarted ? "upgrade" : "tls", cause);
+        handshakeFuture.setFailure(cause);
+    }
+
     private void logMessage(String msg) {
         log.info("Client {}: {}", clientId, msg);
     }
 
-    public int getNoOfErrorMessages() {
-        return noOfErrorMessagesAtomicInteger.get();
+    /**
+     * Expect the echo of a message which is about to be written. Called from the event loop of the channel.
+     *
+     * @param messageId id of the message.
+     * @param sendTime {@link System#nanoTime()} from which the round trip latency is measured.
+     * @param bodyLength length of the payload, excluding the header.
+     * @param bodyChecksum CRC32 of the payload, excluding the header.
+     */
+    public void expectEcho(long messageId, long sendTime, int bodyLength, int bodyChecksum) {
+        echoValidator.register(messageId, sendTime, bodyLength, bodyChecksum);
+    }
+
+    /**
+     * @param echoListener listener which is called on the event loop after each echo is received.
+     */
+    public void setEchoListener(Runnable echoListener) {
+        this.echoListener = echoListener;
+    }
+
+    /**
+     * Make this the handler of a subscriber of a fan-out test, which tracks the delivered messages instead of
+     * echoes.
+     */
+    public void setDeliveryTracker(DeliveryTracker deliveryTracker) {
+        this.deliveryTracker = deliveryTracker;
+    }
+
+    /**
+     * @return tracker of the messages delivered to a subscriber of a fan-out test, null for other connections.
+     */
+    public DeliveryTracker getDeliveryTracker() {
+        return deliveryTracker;
+    }
+
+    /**
+     * Make this the handler of a publisher of a fan-out test, which ignores the messages of the other publishers.
+     */
+    public void setPublisherId(int publisherId) {
+        this.publisherId = publisherId;
+    }
+
+    public long getNoOfErrorMessages() {
+        return echoValidator.getNoOfErrors();
+    }
+
+    /**
+     * Validator of the echoes received by this handler.
+     * It is updated by the event loop of the channel and should be read after the channel is closed.
+     */
+    public EchoValidator getEchoValidator() {
+        return echoValidator;
+    }
+
+    /**
+     * Round trip latency histogram of the messages received by this handler, or the delivery latency histogram
+     * of a subscriber of a fan-out test.
+     * It is updated by the event loop of the channel and should be read after the channel is closed.
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
     }
 
-    public int getNoOfMessagesReceived() {
+    public long getNoOfMessagesReceived() {
         return noOfMessagesReceived.get();
     }
 
     public void setStopReceivingMessages() {
         if (expectedNoOfMessages == -1) {
-            ctx.writeAndFlush(new CloseWebSocketFrame(1000, "Going away")).addListener(
-                    ChannelFutureListener.CLOSE);
+            ctx.executor().execute(this::close);
         }
     }
 }
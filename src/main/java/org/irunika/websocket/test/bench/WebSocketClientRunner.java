@@ -1,12 +1,14 @@
 package org.irunika.websocket.test.bench;
 
+import io.netty.buffer.PooledByteBufAllocator;
+import org.irunika.websocket.test.bench.config.Args;
+import org.irunika.websocket.test.bench.metrics.LatencyHistogram;
+import org.irunika.websocket.test.bench.scenario.MessageClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URISyntaxException;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicInteger;
-import javax.net.ssl.SSLException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Runner for WebSocket client.
@@ -19,63 +21,170 @@ public class WebSocketClientRunner implements Runnable {
 
     private final int clientId;
     private final int noOfMessages;
-    private final long messageDelay;
+    private final MessageClass messageClass;
     private final WebSocketClient webSocketClient;
+    private final ConstantRateSender constantRateSender;
+    private volatile EventLoopSender eventLoopSender;
+    private final CountDownLatch countDownLatch;
+    private final FanOut fanOut;
+    private final boolean subscriber;
     private long startTime;
     private String initialPayload;
-    private boolean stopSendingMessages = false;
+    private volatile boolean stopSendingMessages = false;
 
-    private static AtomicInteger noOfActiveConnections = new AtomicInteger();
-    private static AtomicInteger maxNoOfActiveConnection = new AtomicInteger();
-
-    public WebSocketClientRunner(int clientId, String url, int noOfMessages, int payloadSize, long messageDelay,
-                                 CountDownLatch countDownLatch) {
+    /**
+     * @param clientId id of the client.
+     * @param args test configuration.
+     * @param messageClass scenario message class sent by the client, null to send messages as configured by args.
+     * @param randomPayload shared pool of random payload bytes, null for a constant payload.
+     * @param countDownLatch latch which is counted down when the connection is closed.
+     * @param transport shared transport.
+     * @param connectionMetrics shared connection metrics.
+     * @param measurementWindow steady state window of the test.
+     * @param fanOut shared state of a fan-out test, null for an echo test.
+     */
+    public WebSocketClientRunner(int clientId, Args args, MessageClass messageClass, RandomPayload randomPayload,
+                                 CountDownLatch countDownLatch, ClientTransport transport,
+                                 ConnectionMetrics connectionMetrics, MeasurementWindow measurementWindow,
+                                 FanOut fanOut) {
         this.clientId = clientId;
-        this.noOfMessages = noOfMessages;
-        this.messageDelay = messageDelay >= 0 ? messageDelay : 0;
-        this.webSocketClient = new WebSocketClient(clientId, noOfMessages, url, countDownLatch);
-        this.initialPayload = createPayload(payloadSize);
-    }
-
-    public static synchronized void addConnection() {
-        int currentNoOfConnections = noOfActiveConnections.incrementAndGet();
-        if (currentNoOfConnections > maxNoOfActiveConnection.get()) {
-            maxNoOfActiveConnection.set(currentNoOfConnections);
+        this.countDownLatch = countDownLatch;
+        this.fanOut = fanOut;
+        this.subscriber = fanOut != null && !fanOut.isPublisher(clientId);
+        this.noOfMessages = args.getNoOfMessagesPerConnection();
+        this.messageClass = messageClass;
+        PayloadTemplate payloadTemplate = null;
+        if (randomPayload != null) {
+            payloadTemplate = new PayloadTemplate(
+                    messageClass != null ? messageClass.getMaxSize() : args.getPayloadInBytes(),
+                    messageClass != null ? messageClass.isBinary() : args.isBinary(), randomPayload, clientId,
+                    PooledByteBufAllocator.DEFAULT);
+        } else if (messageClass != null) {
+            payloadTemplate = createPayloadTemplate(messageClass.getMaxSize(), messageClass.isBinary());
+        } else if (args.isZeroCopy()) {
+            payloadTemplate = createPayloadTemplate(args.getPayloadInBytes(), args.isBinary());
+        } else {
+            this.initialPayload = createPayload(args.getPayloadInBytes());
         }
-    }
-
-    public static void removeConnection() {
-        noOfActiveConnections.decrementAndGet();
-    }
-
-    public static int getMaxNoOfActiveConnections() {
-        return maxNoOfActiveConnection.get();
+        this.webSocketClient = new WebSocketClient(clientId, args, initialPayload, payloadTemplate, messageClass,
+                                                   countDownLatch, transport, connectionMetrics, measurementWindow,
+                                                   fanOut);
+        double messagesPerSecond = messageClass != null ? messageClass.getMessagesPerSecond() :
+                args.getMessagesPerSecondPerConnection();
+        this.constantRateSender = messagesPerSecond > 0 && !subscriber ? new ConstantRateSender(
+                webSocketClient, noOfMessages, messagesPerSecond, transport.getTimer()) : null;
     }
 
     @Override
     public void run() {
         try {
-            webSocketClient.init();
+            try {
+                webSocketClient.init();
+            } catch (Exception e) {
+                // The failure is recorded in the connection metrics.
+                log.debug("Client {}: Connection failed", clientId, e);
+                if (!webSocketClient.isConnectStarted()) {
+                    countDownLatch.countDown();
+                }
+                subscribed();
+                return;
+            }
             startTime = System.currentTimeMillis();
+            if (subscribed()) {
+                return;
+            }
             log.info("Client {}: Sending messages...", clientId);
 
+            if (constantRateSender != null) {
+                constantRateSender.start();
+                constantRateSender.awaitCompletion();
+                webSocketClient.stop();
+                return;
+            }
+
             int messageId = 0;
             while (true) {
-                webSocketClient.sendText(String.format("%s%d", initialPayload, messageId));
-                if (stopSendingMessages || messageId == noOfMessages - 1) {
+                webSocketClient.sendMessage(messageId);
+                if (stopSendingMessages || messageId == noOfMessages - 1 || !webSocketClient.isActive()) {
                     webSocketClient.stop();
                     break;
                 }
                 messageId++;
-                Thread.sleep(messageDelay);
+                long thinkTime = webSocketClient.nextThinkTimeInNanos();
+                if (thinkTime > 0) {
+                    webSocketClient.flush();
+                    TimeUnit.NANOSECONDS.sleep(thinkTime);
+                }
             }
 
-        } catch (URISyntaxException | SSLException | InterruptedException e) {
+        } catch (InterruptedException e) {
             log.error("Error : ", e);
             Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Start the client on the event loop of its connection without blocking the calling thread.
+     * This is the event loop counterpart of {@link #run()}, for tests with more connections than threads.
+     */
+    public void start() {
+        try {
+            webSocketClient.connect().addListener(future -> {
+                if (!future.isSuccess()) {
+                    // The failure is recorded in the connection metrics.
+                    log.debug("Client {}: Connection failed", clientId, future.cause());
+                    subscribed();
+                    return;
+                }
+                startTime = System.currentTimeMillis();
+                if (subscribed()) {
+                    return;
+                }
+                log.info("Client {}: Sending messages...", clientId);
+                if (constantRateSender != null) {
+                    constantRateSender.start(webSocketClient::stop);
+                } else {
+                    eventLoopSender = new EventLoopSender(webSocketClient, noOfMessages);
+                    eventLoopSender.setStopSendingMessages(stopSendingMessages);
+                    eventLoopSender.start();
+                }
+            });
+        } catch (Exception e) {
+            log.error("Client {}: Connection failed", clientId, e);
+            countDownLatch.countDown();
+            subscribed();
+        }
+    }
+
+    /**
+     * Let the fan-out test know that the connection attempt of a subscriber is completed. Subscribers do not send
+     * messages, so they are done once connected.
+     *
+     * @return true if the client is a subscriber.
+     */
+    private boolean subscribed() {
+        if (subscriber) {
+            fanOut.subscriberReady();
+        }
+        return subscriber;
+    }
+
+    /**
+     * @return true if the client is a subscriber of a fan-out test, which receives messages without sending any.
+     */
+    public boolean isSubscriber() {
+        return subscriber;
+    }
+
+    /**
+     * Close the connection of a subscriber, if it is connected.
+     */
+    public void stopSubscriber() {
+        if (webSocketClient.isConnectStarted() && webSocketClient.isActive()) {
+            webSocketClient.stop();
+        }
+    }
+
     public long getStartTime() {
         return startTime;
     }
@@ -84,22 +193,48 @@ public class WebSocketClientRunner implements Runnable {
         return webSocketClient.getEndTime();
     }
 
-    public int getNoOfErrorMessages() {
+    public WebSocketClient getWebSocketClient() {
+        return webSocketClient;
+    }
+
+    public long getNoOfErrorMessages() {
         return webSocketClient.getNoOfErrorMessages();
     }
 
+    public EchoValidator getEchoValidator() {
+        return webSocketClient.getEchoValidator();
+    }
+
     public void setStopSendingMessages(boolean stopSendingMessages) {
         this.stopSendingMessages = stopSendingMessages;
+        if (constantRateSender != null) {
+            constantRateSender.setStopSendingMessages(stopSendingMessages);
+        }
+        EventLoopSender sender = eventLoopSender;
+        if (sender != null) {
+            sender.setStopSendingMessages(stopSendingMessages);
+        }
     }
 
-    public int getNoOfMessagesReceived() {
+    public long getNoOfMessagesReceived() {
         return webSocketClient.getNoOfMessagesReceived();
     }
 
+    public LatencyHistogram getLatencyHistogram() {
+        return webSocketClient.getLatencyHistogram();
+    }
+
     public int getClientId() {
         return clientId;
     }
 
+    /**
+     * @return scenario message class sent by the client, null if the test has no scenario.
+     */
+    public MessageClass getMessageClass() {
+        return messageClass;
+    }
+
     public static String createPayload(int payloadSize) {
         StringBuilder payloadBuilder = new StringBuilder();
         for (int i = 0; i < payloadSize; i++) {
@@ -107,4 +242,15 @@ public class WebSocketClientRunner implements Runnable {
         }
         return payloadBuilder.toString();
     }
+
+    /**
+     * Create the payload template of a connection in a pooled direct buffer.
+     *
+     * @param payloadSize size of the payload in bytes, excluding the message header.
+     * @param binary true if binary frames should be sent.
+     * @return the created template.
+     */
+    public static PayloadTemplate createPayloadTemplate(int payloadSize, boolean binary) {
+        return new PayloadTemplate(payloadSize, binary, PooledByteBufAllocator.DEFAULT);
+    }
 }
@@ -0,0 +1,38 @@
+package org.irunika.websocket.test.bench;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import org.irunika.websocket.test.bench.metrics.TrafficMetrics;
+
+/**
+ * Counts the bytes written to and read from the socket once the WebSocket upgrade is completed.
+ * It is the first handler of the pipeline after TLS, so TLS records are not counted.
+ *
+ * @author irunika
+ */
+public class WireByteCounter extends ChannelDuplexHandler {
+
+    private final TrafficMetrics trafficMetrics;
+
+    public WireByteCounter(TrafficMetrics trafficMetrics) {
+        this.trafficMetrics = trafficMetrics;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof ByteBuf && trafficMetrics.isUpgraded()) {
+            trafficMetrics.recordWireBytesReceived(((ByteBuf) msg).readableBytes());
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (msg instanceof ByteBuf && trafficMetrics.isUpgraded()) {
+            trafficMetrics.recordWireBytesSent(((ByteBuf) msg).readableBytes());
+        }
+        ctx.write(msg, promise);
+    }
+}
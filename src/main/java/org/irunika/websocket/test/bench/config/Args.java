@@ -1,6 +1,7 @@
 package org.irunika.websocket.test.bench.config;
 
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
 
 public class Args {
 
@@ -19,9 +20,239 @@ public class Args {
     @Parameter(names = {"-t", "--time"}, description = "Time for test in minutes")
     private int testTimeInMinutes = 0;
 
-    @Parameter(names = {"-d, --delay"}, description = "Delay between two consecutive messages")
+    @Parameter(names = {"-d", "--delay"}, description = "Delay between two consecutive messages")
     private long messageDelay = 0;
 
+    @Parameter(names = {"--in-flight"},
+               description = "Max no of sent but not yet echoed messages per connection (0 to wait on each write)")
+    private int maxInFlightMessages = 0;
+
+    @Parameter(names = {"--flush-batch"}, description = "No of messages written before a flush when --in-flight is set")
+    private int flushBatchSize = 1;
+
+    @Parameter(names = {"--rate"},
+               description = "Target no of messages per second for all connections. Enables open loop sending")
+    private double messagesPerSecond = 0;
+
+    @Parameter(names = {"--rate-per-connection"},
+               description = "Target no of messages per second for each connection. Enables open loop sending")
+    private double messagesPerSecondPerConnection = 0;
+
+    @Parameter(names = {"--zero-copy"},
+               description = "Send messages from a preallocated direct payload template instead of new strings")
+    private boolean zeroCopy = false;
+
+    @Parameter(names = {"--binary"}, description = "Send binary frames. Implies --zero-copy")
+    private boolean binary = false;
+
+    @Parameter(names = {"--fragment-size"},
+               description = "Send messages larger than this many bytes as fragments of this size and validate " +
+                       "their echoes fragment by fragment (0 to send each message in one frame). Implies --zero-copy")
+    private int fragmentSize = 0;
+
+    @Parameter(names = {"--payload-entropy"},
+               description = "Entropy of the payload in bits per byte, up to 6 for text and 8 for binary frames " +
+                       "(0 for a constant payload). Implies --zero-copy")
+    private double payloadEntropy = 0;
+
+    @Parameter(names = {"--compression"}, description = "Offer permessage-deflate to the server: on or off")
+    private String compression = "on";
+
+    @Parameter(names = {"--deflate-level"}, description = "Deflate compression level from 0 to 9")
+    private int deflateLevel = 6;
+
+    @Parameter(names = {"--deflate-window-bits"}, description = "Max deflate window bits to negotiate, 8 to 15")
+    private int deflateWindowBits = 15;
+
+    @Parameter(names = {"--deflate-no-context-takeover"},
+               description = "Negotiate compressing each message without the history of the previous ones")
+    private boolean deflateNoContextTakeover = false;
+
+    @Parameter(names = {"--tls-provider"},
+               description = "TLS implementation for wss and the echo server: jdk or openssl (netty-tcnative)")
+    private String tlsProvider = "jdk";
+
+    @Parameter(names = {"--tls-protocols"}, description = "Comma separated TLS protocols to enable, eg: TLSv1.2")
+    private String tlsProtocols = null;
+
+    @Parameter(names = {"--tls-ciphers"}, description = "Comma separated TLS cipher suites to enable")
+    private String tlsCiphers = null;
+
+    @Parameter(names = {"--tls-no-resumption"},
+               description = "Do a full TLS handshake on every connection instead of resuming earlier sessions")
+    private boolean tlsNoResumption = false;
+
+    @Parameter(names = {"--tls"}, description = "Serve wss with a self signed certificate from the echo server")
+    private boolean tls = false;
+
+    @Parameter(names = {"--handshake-test"},
+               description = "Measure the TLS handshake rate: each of the -n connections repeatedly connects, " +
+                       "completes the TLS handshake and closes, -m times or for -t minutes")
+    private boolean handshakeTest = false;
+
+    @Parameter(names = {"--idle-test"},
+               description = "Measure idle connection capacity: open -n connections, hold them for -t minutes " +
+                       "with only keepalive pings and report the memory used per connection")
+    private boolean idleTest = false;
+
+    @Parameter(names = {"--ping-interval"},
+               description = "Seconds between two keepalive pings of a connection in an idle test (0 for no pings)")
+    private int pingIntervalInSeconds = 30;
+
+    @Parameter(names = {"--socket-buffer"},
+               description = "Socket send and receive buffer size in bytes of the connections of an idle test " +
+                       "(0 for the OS default)")
+    private int socketBufferSize = 4096;
+
+    @Parameter(names = {"--churn-test"},
+               description = "Measure connection churn: each of the -n clients repeatedly connects, sends at --rate " +
+                       "for a sampled lifetime, closes and reconnects, -m times or for -t minutes")
+    private boolean churnTest = false;
+
+    @Parameter(names = {"--lifetime"},
+               description = "Lifetime distribution of a connection in a churn test in milliseconds, " +
+                       "eg: exponential:10000")
+    private String lifetime = "exponential:10000";
+
+    @Parameter(names = {"--close-mix"},
+               description = "Weighted close codes of a churn test as <code or reset>=<weight>,... " +
+                       "eg: 1000=0.8,1001=0.1,reset=0.1")
+    private String closeMix = "1000=1";
+
+    @Parameter(names = {"--reconnect-delay"},
+               description = "Max random delay in milliseconds before a client of a churn test reconnects")
+    private long reconnectDelayInMillis = 100;
+
+    @Parameter(names = {"--reconnect-max-delay"},
+               description = "Max delay in milliseconds to back off to after consecutive failed reconnects")
+    private long maxReconnectDelayInMillis = 10000;
+
+    @Parameter(names = {"--replay"},
+               description = "Replay the recorded session in this file instead of sending generated messages")
+    private String replayFile = null;
+
+    @Parameter(names = {"--replay-speed"},
+               description = "Speed of a replay relative to the recording, eg: 10 replays 10 times faster " +
+                       "(0 sends each message as soon as the responses recorded before it are received)")
+    private double replaySpeed = 1;
+
+    @Parameter(names = {"--replay-check"},
+               description = "How responses are checked against the recorded responses: exact (same bytes), " +
+                       "length (same frame type and length) or none")
+    private String responseCheck = ResponseCheck.EXACT.toString();
+
+    @Parameter(names = {"--replay-import"},
+               description = "Convert this tab separated message log into the --replay session file and exit")
+    private String replayImportFile = null;
+
+    @Parameter(names = {"--validation-window"},
+               description = "No of sent messages per connection which are tracked for echo validation")
+    private int validationWindow = 1024;
+
+    @Parameter(names = {"--ramp-rate"}, description = "No of connections opened per second (0 to open all at once)")
+    private double rampUpRate = 0;
+
+    @Parameter(names = {"--ramp-stages"},
+               description = "Stepped ramp up as <target connections>:<hold seconds>,... eg: 100:30,500:60")
+    private String rampUpStages = null;
+
+    @Parameter(names = {"--warmup"},
+               description = "Seconds after all connections are opened which are excluded from the measurements")
+    private int warmupInSeconds = 0;
+
+    @Parameter(names = {"--report-interval"},
+               description = "Interval in seconds to report progress while the test is running (0 to disable)")
+    private int reportIntervalInSeconds = 0;
+
+    @Parameter(names = {"--report-file"},
+               description = "File to append the interval reports to (JSON lines for .json/.jsonl, CSV otherwise)")
+    private String reportFile = null;
+
+    @Parameter(names = {"--result-file"},
+               description = "File to write the result of the test to, eg: to use it as a baseline later")
+    private String resultFile = null;
+
+    @Parameter(names = {"--baseline"},
+               description = "Result file of a baseline run to compare the test (or the --compare file) with. " +
+                       "Exits with 2 on a regression")
+    private String baselineFile = null;
+
+    @Parameter(names = {"--compare"},
+               description = "Compare this result file with the --baseline result file instead of running a test")
+    private String compareFile = null;
+
+    @Parameter(names = {"--max-throughput-drop"},
+               description = "Max drop of the throughput in percent of the baseline before it is a regression")
+    private double maxThroughputDropPercentage = 5;
+
+    @Parameter(names = {"--max-latency-increase"},
+               description = "Max increase of the latency percentiles in percent of the baseline before it is a " +
+                       "regression, for all of them or as p<percentile>=<percentage>,...")
+    private String maxLatencyIncrease = "10";
+
+    @Parameter(names = {"--max-error-rate-increase"},
+               description = "Max increase of the error message rate and the connection failure rate in " +
+                       "percentage points of the baseline before it is a regression")
+    private double maxErrorRateIncrease = 0.01;
+
+    @Parameter(names = {"--metrics-port"},
+               description = "Serve the live metrics of the test in the Prometheus text format on this port " +
+                       "(0 to disable)")
+    private int metricsPort = 0;
+
+    @Parameter(names = {"--jmx"}, description = "Register the live metrics of the test as an MBean")
+    private boolean jmx = false;
+
+    @Parameter(names = {"--saturation-lag"},
+               description = "p99 event loop lag in milliseconds above which the load generator is saturated")
+    private double saturationLagInMillis = 10;
+
+    @Parameter(names = {"--saturation-cpu"},
+               description = "Average CPU use of all cores in percent above which the load generator is saturated")
+    private double saturationCpuPercentage = 90;
+
+    @Parameter(names = {"--saturation-gc"},
+               description = "GC pause time in percent of the test time above which the load generator is " +
+                       "saturated")
+    private double saturationGcPercentage = 10;
+
+    @Parameter(names = {"--event-loop-threads"},
+               description = "No of event loop threads shared by all connections (0 for 2 * no of cores)")
+    private int noOfEventLoopThreads = 0;
+
+    @Parameter(names = {"--epoll"}, description = "Use the native epoll transport when available (Linux only)")
+    private boolean epoll = false;
+
+    @Parameter(names = {"--publishers"},
+               description = "Fan-out test: no of the -n connections which publish messages, while the others only " +
+                       "receive them from a broadcast server (0 for an echo test)")
+    private int noOfPublishers = 0;
+
+    @Parameter(names = {"--scenario"},
+               description = "Scenario file with weighted message classes. Replaces -p, -d, --rate and --binary")
+    private String scenarioFile = null;
+
+    @Parameter(names = {"--runner"},
+               description = "How each connection is run: threads (a thread each), virtual (a virtual thread each, " +
+                       "Java 21+) or event-loop (on the event loop, no thread per connection)")
+    private String runnerModel = RunnerModel.THREADS.toString();
+
+    @Parameter(names = {"--worker"},
+               description = "Run as a worker which accepts tests from a coordinator on the given port")
+    private int workerPort = 0;
+
+    @Parameter(names = {"--workers"},
+               description = "Run as a coordinator which splits the test across the given workers as host:port,...")
+    private String workers = null;
+
+    @Parameter(names = {"--echo-server"},
+               description = "Run a WebSocket echo server on the given port instead of a test")
+    private int echoServerPort = 0;
+
+    @Parameter(names = {"--broadcast"},
+               description = "Make the echo server send every message to all its connections instead of echoing it")
+    private boolean broadcast = false;
+
     public String getUrl() {
         return url;
     }
@@ -34,6 +265,13 @@ public class Args {
         return noOfMessages;
     }
 
+    /**
+     * @return no of messages to be sent by a connection, -1 if messages should be sent for the test time.
+     */
+    public int getNoOfMessagesPerConnection() {
+        return testTimeInMinutes > 0 ? -1 : noOfMessages;
+    }
+
     public int getPayloadInBytes() {
         return payloadInBytes;
     }
@@ -45,4 +283,231 @@ public class Args {
     public long getMessageDelay() {
         return messageDelay;
     }
+
+    public int getMaxInFlightMessages() {
+        return maxInFlightMessages;
+    }
+
+    public int getFlushBatchSize() {
+        return flushBatchSize;
+    }
+
+    /**
+     * Get the open loop send rate of a connection.
+     *
+     * @return messages per second per connection, 0 if messages should be sent in a closed loop.
+     */
+    public double getMessagesPerSecondPerConnection() {
+        if (messagesPerSecondPerConnection > 0) {
+            return messagesPerSecondPerConnection;
+        }
+        if (messagesPerSecond <= 0) {
+            return 0;
+        }
+        // Only the publishers send in a fan-out test
+        return messagesPerSecond / (noOfPublishers > 0 ? noOfPublishers : noOfConnections);
+    }
+
+    public boolean isZeroCopy() {
+        return zeroCopy || binary || payloadEntropy > 0 || fragmentSize > 0;
+    }
+
+    /**
+     * @return max size of a frame, including the message header, 0 if messages are not fragmented.
+     */
+    public int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @return entropy of the payload in bits per byte, 0 for a constant payload.
+     */
+    public double getPayloadEntropy() {
+        return payloadEntropy;
+    }
+
+    /**
+     * @return permessage-deflate parameters to negotiate, null if compression is off.
+     */
+    public DeflateParameters getDeflateParameters() {
+        if ("off".equalsIgnoreCase(compression)) {
+            return null;
+        }
+        if (!"on".equalsIgnoreCase(compression)) {
+            throw new ParameterException("Invalid compression: " + compression + ", expected on or off");
+        }
+        return new DeflateParameters(deflateLevel, deflateWindowBits, deflateNoContextTakeover);
+    }
+
+    /**
+     * @return TLS settings of the clients and the echo server.
+     */
+    public TlsParameters getTlsParameters() {
+        return new TlsParameters(tlsProvider, tlsProtocols, tlsCiphers, !tlsNoResumption);
+    }
+
+    /**
+     * @return true if the echo server should serve wss.
+     */
+    public boolean isTls() {
+        return tls;
+    }
+
+    public boolean isHandshakeTest() {
+        return handshakeTest;
+    }
+
+    public boolean isIdleTest() {
+        return idleTest;
+    }
+
+    /**
+     * @return seconds between two keepalive pings of an idle connection, 0 if pings should not be sent.
+     */
+    public int getPingIntervalInSeconds() {
+        return pingIntervalInSeconds;
+    }
+
+    /**
+     * @return socket send and receive buffer size of an idle connection in bytes, 0 for the OS default.
+     */
+    public int getSocketBufferSize() {
+        return socketBufferSize;
+    }
+
+    public boolean isChurnTest() {
+        return churnTest;
+    }
+
+    /**
+     * @return lifetime, close and reconnect settings of a churn test.
+     */
+    public ChurnParameters getChurnParameters() {
+        return new ChurnParameters(lifetime, closeMix, reconnectDelayInMillis, maxReconnectDelayInMillis);
+    }
+
+    public String getReplayFile() {
+        return replayFile;
+    }
+
+    public double getReplaySpeed() {
+        return replaySpeed;
+    }
+
+    public ResponseCheck getResponseCheck() {
+        return ResponseCheck.fromName(responseCheck);
+    }
+
+    public String getReplayImportFile() {
+        return replayImportFile;
+    }
+
+    public int getValidationWindow() {
+        return validationWindow;
+    }
+
+    public double getRampUpRate() {
+        return rampUpRate;
+    }
+
+    public String getRampUpStages() {
+        return rampUpStages;
+    }
+
+    public int getWarmupInSeconds() {
+        return warmupInSeconds;
+    }
+
+    public int getReportIntervalInSeconds() {
+        return reportIntervalInSeconds;
+    }
+
+    public String getReportFile() {
+        return reportFile;
+    }
+
+    public String getResultFile() {
+        return resultFile;
+    }
+
+    public String getBaselineFile() {
+        return baselineFile;
+    }
+
+    public String getCompareFile() {
+        return compareFile;
+    }
+
+    public RegressionThresholds getRegressionThresholds() {
+        return new RegressionThresholds(maxThroughputDropPercentage, maxLatencyIncrease, maxErrorRateIncrease);
+    }
+
+    /**
+     * @return port of the Prometheus metrics endpoint, 0 if it is disabled.
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public boolean isJmx() {
+        return jmx;
+    }
+
+    public double getSaturationLagInMillis() {
+        return saturationLagInMillis;
+    }
+
+    public double getSaturationCpuPercentage() {
+        return saturationCpuPercentage;
+    }
+
+    public double getSaturationGcPercentage() {
+        return saturationGcPercentage;
+    }
+
+    public int getNoOfEventLoopThreads() {
+        return noOfEventLoopThreads;
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    /**
+     * @return no of connections which publish messages in a fan-out test, 0 for an echo test.
+     */
+    public int getNoOfPublishers() {
+        return noOfPublishers;
+    }
+
+    public String getScenarioFile() {
+        return scenarioFile;
+    }
+
+    public RunnerModel getRunnerModel() {
+        return RunnerModel.fromName(runnerModel);
+    }
+
+    public int getWorkerPort() {
+        return workerPort;
+    }
+
+    public String getWorkers() {
+        return workers;
+    }
+
+    public int getEchoServerPort() {
+        return echoServerPort;
+    }
+
+    /**
+     * @return true if the echo server should broadcast messages instead of echoing them.
+     */
+    public boolean isBroadcast() {
+        return broadcast;
+    }
 }
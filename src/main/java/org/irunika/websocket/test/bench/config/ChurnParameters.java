@@ -0,0 +1,123 @@
+package org.irunika.websocket.test.bench.config;
+
+import com.beust.jcommander.ParameterException;
+import org.irunika.websocket.test.bench.scenario.SamplingTable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of a churn test: the lifetime distribution of a connection, how connections are closed at the end of
+ * their lifetime and how long a client waits before it reconnects.
+ * A connection is closed with a close code drawn from the close mix, eg: {@code 1000=0.8,1001=0.1,reset=0.1},
+ * where {@code reset} closes the socket abruptly with a TCP reset instead of a close frame.
+ * <p>
+ * Reconnect delays use exponential backoff with full jitter: after a connection which was closed at the end of its
+ * lifetime the delay is random up to the reconnect delay, and each consecutive failed attempt doubles the upper
+ * bound up to the max reconnect delay.
+ *
+ * @author irunika
+ */
+public class ChurnParameters {
+
+    /**
+     * Close code of an abrupt close with a TCP reset.
+     */
+    public static final int RESET = -1;
+
+    private final SamplingTable lifetimes;
+    private final int[] closeCodes;
+    private final double[] cumulativeWeights;
+    private final long reconnectDelayInNanos;
+    private final long maxReconnectDelayInNanos;
+
+    /**
+     * @param lifetime lifetime distribution in milliseconds, see {@link SamplingTable}.
+     * @param closeMix weighted close codes as {@code <code or reset>=<weight>,...}.
+     * @param reconnectDelayInMillis upper bound of the delay before a reconnect.
+     * @param maxReconnectDelayInMillis upper bound of the delay after consecutive failed attempts.
+     */
+    public ChurnParameters(String lifetime, String closeMix, long reconnectDelayInMillis,
+                           long maxReconnectDelayInMillis) {
+        if (reconnectDelayInMillis < 0 || maxReconnectDelayInMillis < reconnectDelayInMillis) {
+            throw new ParameterException("Invalid reconnect delays: " + reconnectDelayInMillis + ", " +
+                                                 maxReconnectDelayInMillis);
+        }
+        this.lifetimes = SamplingTable.compile(lifetime, TimeUnit.MILLISECONDS.toNanos(1), lifetime.hashCode());
+        String[] entries = closeMix.split(",");
+        this.closeCodes = new int[entries.length];
+        this.cumulativeWeights = new double[entries.length];
+        double totalWeight = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].split("=");
+            try {
+                closeCodes[i] = parseCloseCode(entry[0].trim());
+                double weight = entry.length == 1 ? 1 : Double.parseDouble(entry[1].trim());
+                if (entry.length > 2 || weight < 0) {
+                    throw new ParameterException("Invalid close mix: " + closeMix);
+                }
+                totalWeight += weight;
+            } catch (NumberFormatException e) {
+                throw new ParameterException("Invalid close mix: " + closeMix);
+            }
+            cumulativeWeights[i] = totalWeight;
+        }
+        if (totalWeight <= 0) {
+            throw new ParameterException("Invalid close mix: " + closeMix);
+        }
+        for (int i = 0; i < entries.length; i++) {
+            cumulativeWeights[i] /= totalWeight;
+        }
+        this.reconnectDelayInNanos = TimeUnit.MILLISECONDS.toNanos(reconnectDelayInMillis);
+        this.maxReconnectDelayInNanos = TimeUnit.MILLISECONDS.toNanos(maxReconnectDelayInMillis);
+    }
+
+    private static int parseCloseCode(String code) {
+        if ("reset".equals(code)) {
+            return RESET;
+        }
+        int closeCode = Integer.parseInt(code);
+        // 1005, 1006 and 1015 must not be sent in a close frame
+        if (closeCode < 1000 || closeCode > 4999 || closeCode == 1005 || closeCode == 1006 || closeCode == 1015) {
+            throw new ParameterException("Invalid close code: " + code);
+        }
+        return closeCode;
+    }
+
+    /**
+     * @param index any index, eg: a running counter of the lifetimes of a client.
+     * @return lifetime of a connection in nanoseconds.
+     */
+    public long getLifetimeInNanos(int index) {
+        return lifetimes.get(index);
+    }
+
+    /**
+     * @param random random number from 0 (inclusive) to 1 (exclusive).
+     * @return close code drawn from the close mix, {@link #RESET} for an abrupt close.
+     */
+    public int getCloseCode(double random) {
+        int index = 0;
+        while (cumulativeWeights[index] <= random && index < cumulativeWeights.length - 1) {
+            index++;
+        }
+        return closeCodes[index];
+    }
+
+    /**
+     * @param noOfFailedAttempts no of consecutive failed connection attempts.
+     * @param random random number from 0 (inclusive) to 1 (exclusive).
+     * @return delay before the next connection attempt in nanoseconds.
+     */
+    public long getReconnectDelayInNanos(int noOfFailedAttempts, double random) {
+        long bound = reconnectDelayInNanos << Math.min(noOfFailedAttempts, 20);
+        return (long) (Math.min(Math.max(bound, 0), maxReconnectDelayInNanos) * random);
+    }
+
+    /**
+     * @param closeCode close code of a connection, {@link #RESET} for an abrupt close.
+     * @return name of the close code in the results.
+     */
+    public static String getCloseName(int closeCode) {
+        return closeCode == RESET ? "reset" : Integer.toString(closeCode);
+    }
+}
@@ -0,0 +1,108 @@
+package org.irunika.websocket.test.bench.config;
+
+import com.beust.jcommander.ParameterException;
+import io.netty.channel.ChannelHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.compression.DeflateFrameClientExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateClientExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * permessage-deflate parameters which are negotiated by the clients and the echo server.
+ * Clients request the server parameters and accept whatever the server asks for the client side. The echo server
+ * asks the clients for the same parameters, so that both directions are compressed alike.
+ *
+ * @author irunika
+ */
+public class DeflateParameters {
+
+    private static final int MIN_WINDOW_BITS = 8;
+    private static final int MAX_WINDOW_BITS = 15;
+
+    private final int compressionLevel;
+    private final int windowBits;
+    private final boolean noContextTakeover;
+
+    /**
+     * @param compressionLevel zlib compression level from 0 (no compression) to 9 (best compression).
+     * @param windowBits size of the LZ77 sliding window as a power of two, from 8 to 15.
+     * @param noContextTakeover true if each message should be compressed without the history of the previous ones.
+     */
+    public DeflateParameters(int compressionLevel, int windowBits, boolean noContextTakeover) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new ParameterException("Deflate level should be between 0 and 9: " + compressionLevel);
+        }
+        if (windowBits < MIN_WINDOW_BITS || windowBits > MAX_WINDOW_BITS) {
+            throw new ParameterException("Deflate window bits should be between " + MIN_WINDOW_BITS + " and " +
+                                                 MAX_WINDOW_BITS + ": " + windowBits);
+        }
+        this.compressionLevel = compressionLevel;
+        this.windowBits = windowBits;
+        this.noContextTakeover = noContextTakeover;
+    }
+
+    /**
+     * Create the handler which offers permessage-deflate, and the older deflate-frame as a fallback, in the
+     * WebSocket upgrade request of a client.
+     */
+    public ChannelHandler newClientHandler() {
+        return new WebSocketClientExtensionHandler(
+                new PerMessageDeflateOffer(),
+                new DeflateFrameClientExtensionHandshaker(compressionLevel, false),
+                new DeflateFrameClientExtensionHandshaker(compressionLevel, true));
+    }
+
+    /**
+     * Create the handler which accepts permessage-deflate in the WebSocket upgrade of the echo server.
+     */
+    public ChannelHandler newServerHandler() {
+        return new WebSocketServerExtensionHandler(
+                new PerMessageDeflateServerExtensionHandshaker(compressionLevel, true, windowBits, true,
+                                                               noContextTakeover));
+    }
+
+    /**
+     * permessage-deflate client handshaker which offers the requested parameters.
+     * The handshaker of Netty 4.1.26 offers server_no_context_takeover when a smaller server window is requested
+     * instead of when no context takeover is requested, and then rejects the response of a server which accepted
+     * the offer. Only the offer is built here, the response is validated by the Netty handshaker.
+     */
+    private class PerMessageDeflateOffer implements WebSocketClientExtensionHandshaker {
+
+        private final PerMessageDeflateClientExtensionHandshaker handshaker =
+                new PerMessageDeflateClientExtensionHandshaker(compressionLevel, true, windowBits, true,
+                                                               noContextTakeover);
+
+        @Override
+        public WebSocketExtensionData newRequestData() {
+            Map<String, String> parameters = new HashMap<>();
+            parameters.put("client_max_window_bits", null);
+            if (windowBits != MAX_WINDOW_BITS) {
+                parameters.put("server_max_window_bits", Integer.toString(windowBits));
+            }
+            if (noContextTakeover) {
+                parameters.put("client_no_context_takeover", null);
+                parameters.put("server_no_context_takeover", null);
+            }
+            return new WebSocketExtensionData("permessage-deflate", parameters);
+        }
+
+        @Override
+        public WebSocketClientExtension handshakeExtension(WebSocketExtensionData extensionData) {
+            return handshaker.handshakeExtension(extensionData);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "level " + compressionLevel + ", window bits " + windowBits + ", context takeover " +
+                (noContextTakeover ? "off" : "on");
+    }
+}
@@ -0,0 +1,95 @@
+package org.irunika.websocket.test.bench.config;
+
+import com.beust.jcommander.ParameterException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * How much worse than its baseline a test run may be before it is a regression.
+ * Throughput may drop by a percentage of the baseline. Latency percentiles may increase by a percentage of the
+ * baseline, either all of them by the same percentage, eg: {@code 10}, or each listed percentile by its own
+ * percentage, eg: {@code p50=10,p99=25}, in which case percentiles which are not listed are not checked. The
+ * error message rate and the connection failure rate may increase by a no of percentage points.
+ *
+ * @author irunika
+ */
+public class RegressionThresholds {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final double maxThroughputDropPercentage;
+    private final Map<Double, Double> maxLatencyIncreasePercentages = new LinkedHashMap<>();
+    private final double maxErrorRateIncrease;
+
+    /**
+     * @param maxThroughputDropPercentage max drop of the throughput in percent of the baseline.
+     * @param maxLatencyIncrease max increase of the latency percentiles in percent of the baseline, as
+     * {@code <percentage>} or {@code p<percentile>=<percentage>,...}.
+     * @param maxErrorRateIncrease max increase of the error and connection failure rates in percentage points.
+     */
+    public RegressionThresholds(double maxThroughputDropPercentage, String maxLatencyIncrease,
+                                double maxErrorRateIncrease) {
+        if (maxThroughputDropPercentage < 0) {
+            throw new ParameterException("Invalid max throughput drop: " + maxThroughputDropPercentage);
+        }
+        if (maxErrorRateIncrease < 0) {
+            throw new ParameterException("Invalid max error rate increase: " + maxErrorRateIncrease);
+        }
+        this.maxThroughputDropPercentage = maxThroughputDropPercentage;
+        this.maxErrorRateIncrease = maxErrorRateIncrease;
+        try {
+            if (!maxLatencyIncrease.contains("=")) {
+                double percentage = parsePercentage(maxLatencyIncrease);
+                for (double percentile : PERCENTILES) {
+                    maxLatencyIncreasePercentages.put(percentile, percentage);
+                }
+                return;
+            }
+            for (String entry : maxLatencyIncrease.split(",")) {
+                String[] keyValue = entry.split("=");
+                String key = keyValue[0].trim();
+                if (keyValue.length != 2 || !key.startsWith("p")) {
+                    throw new ParameterException("Invalid max latency increase: " + maxLatencyIncrease);
+                }
+                double percentile = Double.parseDouble(key.substring(1));
+                if (percentile <= 0 || percentile > 100) {
+                    throw new ParameterException("Invalid percentile: " + key);
+                }
+                maxLatencyIncreasePercentages.put(percentile, parsePercentage(keyValue[1]));
+            }
+        } catch (NumberFormatException e) {
+            throw new ParameterException("Invalid max latency increase: " + maxLatencyIncrease);
+        }
+    }
+
+    private static double parsePercentage(String percentage) {
+        double value = Double.parseDouble(percentage.trim());
+        if (value < 0) {
+            throw new ParameterException("Invalid percentage: " + percentage);
+        }
+        return value;
+    }
+
+    /**
+     * @return max drop of the throughput in percent of the baseline.
+     */
+    public double getMaxThroughputDropPercentage() {
+        return maxThroughputDropPercentage;
+    }
+
+    /**
+     * @return max increase in percent of the baseline by percentile, in the order they were given.
+     */
+    public Map<Double, Double> getMaxLatencyIncreasePercentages() {
+        return maxLatencyIncreasePercentages;
+    }
+
+    /**
+     * @return max increase of the error message rate and the connection failure rate over the baseline, in
+     * percentage points.
+     */
+    public double getMaxErrorRateIncrease() {
+        return maxErrorRateIncrease;
+    }
+}
@@ -0,0 +1,47 @@
+package org.irunika.websocket.test.bench.config;
+
+import com.beust.jcommander.ParameterException;
+
+/**
+ * How the responses of a replayed session are checked against the responses which were recorded.
+ *
+ * @author irunika
+ */
+public enum ResponseCheck {
+
+    /**
+     * A response matches if it has the same frame type and the same bytes as the recorded response.
+     */
+    EXACT("exact"),
+
+    /**
+     * A response matches if it has the same frame type and length as the recorded response, for responses with
+     * varying content such as timestamps or ids.
+     */
+    LENGTH("length"),
+
+    /**
+     * Responses are only paired with the recorded responses to measure their latency.
+     */
+    NONE("none");
+
+    private final String name;
+
+    ResponseCheck(String name) {
+        this.name = name;
+    }
+
+    public static ResponseCheck fromName(String name) {
+        for (ResponseCheck responseCheck : values()) {
+            if (responseCheck.name.equalsIgnoreCase(name)) {
+                return responseCheck;
+            }
+        }
+        throw new ParameterException("Invalid response check: " + name + ", expected exact, length or none");
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,73 @@
+package org.irunika.websocket.test.bench.config;
+
+import com.beust.jcommander.ParameterException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * How the logic of each simulated user is run.
+ *
+ * @author irunika
+ */
+public enum RunnerModel {
+
+    /**
+     * Blocking runner on a platform thread per connection.
+     */
+    THREADS("threads"),
+
+    /**
+     * Blocking runner on a virtual thread per connection. Requires Java 21 or newer at runtime.
+     */
+    VIRTUAL("virtual"),
+
+    /**
+     * Non blocking runner on the event loop of each connection. No thread is used per connection.
+     */
+    EVENT_LOOP("event-loop");
+
+    private final String name;
+
+    RunnerModel(String name) {
+        this.name = name;
+    }
+
+    public static RunnerModel fromName(String name) {
+        for (RunnerModel runnerModel : values()) {
+            if (runnerModel.name.equalsIgnoreCase(name)) {
+                return runnerModel;
+            }
+        }
+        throw new ParameterException("Invalid runner model: " + name + ", expected threads, virtual or event-loop");
+    }
+
+    /**
+     * Create the executor which runs the blocking runners.
+     *
+     * @param noOfConnections no of connections of the test.
+     * @return the executor, null for the event loop model.
+     */
+    public ExecutorService createExecutor(int noOfConnections) {
+        switch (this) {
+            case THREADS:
+                return Executors.newFixedThreadPool(noOfConnections);
+            case VIRTUAL:
+                // Looked up reflectively, so that the test bench still builds and runs on Java 8
+                try {
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                            .invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    throw new ParameterException("Virtual threads require Java 21 or newer, running on Java " +
+                                                         System.getProperty("java.version"));
+                }
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
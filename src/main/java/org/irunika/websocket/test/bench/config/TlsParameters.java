@@ -0,0 +1,103 @@
+package org.irunika.websocket.test.bench.config;
+
+import com.beust.jcommander.ParameterException;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.cert.CertificateException;
+import java.util.Arrays;
+import java.util.List;
+import javax.net.ssl.SSLException;
+
+/**
+ * TLS settings of the clients and the echo server.
+ * A single client context is shared by all the connections of a test, so that the client session cache is shared
+ * and sessions can be resumed. Server certificates are not verified. The echo server uses a self signed
+ * certificate which is generated on start up.
+ *
+ * @author irunika
+ */
+public class TlsParameters {
+
+    private static final Logger log = LoggerFactory.getLogger(TlsParameters.class);
+
+    private final SslProvider provider;
+    private final List<String> protocols;
+    private final List<String> ciphers;
+    private final boolean sessionResumption;
+
+    /**
+     * @param provider jdk or openssl.
+     * @param protocols comma separated protocols to enable, null for the provider defaults.
+     * @param ciphers comma separated cipher suites to enable, null for the provider defaults.
+     * @param sessionResumption true if clients should resume the sessions of previous connections.
+     */
+    public TlsParameters(String provider, String protocols, String ciphers, boolean sessionResumption) {
+        this.provider = createProvider(provider);
+        this.protocols = split(protocols);
+        this.ciphers = split(ciphers);
+        this.sessionResumption = sessionResumption;
+    }
+
+    private static SslProvider createProvider(String name) {
+        if ("jdk".equalsIgnoreCase(name)) {
+            return SslProvider.JDK;
+        }
+        if (!"openssl".equalsIgnoreCase(name)) {
+            throw new ParameterException("Invalid TLS provider: " + name + ", expected jdk or openssl");
+        }
+        if (!OpenSsl.isAvailable()) {
+            log.warn("OpenSSL is not available, falling back to the JDK TLS provider: {}",
+                     OpenSsl.unavailabilityCause().toString());
+            return SslProvider.JDK;
+        }
+        return SslProvider.OPENSSL;
+    }
+
+    private static List<String> split(String values) {
+        return values == null || values.isEmpty() ? null : Arrays.asList(values.split("\\s*,\\s*"));
+    }
+
+    /**
+     * Create the client context which is shared by all the connections of a test.
+     */
+    public SslContext newClientContext() throws SSLException {
+        log.info("Using the {} TLS provider", provider);
+        if (sessionResumption && provider == SslProvider.OPENSSL) {
+            log.warn("Clients do not resume TLS sessions with the OpenSSL provider, use the JDK provider to test " +
+                             "session resumption");
+        }
+        return SslContextBuilder.forClient()
+                .sslProvider(provider)
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .protocols(protocols == null ? null : protocols.toArray(new String[0]))
+                .ciphers(ciphers)
+                .build();
+    }
+
+    /**
+     * Create a server context with a newly generated self signed certificate for localhost.
+     */
+    public SslContext newServerContext() throws CertificateException, SSLException {
+        SelfSignedCertificate certificate = new SelfSignedCertificate("localhost");
+        return SslContextBuilder.forServer(certificate.certificate(), certificate.privateKey())
+                .sslProvider(provider)
+                .protocols(protocols == null ? null : protocols.toArray(new String[0]))
+                .ciphers(ciphers)
+                .build();
+    }
+
+    /**
+     * @return true if clients should resume the sessions of previous connections, false if every connection
+     * should do a full handshake.
+     */
+    public boolean isSessionResumption() {
+        return sessionResumption;
+    }
+}
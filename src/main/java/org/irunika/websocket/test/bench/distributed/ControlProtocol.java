@@ -0,0 +1,31 @@
+package org.irunika.websocket.test.bench.distributed;
+
+/**
+ * Messages exchanged between a coordinator and its workers over a plain TCP connection.
+ * Each message is a type byte followed by its fields, written with {@link java.io.DataOutputStream}.
+ * <ul>
+ *     <li>PING (coordinator): no fields. Answered with a PONG.</li>
+ *     <li>PONG (worker): wall clock time of the worker in milliseconds.</li>
+ *     <li>START (coordinator): protocol version, test arguments, start time in the clock of the worker,
+ *     first client id and client id stride.</li>
+ *     <li>INTERVAL (worker): an {@link org.irunika.websocket.test.bench.IntervalSnapshot}.</li>
+ *     <li>RESULT (worker): the {@link org.irunika.websocket.test.bench.TestResult}. Ends the test.</li>
+ *     <li>ERROR (worker): error message. Ends the test.</li>
+ * </ul>
+ *
+ * @author irunika
+ */
+final class ControlProtocol {
+
+    static final int VERSION = 11;
+
+    static final byte PING = 1;
+    static final byte PONG = 2;
+    static final byte START = 3;
+    static final byte INTERVAL = 4;
+    static final byte RESULT = 5;
+    static final byte ERROR = 6;
+
+    private ControlProtocol() {
+    }
+}
@@ -0,0 +1,285 @@
+package org.irunika.websocket.test.bench.distributed;
+
+import com.beust.jcommander.ParameterException;
+import org.irunika.websocket.test.bench.IntervalReportWriter;
+import org.irunika.websocket.test.bench.IntervalSnapshot;
+import org.irunika.websocket.test.bench.TestResult;
+import org.irunika.websocket.test.bench.config.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Splits a test across several workers and merges their reports.
+ * Connections are assigned to the workers round robin, so worker i of W runs the connections i, i + W, i + 2W,...
+ * of the test and follows the ramp up schedule of the whole test. Rates are converted to a rate per connection,
+ * which is the same on every worker. All the workers start at the same time, using the clock offset of each
+ * worker measured over a few ping round trips. Interval reports are merged once every worker has sent the same
+ * interval, and the final results are merged into one {@link TestResult}.
+ *
+ * @author irunika
+ */
+public class Coordinator {
+
+    private static final Logger log = LoggerFactory.getLogger(Coordinator.class);
+
+    private static final int NO_OF_CLOCK_SYNC_ROUNDS = 8;
+    private static final long START_DELAY_IN_MILLIS = 1000;
+
+    /**
+     * Options which are set per worker by the coordinator or only apply to the coordinator. All of them take a
+     * value.
+     */
+    private static final Set<String> COORDINATOR_OPTIONS = new HashSet<>(Arrays.asList(
+            "-n", "--connections", "--rate", "--rate-per-connection", "--report-file", "--result-file",
+            "--baseline", "--workers", "--worker", "--metrics-port"));
+
+    private final Args args;
+    private final String[] argv;
+    private final Map<Integer, IntervalSnapshot> pendingIntervals = new TreeMap<>();
+    private final Map<Integer, Integer> noOfPendingIntervalReports = new HashMap<>();
+    private IntervalReportWriter intervalReportWriter;
+    private Consumer<IntervalSnapshot> intervalListener;
+
+    /**
+     * @param args parsed test configuration.
+     * @param argv arguments the configuration was parsed from, which are passed on to the workers.
+     */
+    public Coordinator(Args args, String[] argv) {
+        this.args = args;
+        this.argv = argv;
+    }
+
+    /**
+     * Run the test on all the workers and wait until every worker has finished.
+     *
+     * @param intervalListener listener of the merged interval reports, null for none.
+     * @return merged result of the workers which completed the test.
+     */
+    public TestResult run(Consumer<IntervalSnapshot> intervalListener) throws IOException, InterruptedException {
+        this.intervalListener = intervalListener;
+        List<WorkerConnection> workers = new ArrayList<>();
+        for (String address : args.getWorkers().split(",")) {
+            workers.add(new WorkerConnection(address.trim()));
+        }
+        int noOfWorkers = workers.size();
+        int noOfConnections = args.getNoOfConnections();
+        if (noOfConnections < noOfWorkers) {
+            throw new ParameterException("No of connections should not be less than the no of workers");
+        }
+        if (args.getNoOfPublishers() > 0 && args.getNoOfPublishers() < noOfWorkers) {
+            // Each worker closes its subscribers once its own publishers are completed
+            throw new ParameterException("No of publishers should not be less than the no of workers");
+        }
+        if (args.getMetricsPort() > 0 && args.getMetricsPort() + noOfWorkers - 1 > 65535) {
+            throw new ParameterException("Metrics port " + args.getMetricsPort() + " leaves no port for each worker");
+        }
+        if (args.getReportIntervalInSeconds() > 0) {
+            intervalReportWriter = new IntervalReportWriter(args.getReportFile());
+        }
+
+        try {
+            long maxRoundTripTime = 0;
+            for (WorkerConnection worker : workers) {
+                worker.connect();
+                maxRoundTripTime = Math.max(maxRoundTripTime, worker.synchronizeClock());
+            }
+
+            long startTime = System.currentTimeMillis() + START_DELAY_IN_MILLIS + maxRoundTripTime;
+            for (int i = 0; i < noOfWorkers; i++) {
+                int share = noOfConnections / noOfWorkers + (i < noOfConnections % noOfWorkers ? 1 : 0);
+                workers.get(i).start(createWorkerArgs(share, i), startTime, i, noOfWorkers);
+            }
+            log.info("Test starts on {} workers at {}", noOfWorkers, startTime);
+
+            List<Thread> readers = new ArrayList<>();
+            for (WorkerConnection worker : workers) {
+                Thread reader = new Thread(() -> worker.readReports(noOfWorkers), "worker-" + worker.address);
+                reader.start();
+                readers.add(reader);
+            }
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        } finally {
+            for (WorkerConnection worker : workers) {
+                worker.close();
+            }
+            if (intervalReportWriter != null) {
+                // Intervals which were not reported by every worker, eg: the last partial interval
+                pendingIntervals.values().forEach(this::report);
+                intervalReportWriter.close();
+            }
+        }
+
+        TestResult result = new TestResult();
+        for (WorkerConnection worker : workers) {
+            if (worker.result != null) {
+                result.merge(worker.result);
+            } else {
+                log.error("Worker {} did not complete the test: {}", worker.address, worker.error);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Create the options of a worker. Each worker serves its live metrics on the metrics port plus its index, so
+     * several workers can run on one host.
+     */
+    private String[] createWorkerArgs(int noOfConnections, int workerIndex) {
+        List<String> workerArgs = new ArrayList<>();
+        for (int i = 0; i < argv.length; i++) {
+            if (COORDINATOR_OPTIONS.contains(argv[i])) {
+                i++;
+            } else {
+                workerArgs.add(argv[i]);
+            }
+        }
+        workerArgs.add("-n");
+        workerArgs.add(Integer.toString(noOfConnections));
+        double messagesPerSecondPerConnection = args.getMessagesPerSecondPerConnection();
+        if (messagesPerSecondPerConnection > 0) {
+            workerArgs.add("--rate-per-connection");
+            workerArgs.add(Double.toString(messagesPerSecondPerConnection));
+        }
+        if (args.getMetricsPort() > 0) {
+            workerArgs.add("--metrics-port");
+            workerArgs.add(Integer.toString(args.getMetricsPort() + workerIndex));
+        }
+        return workerArgs.toArray(new String[0]);
+    }
+
+    private synchronized void onInterval(IntervalSnapshot snapshot, int noOfWorkers) {
+        if (intervalReportWriter == null) {
+            return;
+        }
+        int index = snapshot.getIntervalIndex();
+        pendingIntervals.merge(index, snapshot, IntervalSnapshot::merge);
+        if (noOfPendingIntervalReports.merge(index, 1, Integer::sum) == noOfWorkers) {
+            report(pendingIntervals.remove(index));
+            noOfPendingIntervalReports.remove(index);
+        }
+    }
+
+    private void report(IntervalSnapshot snapshot) {
+        intervalReportWriter.write(snapshot);
+        if (intervalListener != null) {
+            intervalListener.accept(snapshot);
+        }
+    }
+
+    /**
+     * Control connection to a worker.
+     */
+    private class WorkerConnection {
+
+        private final String address;
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+        private long clockOffset;
+        private volatile TestResult result;
+        private volatile String error = "no result received";
+
+        WorkerConnection(String address) {
+            this.address = address;
+        }
+
+        void connect() throws IOException {
+            int separator = address.lastIndexOf(':');
+            if (separator < 0) {
+                throw new ParameterException("Invalid worker address, expected host:port: " + address);
+            }
+            socket = new Socket(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        /**
+         * Measure the offset of the worker clock from the round trip with the lowest latency.
+         *
+         * @return lowest round trip time in milliseconds.
+         */
+        long synchronizeClock() throws IOException {
+            long minRoundTripTime = Long.MAX_VALUE;
+            for (int i = 0; i < NO_OF_CLOCK_SYNC_ROUNDS; i++) {
+                long sendTime = System.currentTimeMillis();
+                out.writeByte(ControlProtocol.PING);
+                out.flush();
+                if (in.readByte() != ControlProtocol.PONG) {
+                    throw new IOException("Unexpected response to a clock ping from " + address);
+                }
+                long workerTime = in.readLong();
+                long receiveTime = System.currentTimeMillis();
+                if (receiveTime - sendTime < minRoundTripTime) {
+                    minRoundTripTime = receiveTime - sendTime;
+                    clockOffset = workerTime - (sendTime + receiveTime) / 2;
+                }
+            }
+            log.info("Worker {}: clock offset {}ms, round trip time {}ms", address, clockOffset, minRoundTripTime);
+            return minRoundTripTime;
+        }
+
+        void start(String[] workerArgs, long startTime, int firstClientId, int clientIdStride) throws IOException {
+            out.writeByte(ControlProtocol.START);
+            out.writeInt(ControlProtocol.VERSION);
+            out.writeInt(workerArgs.length);
+            for (String arg : workerArgs) {
+                out.writeUTF(arg);
+            }
+            out.writeLong(startTime + clockOffset);
+            out.writeInt(firstClientId);
+            out.writeInt(clientIdStride);
+            out.flush();
+        }
+
+        void readReports(int noOfWorkers) {
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    if (type == ControlProtocol.INTERVAL) {
+                        onInterval(IntervalSnapshot.readFrom(in), noOfWorkers);
+                    } else if (type == ControlProtocol.RESULT) {
+                        result = TestResult.readFrom(in);
+                        return;
+                    } else if (type == ControlProtocol.ERROR) {
+                        error = in.readUTF();
+                        return;
+                    } else {
+                        error = "unexpected message type " + type;
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                error = e.toString();
+            }
+        }
+
+        void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    log.debug("Error closing the connection to worker {}", address, e);
+                }
+            }
+        }
+    }
+}
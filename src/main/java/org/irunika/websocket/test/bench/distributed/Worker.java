@@ -0,0 +1,131 @@
+package org.irunika.websocket.test.bench.distributed;
+
+import com.beust.jcommander.JCommander;
+import org.irunika.websocket.test.bench.TestResult;
+import org.irunika.websocket.test.bench.TestRunner;
+import org.irunika.websocket.test.bench.config.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Runs tests on behalf of a coordinator.
+ * The worker listens on a port and serves one coordinator at a time. It answers clock pings, waits until the
+ * start time sent by the coordinator, runs its share of the test and streams the interval reports and the final
+ * result back over the same connection.
+ *
+ * @author irunika
+ */
+public class Worker {
+
+    private static final Logger log = LoggerFactory.getLogger(Worker.class);
+
+    private final int port;
+
+    public Worker(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Accept coordinators until the process is stopped.
+     */
+    public void run() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            log.info("Worker is waiting for a coordinator on port {}", port);
+            while (!Thread.currentThread().isInterrupted()) {
+                try (Socket socket = serverSocket.accept()) {
+                    log.info("Coordinator connected from {}", socket.getRemoteSocketAddress());
+                    serve(socket);
+                } catch (IOException e) {
+                    log.error("Lost the connection to the coordinator", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        while (true) {
+            byte type = in.readByte();
+            if (type == ControlProtocol.PING) {
+                out.writeByte(ControlProtocol.PONG);
+                out.writeLong(System.currentTimeMillis());
+                out.flush();
+            } else if (type == ControlProtocol.START) {
+                runTest(in, out);
+                return;
+            } else {
+                throw new IOException("Unexpected message type from the coordinator: " + type);
+            }
+        }
+    }
+
+    private void runTest(DataInputStream in, DataOutputStream out) throws IOException {
+        int version = in.readInt();
+        String[] argv = new String[in.readInt()];
+        for (int i = 0; i < argv.length; i++) {
+            argv[i] = in.readUTF();
+        }
+        long startTime = in.readLong();
+        int firstClientId = in.readInt();
+        int clientIdStride = in.readInt();
+        if (version != ControlProtocol.VERSION) {
+            sendError(out, "Unsupported protocol version " + version + ", expected " + ControlProtocol.VERSION);
+            return;
+        }
+
+        TestResult result;
+        try {
+            Args args = new Args();
+            JCommander.newBuilder().addObject(args).build().parse(argv);
+            long startDelay = startTime - System.currentTimeMillis();
+            log.info("Starting a test with {} connections in {}ms", args.getNoOfConnections(), startDelay);
+            if (startDelay > 0) {
+                Thread.sleep(startDelay);
+            }
+            result = TestRunner.runTest(args, firstClientId, clientIdStride, snapshot -> {
+                synchronized (out) {
+                    try {
+                        out.writeByte(ControlProtocol.INTERVAL);
+                        snapshot.writeTo(out);
+                        out.flush();
+                    } catch (IOException e) {
+                        log.error("Error sending the interval report to the coordinator", e);
+                    }
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendError(out, "Worker was interrupted");
+            return;
+        } catch (Exception e) {
+            log.error("Error running the test", e);
+            sendError(out, e.toString());
+            return;
+        }
+
+        synchronized (out) {
+            out.writeByte(ControlProtocol.RESULT);
+            result.writeTo(out);
+            out.flush();
+        }
+        log.info("Test completed with {} message round trips", result.getNoOfMessages());
+    }
+
+    private static void sendError(DataOutputStream out, String message) throws IOException {
+        synchronized (out) {
+            out.writeByte(ControlProtocol.ERROR);
+            out.writeUTF(message);
+            out.flush();
+        }
+    }
+}
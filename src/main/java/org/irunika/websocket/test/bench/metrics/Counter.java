@@ -0,0 +1,44 @@
+package org.irunika.websocket.test.bench.metrics;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Long counter which is written by a single thread, eg: the event loop of a connection, and read by any thread.
+ * Updates are ordered stores without a CAS or a fence, so counting costs the same as a plain field while other
+ * threads still see every update eventually. Counters of many owners are summed when they are read, see
+ * {@link MetricsRegistry#sum(String, Iterable, java.util.function.ToLongFunction)}.
+ * Use a {@link java.util.concurrent.atomic.LongAdder} for counters which are written by several threads.
+ *
+ * @author irunika
+ */
+public class Counter {
+
+    private static final AtomicLongFieldUpdater<Counter> VALUE =
+            AtomicLongFieldUpdater.newUpdater(Counter.class, "value");
+
+    private volatile long value;
+
+    /**
+     * Add one to the counter. Should be called only from the thread which owns the counter.
+     *
+     * @return the new value.
+     */
+    public long increment() {
+        long newValue = value + 1;
+        VALUE.lazySet(this, newValue);
+        return newValue;
+    }
+
+    /**
+     * Add to the counter. Should be called only from the thread which owns the counter.
+     *
+     * @param delta value to be added.
+     */
+    public void add(long delta) {
+        VALUE.lazySet(this, value + delta);
+    }
+
+    public long get() {
+        return value;
+    }
+}
@@ -0,0 +1,119 @@
+package org.irunika.websocket.test.bench.metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Delivery counters of the subscribers of a fan-out test.
+ * A subscriber is complete if every message it was expected to receive was delivered. The completeness of a
+ * subscriber is the fraction of its expected messages which were delivered.
+ *
+ * @author irunika
+ */
+public class DeliveryMetrics {
+
+    private long noOfSubscribers;
+    private long noOfCompleteSubscribers;
+    private double lowestCompleteness = 1;
+    private long noOfDeliveries;
+    private long noOfExpectedDeliveries;
+    private long noOfMissingDeliveries;
+    private long noOfOutOfOrderDeliveries;
+    private long noOfCorruptedDeliveries;
+
+    public void add(DeliveryMetrics other) {
+        noOfSubscribers += other.noOfSubscribers;
+        noOfCompleteSubscribers += other.noOfCompleteSubscribers;
+        lowestCompleteness = Math.min(lowestCompleteness, other.lowestCompleteness);
+        noOfDeliveries += other.noOfDeliveries;
+        noOfExpectedDeliveries += other.noOfExpectedDeliveries;
+        noOfMissingDeliveries += other.noOfMissingDeliveries;
+        noOfOutOfOrderDeliveries += other.noOfOutOfOrderDeliveries;
+        noOfCorruptedDeliveries += other.noOfCorruptedDeliveries;
+    }
+
+    /**
+     * Count the deliveries of a subscriber after its connection is closed.
+     *
+     * @param noOfDeliveries no of messages delivered to the subscriber.
+     * @param noOfExpectedDeliveries no of messages the subscriber should have received.
+     * @param noOfMissingDeliveries no of expected messages which were not delivered.
+     * @param noOfOutOfOrderDeliveries no of messages delivered after a later message of the same publisher.
+     * @param noOfCorruptedDeliveries no of messages which were not published by any publisher of the test.
+     */
+    public void recordSubscriber(long noOfDeliveries, long noOfExpectedDeliveries, long noOfMissingDeliveries,
+                                 long noOfOutOfOrderDeliveries, long noOfCorruptedDeliveries) {
+        noOfSubscribers++;
+        if (noOfMissingDeliveries == 0) {
+            noOfCompleteSubscribers++;
+        } else {
+            lowestCompleteness = Math.min(lowestCompleteness, 1 - (double) noOfMissingDeliveries /
+                    noOfExpectedDeliveries);
+        }
+        this.noOfDeliveries += noOfDeliveries;
+        this.noOfExpectedDeliveries += noOfExpectedDeliveries;
+        this.noOfMissingDeliveries += noOfMissingDeliveries;
+        this.noOfOutOfOrderDeliveries += noOfOutOfOrderDeliveries;
+        this.noOfCorruptedDeliveries += noOfCorruptedDeliveries;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(noOfSubscribers);
+        out.writeLong(noOfCompleteSubscribers);
+        out.writeDouble(lowestCompleteness);
+        out.writeLong(noOfDeliveries);
+        out.writeLong(noOfExpectedDeliveries);
+        out.writeLong(noOfMissingDeliveries);
+        out.writeLong(noOfOutOfOrderDeliveries);
+        out.writeLong(noOfCorruptedDeliveries);
+    }
+
+    public static DeliveryMetrics readFrom(DataInput in) throws IOException {
+        DeliveryMetrics metrics = new DeliveryMetrics();
+        metrics.noOfSubscribers = in.readLong();
+        metrics.noOfCompleteSubscribers = in.readLong();
+        metrics.lowestCompleteness = in.readDouble();
+        metrics.noOfDeliveries = in.readLong();
+        metrics.noOfExpectedDeliveries = in.readLong();
+        metrics.noOfMissingDeliveries = in.readLong();
+        metrics.noOfOutOfOrderDeliveries = in.readLong();
+        metrics.noOfCorruptedDeliveries = in.readLong();
+        return metrics;
+    }
+
+    public long getNoOfSubscribers() {
+        return noOfSubscribers;
+    }
+
+    public long getNoOfCompleteSubscribers() {
+        return noOfCompleteSubscribers;
+    }
+
+    /**
+     * @return lowest completeness of a subscriber, from 0 to 1.
+     */
+    public double getLowestCompleteness() {
+        return lowestCompleteness;
+    }
+
+    public long getNoOfDeliveries() {
+        return noOfDeliveries;
+    }
+
+    public long getNoOfExpectedDeliveries() {
+        return noOfExpectedDeliveries;
+    }
+
+    public long getNoOfMissingDeliveries() {
+        return noOfMissingDeliveries;
+    }
+
+    public long getNoOfOutOfOrderDeliveries() {
+        return noOfOutOfOrderDeliveries;
+    }
+
+    public long getNoOfCorruptedDeliveries() {
+        return noOfCorruptedDeliveries;
+    }
+}
@@ -0,0 +1,216 @@
+package org.irunika.websocket.test.bench.metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load of the test bench itself during a test: how long tasks waited on the event loops, how many tasks and bytes
+ * were queued, and how much CPU, GC and allocation the process used. A test whose load generator was saturated
+ * measured the test bench rather than the server, so its result is flagged as invalid with the reasons.
+ * <p>
+ * Results of several processes are merged by adding the totals, so CPU use and GC time are averaged over the
+ * processes while the peaks are the highest of any process. Each process checks its own saturation.
+ *
+ * @author irunika
+ */
+public class GeneratorMetrics {
+
+    private final LatencyHistogram eventLoopLagHistogram = new LatencyHistogram();
+    private long noOfProcesses;
+    private long monitoredTimeInNanos;
+    private long cpuTimeInNanos;
+    private long cpuCapacityInNanos;
+    private double peakCpuUtilization;
+    private long noOfGcs;
+    private long gcTimeInMillis;
+    private long allocatedBytes;
+    private long maxNoOfPendingTasks;
+    private long maxPendingWriteBytes;
+    private final List<String> saturationReasons = new ArrayList<>();
+
+    public void add(GeneratorMetrics other) {
+        eventLoopLagHistogram.add(other.eventLoopLagHistogram);
+        noOfProcesses += other.noOfProcesses;
+        monitoredTimeInNanos += other.monitoredTimeInNanos;
+        cpuTimeInNanos += other.cpuTimeInNanos;
+        cpuCapacityInNanos += other.cpuCapacityInNanos;
+        peakCpuUtilization = Math.max(peakCpuUtilization, other.peakCpuUtilization);
+        noOfGcs += other.noOfGcs;
+        gcTimeInMillis += other.gcTimeInMillis;
+        allocatedBytes += other.allocatedBytes;
+        maxNoOfPendingTasks = Math.max(maxNoOfPendingTasks, other.maxNoOfPendingTasks);
+        maxPendingWriteBytes += other.maxPendingWriteBytes;
+        saturationReasons.addAll(other.saturationReasons);
+    }
+
+    /**
+     * Set the totals of a process over the time it was monitored.
+     *
+     * @param monitoredTimeInNanos time the process was monitored.
+     * @param cpuTimeInNanos CPU time used by the process, negative if the JVM cannot measure it.
+     * @param noOfCores no of cores available to the process.
+     * @param noOfGcs no of GC pauses.
+     * @param gcTimeInMillis time spent in GC pauses.
+     * @param allocatedBytes bytes allocated on the heap by all the threads.
+     */
+    public void setProcessTotals(long monitoredTimeInNanos, long cpuTimeInNanos, int noOfCores, long noOfGcs,
+                                 long gcTimeInMillis, long allocatedBytes) {
+        this.noOfProcesses = 1;
+        this.monitoredTimeInNanos = monitoredTimeInNanos;
+        if (cpuTimeInNanos >= 0) {
+            this.cpuTimeInNanos = cpuTimeInNanos;
+            this.cpuCapacityInNanos = monitoredTimeInNanos * noOfCores;
+        }
+        this.noOfGcs = noOfGcs;
+        this.gcTimeInMillis = gcTimeInMillis;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Set the peaks of a process.
+     *
+     * @param peakCpuUtilization highest CPU use of all the cores in a sample interval, from 0 to 1.
+     * @param maxNoOfPendingTasks highest no of tasks queued on an event loop.
+     * @param maxPendingWriteBytes highest no of bytes queued for writing on all the connections.
+     */
+    public void setPeaks(double peakCpuUtilization, long maxNoOfPendingTasks, long maxPendingWriteBytes) {
+        this.peakCpuUtilization = peakCpuUtilization;
+        this.maxNoOfPendingTasks = maxNoOfPendingTasks;
+        this.maxPendingWriteBytes = maxPendingWriteBytes;
+    }
+
+    /**
+     * Check whether the load generator of a process was saturated and record the reasons.
+     *
+     * @param maxLagInMillis p99 event loop lag above which the generator is saturated.
+     * @param maxCpuPercentage average CPU use of all the cores above which the generator is saturated.
+     * @param maxGcPercentage GC pause time in percent of the monitored time above which the generator is saturated.
+     */
+    public void checkSaturation(double maxLagInMillis, double maxCpuPercentage, double maxGcPercentage) {
+        double lagInMillis = eventLoopLagHistogram.getValueAtPercentile(99) / 1_000_000.0;
+        if (lagInMillis > maxLagInMillis) {
+            saturationReasons.add(String.format(Locale.ROOT, "p99 event loop lag of %.1f ms is above %.1f ms",
+                                                lagInMillis, maxLagInMillis));
+        }
+        double cpuPercentage = getCpuUtilization() * 100;
+        if (cpuPercentage > maxCpuPercentage) {
+            saturationReasons.add(String.format(Locale.ROOT, "average CPU use of %.1f%% is above %.1f%%",
+                                                cpuPercentage, maxCpuPercentage));
+        }
+        double gcPercentage = getGcTimeFraction() * 100;
+        if (gcPercentage > maxGcPercentage) {
+            saturationReasons.add(String.format(Locale.ROOT, "GC pauses took %.1f%% of the time, above %.1f%%",
+                                                gcPercentage, maxGcPercentage));
+        }
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        eventLoopLagHistogram.writeTo(out);
+        out.writeLong(noOfProcesses);
+        out.writeLong(monitoredTimeInNanos);
+        out.writeLong(cpuTimeInNanos);
+        out.writeLong(cpuCapacityInNanos);
+        out.writeDouble(peakCpuUtilization);
+        out.writeLong(noOfGcs);
+        out.writeLong(gcTimeInMillis);
+        out.writeLong(allocatedBytes);
+        out.writeLong(maxNoOfPendingTasks);
+        out.writeLong(maxPendingWriteBytes);
+        out.writeInt(saturationReasons.size());
+        for (String reason : saturationReasons) {
+            out.writeUTF(reason);
+        }
+    }
+
+    public static GeneratorMetrics readFrom(DataInput in) throws IOException {
+        GeneratorMetrics metrics = new GeneratorMetrics();
+        metrics.eventLoopLagHistogram.add(LatencyHistogram.readFrom(in));
+        metrics.noOfProcesses = in.readLong();
+        metrics.monitoredTimeInNanos = in.readLong();
+        metrics.cpuTimeInNanos = in.readLong();
+        metrics.cpuCapacityInNanos = in.readLong();
+        metrics.peakCpuUtilization = in.readDouble();
+        metrics.noOfGcs = in.readLong();
+        metrics.gcTimeInMillis = in.readLong();
+        metrics.allocatedBytes = in.readLong();
+        metrics.maxNoOfPendingTasks = in.readLong();
+        metrics.maxPendingWriteBytes = in.readLong();
+        int noOfReasons = in.readInt();
+        for (int i = 0; i < noOfReasons; i++) {
+            metrics.saturationReasons.add(in.readUTF());
+        }
+        return metrics;
+    }
+
+    /**
+     * @return times tasks waited on an event loop before they ran.
+     */
+    public LatencyHistogram getEventLoopLagHistogram() {
+        return eventLoopLagHistogram;
+    }
+
+    /**
+     * @return average CPU use of all the cores from 0 to 1, negative if it was not measured.
+     */
+    public double getCpuUtilization() {
+        return cpuCapacityInNanos > 0 ? (double) cpuTimeInNanos / cpuCapacityInNanos : -1;
+    }
+
+    /**
+     * @return highest CPU use of all the cores in a sample interval from 0 to 1.
+     */
+    public double getPeakCpuUtilization() {
+        return peakCpuUtilization;
+    }
+
+    public long getNoOfGcs() {
+        return noOfGcs;
+    }
+
+    public long getGcTimeInMillis() {
+        return gcTimeInMillis;
+    }
+
+    /**
+     * @return fraction of the monitored time spent in GC pauses.
+     */
+    public double getGcTimeFraction() {
+        return monitoredTimeInNanos > 0 ?
+                (double) TimeUnit.MILLISECONDS.toNanos(gcTimeInMillis) / monitoredTimeInNanos : 0;
+    }
+
+    /**
+     * @return bytes allocated per second, summed over the processes.
+     */
+    public double getAllocationRate() {
+        return monitoredTimeInNanos > 0 ?
+                (double) allocatedBytes * noOfProcesses / monitoredTimeInNanos * TimeUnit.SECONDS.toNanos(1) : 0;
+    }
+
+    public long getMaxNoOfPendingTasks() {
+        return maxNoOfPendingTasks;
+    }
+
+    /**
+     * @return highest no of bytes queued for writing, summed over the processes.
+     */
+    public long getMaxPendingWriteBytes() {
+        return maxPendingWriteBytes;
+    }
+
+    /**
+     * @return true if the load generator of any process was saturated.
+     */
+    public boolean isSaturated() {
+        return !saturationReasons.isEmpty();
+    }
+
+    public List<String> getSaturationReasons() {
+        return saturationReasons;
+    }
+}
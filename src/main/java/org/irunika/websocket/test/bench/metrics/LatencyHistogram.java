@@ -0,0 +1,253 @@
+package org.irunika.websocket.test.bench.metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Log bucketed histogram for latency values in nanoseconds.
+ * Each power of two range is split into {@value #SUB_BUCKET_COUNT} linear sub buckets, which keeps the relative
+ * error of a recorded value under 1/{@value #SUB_BUCKET_COUNT}. Recording does not allocate and two histograms
+ * can be merged by adding their bucket counts, eg: to combine the histograms of several processes after they are
+ * transferred with {@link #writeTo(DataOutput)} and {@link #readFrom(DataInput)}.
+ * <p>
+ * A histogram is not thread safe. It should be written by a single thread, eg: the event loop of a connection.
+ *
+ * @author irunika
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // 2^40 ns is around 18 minutes. Larger values are counted in the last bucket.
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long sum;
+    private long minValue = Long.MAX_VALUE;
+    private long maxValue;
+
+    /**
+     * Record a value.
+     *
+     * @param value value in nanoseconds. Negative values are recorded as 0.
+     */
+    public void recordValue(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[bucketIndex(value)]++;
+        totalCount++;
+        sum += value;
+        if (value < minValue) {
+            minValue = value;
+        }
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+
+    /**
+     * Add all the values of another histogram to this histogram.
+     *
+     * @param other histogram to be merged into this.
+     */
+    public void add(LatencyHistogram other) {
+        long[] otherCounts = other.counts;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += otherCounts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        minValue = Math.min(minValue, other.minValue);
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    /**
+     * Remove the values of an earlier copy of this histogram, leaving only the values recorded after the copy.
+     * The min and max values are recomputed from the buckets, so they are approximate after this.
+     *
+     * @param earlier an earlier copy of this histogram.
+     */
+    public void subtract(LatencyHistogram earlier) {
+        long[] earlierCounts = earlier.counts;
+        int lowestIndex = -1;
+        int highestIndex = -1;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] -= earlierCounts[i];
+            if (counts[i] > 0) {
+                if (lowestIndex < 0) {
+                    lowestIndex = i;
+                }
+                highestIndex = i;
+            }
+        }
+        totalCount -= earlier.totalCount;
+        sum -= earlier.sum;
+        if (highestIndex < 0) {
+            minValue = Long.MAX_VALUE;
+            maxValue = 0;
+        } else {
+            minValue = Math.max(minValue, lowestValueInBucket(lowestIndex));
+            maxValue = Math.min(maxValue, highestValueInBucket(highestIndex));
+        }
+    }
+
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        sum = 0;
+        minValue = Long.MAX_VALUE;
+        maxValue = 0;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMinValue() {
+        return totalCount == 0 ? 0 : minValue;
+    }
+
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * @return sum of the recorded values in nanoseconds.
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Get the no of values up to a given value, eg: for the cumulative buckets of another histogram format.
+     * Values are counted if the whole bucket which they are in is at or below the given value.
+     *
+     * @param value value in nanoseconds.
+     * @return no of recorded values at or below the value.
+     */
+    public long getCountAtOrBelow(long value) {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT && highestValueInBucket(i) <= value; i++) {
+            count += counts[i];
+        }
+        return count;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    /**
+     * Get the value at a given percentile.
+     * The returned value is the upper bound of the bucket which contains the percentile, capped by the max value.
+     *
+     * @param percentile percentile between 0 and 100.
+     * @return value at the given percentile in nanoseconds.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long countAtPercentile = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount);
+        countAtPercentile = Math.max(countAtPercentile, 1);
+        long runningCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            runningCount += counts[i];
+            if (runningCount >= countAtPercentile) {
+                return Math.min(highestValueInBucket(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * Write the histogram in a compact binary form, which only contains the non empty buckets.
+     *
+     * @param out output to write to.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(totalCount);
+        out.writeLong(sum);
+        out.writeLong(minValue);
+        out.writeLong(maxValue);
+        int noOfBuckets = 0;
+        for (long count : counts) {
+            if (count != 0) {
+                noOfBuckets++;
+            }
+        }
+        out.writeInt(noOfBuckets);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts[i] != 0) {
+                out.writeShort(i);
+                out.writeLong(counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Read a histogram written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in input to read from.
+     * @return the histogram.
+     * @throws IOException if reading fails or the input is not a histogram.
+     */
+    public static LatencyHistogram readFrom(DataInput in) throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.totalCount = in.readLong();
+        histogram.sum = in.readLong();
+        histogram.minValue = in.readLong();
+        histogram.maxValue = in.readLong();
+        int noOfBuckets = in.readInt();
+        for (int i = 0; i < noOfBuckets; i++) {
+            int index = in.readUnsignedShort();
+            if (index >= BUCKET_COUNT) {
+                throw new IOException("Invalid histogram bucket: " + index);
+            }
+            histogram.counts[index] = in.readLong();
+        }
+        return histogram;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long lowestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        return (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+    }
+
+    static long highestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        return lowestValueInBucket(index) + (1L << shift) - 1;
+    }
+}
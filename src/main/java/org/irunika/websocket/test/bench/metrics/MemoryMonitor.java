@@ -0,0 +1,102 @@
+package org.irunika.websocket.test.bench.metrics;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.internal.PlatformDependent;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the memory used by the test bench while a test is running and keeps the peaks.
+ * Heap memory includes garbage which is not collected yet. Direct memory is the memory of the JDK direct buffer
+ * pool, plus the pooled direct memory of Netty when Netty allocates it without a cleaner, which the JDK does not
+ * see.
+ *
+ * @author irunika
+ */
+public class MemoryMonitor implements Runnable {
+
+    private static final long SAMPLE_INTERVAL_IN_MILLIS = 100;
+
+    private final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+    private final BufferPoolMXBean directBufferPool;
+    private final ScheduledExecutorService scheduler;
+    private volatile long peakHeapMemory;
+    private volatile long peakDirectMemory;
+
+    public MemoryMonitor() {
+        BufferPoolMXBean direct = null;
+        List<BufferPoolMXBean> bufferPools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+        for (BufferPoolMXBean bufferPool : bufferPools) {
+            if ("direct".equals(bufferPool.getName())) {
+                direct = bufferPool;
+            }
+        }
+        this.directBufferPool = direct;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "memory-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleAtFixedRate(this, 0, SAMPLE_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sampling. A last sample is taken before stopping.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(SAMPLE_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        run();
+    }
+
+    @Override
+    public synchronized void run() {
+        peakHeapMemory = Math.max(peakHeapMemory, getUsedHeapMemory());
+        peakDirectMemory = Math.max(peakDirectMemory, getUsedDirectMemory());
+    }
+
+    /**
+     * @return heap memory used now in bytes.
+     */
+    public long getUsedHeapMemory() {
+        return memoryMXBean.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return direct memory used now in bytes.
+     */
+    public long getUsedDirectMemory() {
+        long directMemory = directBufferPool != null ? directBufferPool.getMemoryUsed() : 0;
+        if (PlatformDependent.useDirectBufferNoCleaner()) {
+            directMemory += PooledByteBufAllocator.DEFAULT.metric().usedDirectMemory();
+        }
+        return directMemory;
+    }
+
+    /**
+     * @return peak heap memory used in bytes.
+     */
+    public long getPeakHeapMemory() {
+        return peakHeapMemory;
+    }
+
+    /**
+     * @return peak direct memory used in bytes.
+     */
+    public long getPeakDirectMemory() {
+        return peakDirectMemory;
+    }
+}
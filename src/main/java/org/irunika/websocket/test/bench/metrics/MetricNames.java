@@ -0,0 +1,29 @@
+package org.irunika.websocket.test.bench.metrics;
+
+/**
+ * Names of the metrics which are registered for every test.
+ *
+ * @author irunika
+ */
+public final class MetricNames {
+
+    public static final String CONNECTIONS_ACTIVE = "connections.active";
+    public static final String CONNECTIONS_MAX_ACTIVE = "connections.max_active";
+    public static final String CONNECTIONS_ESTABLISHED = "connections.established";
+    public static final String CONNECTIONS_FAILED = "connections.failed";
+    public static final String MESSAGES_RECEIVED = "messages.received";
+    public static final String MESSAGES_OUT_OF_ORDER = "messages.out_of_order";
+    public static final String MESSAGES_MISSING = "messages.missing";
+    public static final String MESSAGES_DUPLICATE = "messages.duplicate";
+    public static final String MESSAGES_CORRUPTED = "messages.corrupted";
+    public static final String ROUND_TRIP_LATENCY = "latency.round_trip";
+    public static final String GENERATOR_EVENT_LOOP_LAG = "generator.event_loop_lag";
+    public static final String GENERATOR_PENDING_TASKS = "generator.pending_tasks";
+    public static final String GENERATOR_PENDING_WRITE_BYTES = "generator.pending_write_bytes";
+    public static final String GENERATOR_CPU_PERCENTAGE = "generator.cpu_percentage";
+    public static final String GENERATOR_GC_TIME = "generator.gc_time_ms";
+    public static final String GENERATOR_ALLOCATED_BYTES = "generator.allocated_bytes";
+
+    private MetricNames() {
+    }
+}
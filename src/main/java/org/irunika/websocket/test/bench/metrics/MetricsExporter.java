@@ -0,0 +1,140 @@
+package org.irunika.websocket.test.bench.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Exposes the metrics of a running test to monitoring systems: in the Prometheus text format over HTTP at
+ * {@code /metrics}, and as attributes of an MBean. Both read a snapshot of the registry which is taken by the
+ * thread of the request and reused for a second, so scrapes never run on or block the event loops and several
+ * scrapers do not merge the histograms more than once a second.
+ *
+ * @author irunika
+ */
+public class MetricsExporter {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsExporter.class);
+
+    private static final String OBJECT_NAME = "org.irunika.websocket.test.bench:type=Metrics";
+    private static final long MAX_SNAPSHOT_AGE_IN_MILLIS = 1000;
+
+    private final MetricsRegistry registry;
+    private MetricsSnapshot snapshot;
+    private HttpServer httpServer;
+    private ExecutorService httpExecutor;
+    private ObjectName objectName;
+
+    private MetricsExporter(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Start exporting the metrics of a test. Failing to export is logged and does not fail the test.
+     *
+     * @param registry registry of the test.
+     * @param httpPort port of the HTTP endpoint, 0 for none.
+     * @param jmx true if the MBean should be registered.
+     * @return the exporter, null if nothing is exported.
+     */
+    public static MetricsExporter start(MetricsRegistry registry, int httpPort, boolean jmx) {
+        if (httpPort <= 0 && !jmx) {
+            return null;
+        }
+        MetricsExporter exporter = new MetricsExporter(registry);
+        if (httpPort > 0) {
+            exporter.startHttpServer(httpPort);
+        }
+        if (jmx) {
+            exporter.registerMBean();
+        }
+        return exporter;
+    }
+
+    private void startHttpServer(int port) {
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        } catch (IOException e) {
+            log.warn("Metrics are not served over HTTP, cannot listen on port {}: {}", port, e.toString());
+            return;
+        }
+        httpExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpServer.setExecutor(httpExecutor);
+        httpServer.createContext("/metrics", this::serve);
+        httpServer.start();
+        log.info("Serving Prometheus metrics at http://localhost:{}/metrics", port);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = getSnapshot().toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void registerMBean() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            objectName = new ObjectName(OBJECT_NAME);
+            mBeanServer.registerMBean(new MetricsMBean(this::getSnapshot), objectName);
+            log.info("Metrics are registered as the MBean {}", OBJECT_NAME);
+        } catch (JMException e) {
+            log.warn("Metrics are not registered as an MBean: {}", e.toString());
+            objectName = null;
+        }
+    }
+
+    /**
+     * @return a snapshot of the registry which is at most a second old.
+     */
+    public synchronized MetricsSnapshot getSnapshot() {
+        if (snapshot == null ||
+                System.currentTimeMillis() - snapshot.getTimeInMillis() >= MAX_SNAPSHOT_AGE_IN_MILLIS) {
+            snapshot = MetricsSnapshot.take(registry);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Stop the HTTP endpoint and unregister the MBean.
+     */
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpExecutor.shutdownNow();
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                log.warn("Cannot unregister the metrics MBean: {}", e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.irunika.websocket.test.bench.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * Read only MBean with an attribute for each counter and gauge of a snapshot, and the count, percentiles and max of
+ * each latency histogram in milliseconds, eg: {@code latency.round_trip.p99}. Attributes are read from the latest
+ * snapshot of the exporter, so the set of attributes follows the metrics which are registered.
+ *
+ * @author irunika
+ */
+class MetricsMBean implements DynamicMBean {
+
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Supplier<MetricsSnapshot> snapshot;
+
+    /**
+     * @param snapshot supplier of the latest snapshot.
+     */
+    MetricsMBean(Supplier<MetricsSnapshot> snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        MetricsSnapshot current = snapshot.get();
+        Long value = current.getValues().get(attribute);
+        if (value != null) {
+            return value;
+        }
+        int separator = attribute.lastIndexOf('.');
+        LatencyHistogram histogram = separator > 0 ? current.getHistograms().get(attribute.substring(0, separator)) :
+                null;
+        if (histogram == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        String statistic = attribute.substring(separator + 1);
+        if ("count".equals(statistic)) {
+            return histogram.getTotalCount();
+        }
+        if ("max".equals(statistic)) {
+            return toMillis(histogram.getMaxValue());
+        }
+        for (int i = 0; i < PERCENTILE_NAMES.length; i++) {
+            if (PERCENTILE_NAMES[i].equals(statistic)) {
+                return toMillis(histogram.getValueAtPercentile(PERCENTILES[i]));
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Metrics may be registered after the attributes were listed
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("Metrics are read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("No operations: " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        MetricsSnapshot current = snapshot.get();
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : current.getValues().keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false));
+        }
+        for (Map.Entry<String, LatencyHistogram> histogram : current.getHistograms().entrySet()) {
+            String name = histogram.getKey();
+            attributes.add(new MBeanAttributeInfo(name + ".count", Long.class.getName(), name + " count", true,
+                                                  false, false));
+            for (String percentile : PERCENTILE_NAMES) {
+                attributes.add(new MBeanAttributeInfo(name + "." + percentile, Double.class.getName(),
+                                                      name + " " + percentile + " in ms", true, false, false));
+            }
+            attributes.add(new MBeanAttributeInfo(name + ".max", Double.class.getName(), name + " max in ms", true,
+                                                  false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Live metrics of the running test",
+                             attributes.toArray(new MBeanAttributeInfo[0]), new MBeanConstructorInfo[0],
+                             new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,142 @@
+package org.irunika.websocket.test.bench.metrics;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Named metrics of a test.
+ * Metrics are not updated through the registry. Hot path metrics are owned by the thread which updates them, eg:
+ * a {@link Counter} or a {@link LatencyHistogram} of a connection which is updated only by its event loop, or are
+ * striped across threads like a {@link LongAdder}. The registry only knows how to read them, and merges the values
+ * of all the owners without locking when a snapshot is taken. Values of owners which are being updated at the time
+ * of a snapshot may be off by the few updates which are in progress.
+ *
+ * @author irunika
+ */
+public class MetricsRegistry {
+
+    private final Map<String, LongSupplier> values = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<LatencyHistogram>> histograms = new ConcurrentHashMap<>();
+    private final Set<String> counters = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create a counter which may be updated by several threads at once.
+     *
+     * @param name name of the counter.
+     * @return the counter.
+     */
+    public LongAdder counter(String name) {
+        LongAdder counter = new LongAdder();
+        register(name, counter::sum);
+        counters.add(name);
+        return counter;
+    }
+
+    /**
+     * Register a value which is read when a snapshot is taken.
+     *
+     * @param name name of the gauge.
+     * @param value supplier of the current value, which is called from the thread taking the snapshot.
+     */
+    public void gauge(String name, LongSupplier value) {
+        register(name, value);
+    }
+
+    /**
+     * Register a value which is the sum of the counters of several owners, eg: a counter of each connection.
+     *
+     * @param name name of the value.
+     * @param owners owners of the values. Owners may be added while the test is running.
+     * @param value reads the value of an owner.
+     */
+    public <T> void sum(String name, Iterable<T> owners, ToLongFunction<T> value) {
+        register(name, () -> {
+            long sum = 0;
+            for (T owner : owners) {
+                sum += value.applyAsLong(owner);
+            }
+            return sum;
+        });
+        counters.add(name);
+    }
+
+    /**
+     * Register a histogram which merges the histograms of several owners, eg: the latency histogram of each
+     * connection.
+     *
+     * @param name name of the histogram.
+     * @param owners owners of the histograms. Owners may be added while the test is running.
+     * @param histogram reads the histogram of an owner, which may return null if the owner has none yet.
+     */
+    public <T> void histogram(String name, Iterable<T> owners, Function<T, LatencyHistogram> histogram) {
+        if (histograms.putIfAbsent(name, () -> {
+            LatencyHistogram merged = new LatencyHistogram();
+            for (T owner : owners) {
+                LatencyHistogram ownerHistogram = histogram.apply(owner);
+                if (ownerHistogram != null) {
+                    merged.add(ownerHistogram);
+                }
+            }
+            return merged;
+        }) != null) {
+            throw new IllegalArgumentException("Histogram is already registered: " + name);
+        }
+    }
+
+    private void register(String name, LongSupplier value) {
+        if (values.putIfAbsent(name, value) != null) {
+            throw new IllegalArgumentException("Metric is already registered: " + name);
+        }
+    }
+
+    /**
+     * @param name name of a counter or a gauge.
+     * @return current value, 0 if no such metric is registered.
+     */
+    public long get(String name) {
+        LongSupplier value = values.get(name);
+        return value != null ? value.getAsLong() : 0;
+    }
+
+    /**
+     * @param name name of a counter or a gauge.
+     * @return true if the metric is a counter, which only goes up while a test is running.
+     */
+    public boolean isCounter(String name) {
+        return counters.contains(name);
+    }
+
+    /**
+     * @param name name of a histogram.
+     * @return a merged copy of the histogram, an empty histogram if no such histogram is registered.
+     */
+    public LatencyHistogram getHistogram(String name) {
+        Supplier<LatencyHistogram> histogram = histograms.get(name);
+        return histogram != null ? histogram.get() : new LatencyHistogram();
+    }
+
+    /**
+     * @return current values of all the counters and gauges, sorted by name.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        values.forEach((name, value) -> snapshot.put(name, value.getAsLong()));
+        return snapshot;
+    }
+
+    /**
+     * @return merged copies of all the histograms, sorted by name.
+     */
+    public Map<String, LatencyHistogram> snapshotHistograms() {
+        Map<String, LatencyHistogram> snapshot = new TreeMap<>();
+        histograms.forEach((name, histogram) -> snapshot.put(name, histogram.get()));
+        return snapshot;
+    }
+}
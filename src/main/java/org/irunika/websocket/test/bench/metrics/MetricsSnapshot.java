@@ -0,0 +1,95 @@
+package org.irunika.websocket.test.bench.metrics;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Values of all the metrics of a registry at one point in time.
+ * A snapshot is immutable once taken, so exporters can read it from any thread without touching the owners of the
+ * metrics. It can be written in the Prometheus text exposition format, where counters get a {@code _total} suffix
+ * and latency histograms are written in seconds with a fixed set of cumulative buckets.
+ *
+ * @author irunika
+ */
+public class MetricsSnapshot {
+
+    private static final String PREFIX = "wsbench_";
+    private static final long[] BUCKET_BOUNDS_IN_MICROS = {100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000,
+            50_000, 100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000};
+
+    private final long timeInMillis;
+    private final Map<String, Long> values;
+    private final Map<String, LatencyHistogram> histograms;
+    private final MetricsRegistry registry;
+
+    private MetricsSnapshot(MetricsRegistry registry) {
+        this.registry = registry;
+        this.timeInMillis = System.currentTimeMillis();
+        this.values = registry.snapshot();
+        this.histograms = registry.snapshotHistograms();
+    }
+
+    /**
+     * Take a snapshot of a registry. Called from the thread of the exporter, never from an event loop.
+     *
+     * @param registry registry of the running test.
+     * @return the snapshot.
+     */
+    public static MetricsSnapshot take(MetricsRegistry registry) {
+        return new MetricsSnapshot(registry);
+    }
+
+    public long getTimeInMillis() {
+        return timeInMillis;
+    }
+
+    /**
+     * @return values of the counters and gauges, sorted by name.
+     */
+    public Map<String, Long> getValues() {
+        return values;
+    }
+
+    /**
+     * @return merged histograms, sorted by name.
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * @return the snapshot in the Prometheus text exposition format, version 0.0.4.
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        values.forEach((name, value) -> {
+            boolean counter = registry.isCounter(name);
+            String metricName = PREFIX + sanitize(name) + (counter ? "_total" : "");
+            out.append("# TYPE ").append(metricName).append(counter ? " counter\n" : " gauge\n");
+            out.append(metricName).append(' ').append(value).append('\n');
+        });
+        histograms.forEach((name, histogram) -> {
+            String metricName = PREFIX + sanitize(name) + "_seconds";
+            out.append("# TYPE ").append(metricName).append(" histogram\n");
+            for (long boundInMicros : BUCKET_BOUNDS_IN_MICROS) {
+                out.append(metricName).append("_bucket{le=\"").append(toSeconds(boundInMicros * 1000))
+                        .append("\"} ")
+                        .append(histogram.getCountAtOrBelow(TimeUnit.MICROSECONDS.toNanos(boundInMicros)))
+                        .append('\n');
+            }
+            out.append(metricName).append("_bucket{le=\"+Inf\"} ").append(histogram.getTotalCount()).append('\n');
+            out.append(metricName).append("_sum ").append(toSeconds(histogram.getSum())).append('\n');
+            out.append(metricName).append("_count ").append(histogram.getTotalCount()).append('\n');
+        });
+        return out.toString();
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    private static String toSeconds(long nanos) {
+        return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+}
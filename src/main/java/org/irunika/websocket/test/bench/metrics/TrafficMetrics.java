@@ -0,0 +1,181 @@
+package org.irunika.websocket.test.bench.metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Byte and compression counters of the traffic of a connection, or of all the connections of a test.
+ * Payload bytes are the content of the data frames before compression and after decompression. Wire bytes are
+ * what is written to and read from the socket after the WebSocket upgrade, including the frame headers but
+ * excluding TLS records. Compression and decompression times are the CPU time spent by the event loops in the
+ * deflate codec.
+ * <p>
+ * Counters of a connection are updated by its event loop and should be read after the channel is closed.
+ *
+ * @author irunika
+ */
+public class TrafficMetrics {
+
+    private long noOfConnections;
+    private long noOfCompressedConnections;
+    private long payloadBytesSent;
+    private long payloadBytesReceived;
+    private long wireBytesSent;
+    private long wireBytesReceived;
+    private long noOfFramesCompressed;
+    private long noOfFramesDecompressed;
+    private long compressionTimeInNanos;
+    private long decompressionTimeInNanos;
+    private boolean upgraded;
+    private boolean compressed;
+
+    public void add(TrafficMetrics other) {
+        noOfConnections += other.noOfConnections;
+        noOfCompressedConnections += other.noOfCompressedConnections;
+        payloadBytesSent += other.payloadBytesSent;
+        payloadBytesReceived += other.payloadBytesReceived;
+        wireBytesSent += other.wireBytesSent;
+        wireBytesReceived += other.wireBytesReceived;
+        noOfFramesCompressed += other.noOfFramesCompressed;
+        noOfFramesDecompressed += other.noOfFramesDecompressed;
+        compressionTimeInNanos += other.compressionTimeInNanos;
+        decompressionTimeInNanos += other.decompressionTimeInNanos;
+    }
+
+    /**
+     * Count a connection which completed the WebSocket upgrade.
+     *
+     * @param compressed true if a compression extension was negotiated.
+     */
+    public void recordUpgrade(boolean compressed) {
+        this.upgraded = true;
+        this.compressed = compressed;
+        noOfConnections++;
+        if (compressed) {
+            noOfCompressedConnections++;
+        }
+    }
+
+    /**
+     * @return true if the WebSocket upgrade of the connection is completed.
+     */
+    public boolean isUpgraded() {
+        return upgraded;
+    }
+
+    /**
+     * @return true if a compression extension was negotiated for the connection.
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public void recordPayloadSent(int bytes) {
+        payloadBytesSent += bytes;
+    }
+
+    public void recordPayloadReceived(int bytes) {
+        payloadBytesReceived += bytes;
+    }
+
+    public void recordWireBytesSent(int bytes) {
+        wireBytesSent += bytes;
+    }
+
+    public void recordWireBytesReceived(int bytes) {
+        wireBytesReceived += bytes;
+    }
+
+    public void recordCompression(long timeInNanos) {
+        noOfFramesCompressed++;
+        compressionTimeInNanos += timeInNanos;
+    }
+
+    public void recordDecompression(long timeInNanos) {
+        noOfFramesDecompressed++;
+        decompressionTimeInNanos += timeInNanos;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(noOfConnections);
+        out.writeLong(noOfCompressedConnections);
+        out.writeLong(payloadBytesSent);
+        out.writeLong(payloadBytesReceived);
+        out.writeLong(wireBytesSent);
+        out.writeLong(wireBytesReceived);
+        out.writeLong(noOfFramesCompressed);
+        out.writeLong(noOfFramesDecompressed);
+        out.writeLong(compressionTimeInNanos);
+        out.writeLong(decompressionTimeInNanos);
+    }
+
+    public static TrafficMetrics readFrom(DataInput in) throws IOException {
+        TrafficMetrics metrics = new TrafficMetrics();
+        metrics.noOfConnections = in.readLong();
+        metrics.noOfCompressedConnections = in.readLong();
+        metrics.payloadBytesSent = in.readLong();
+        metrics.payloadBytesReceived = in.readLong();
+        metrics.wireBytesSent = in.readLong();
+        metrics.wireBytesReceived = in.readLong();
+        metrics.noOfFramesCompressed = in.readLong();
+        metrics.noOfFramesDecompressed = in.readLong();
+        metrics.compressionTimeInNanos = in.readLong();
+        metrics.decompressionTimeInNanos = in.readLong();
+        return metrics;
+    }
+
+    public long getNoOfConnections() {
+        return noOfConnections;
+    }
+
+    public long getNoOfCompressedConnections() {
+        return noOfCompressedConnections;
+    }
+
+    public long getPayloadBytesSent() {
+        return payloadBytesSent;
+    }
+
+    public long getPayloadBytesReceived() {
+        return payloadBytesReceived;
+    }
+
+    public long getWireBytesSent() {
+        return wireBytesSent;
+    }
+
+    public long getWireBytesReceived() {
+        return wireBytesReceived;
+    }
+
+    /**
+     * @return payload bytes sent per wire byte sent, 0 if nothing was sent.
+     */
+    public double getCompressionRatioSent() {
+        return wireBytesSent > 0 ? (double) payloadBytesSent / wireBytesSent : 0;
+    }
+
+    /**
+     * @return payload bytes received per wire byte received, 0 if nothing was received.
+     */
+    public double getCompressionRatioReceived() {
+        return wireBytesReceived > 0 ? (double) payloadBytesReceived / wireBytesReceived : 0;
+    }
+
+    public long getNoOfFramesCompressed() {
+        return noOfFramesCompressed;
+    }
+
+    public long getNoOfFramesDecompressed() {
+        return noOfFramesDecompressed;
+    }
+
+    public long getCompressionTimeInNanos() {
+        return compressionTimeInNanos;
+    }
+
+    public long getDecompressionTimeInNanos() {
+        return decompressionTimeInNanos;
+    }
+}
@@ -0,0 +1,247 @@
+package org.irunika.websocket.test.bench.replay;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Recorded WebSocket session which is read through memory mapped I/O, so messages are read from the page cache
+ * when they are sent instead of being loaded onto the heap. Only the offsets of the records of each connection
+ * are kept on the heap.
+ * <p>
+ * The file starts with the magic no {@code 0x57535346} and the format version as ints, followed by one record
+ * per message in big endian:
+ * <pre>
+ * int  connection id
+ * long time since the start of the session in microseconds
+ * byte direction, 0 for a message sent by the client and 1 for a message sent by the server
+ * byte 1 for a text frame and 2 for a binary frame
+ * int  payload length
+ * byte[] payload
+ * </pre>
+ * Records of the connections may be interleaved, but the records of each connection must be in time order.
+ * Messages sent by the server are the expected responses of the connection. Files larger than 2 GB are mapped in
+ * several segments which overlap by the max record size, so every record can be read from one segment.
+ *
+ * @author irunika
+ */
+public class SessionFile {
+
+    static final int MAGIC = 0x57535346;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 18;
+    static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
+    static final byte SENT_BY_CLIENT = 0;
+    static final byte SENT_BY_SERVER = 1;
+    static final byte TEXT = 1;
+    static final byte BINARY = 2;
+
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final Path path;
+    private final MappedByteBuffer[] segments;
+    private final List<Conversation> conversations;
+
+    private SessionFile(Path path, MappedByteBuffer[] segments, List<Conversation> conversations) {
+        this.path = path;
+        this.segments = segments;
+        this.conversations = conversations;
+    }
+
+    /**
+     * Map a session file and index the records of each connection.
+     *
+     * @param path session file.
+     * @return the mapped session.
+     * @throws IOException if the file cannot be read or it is not a valid session file.
+     */
+    public static SessionFile open(Path path) throws IOException {
+        MappedByteBuffer[] segments;
+        long size;
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = fileChannel.size();
+            segments = new MappedByteBuffer[(int) Math.max((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE, 1)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = i * SEGMENT_SIZE;
+                long length = Math.min(SEGMENT_SIZE + RECORD_HEADER_SIZE + MAX_PAYLOAD_SIZE, size - position);
+                segments[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.max(length, 0));
+            }
+        }
+        if (size < HEADER_SIZE || segments[0].getInt(0) != MAGIC) {
+            throw new IOException("Not a session file: " + path);
+        }
+        if (segments[0].getInt(4) != VERSION) {
+            throw new IOException("Session file " + path + " has version " + segments[0].getInt(4) +
+                                          ", expected " + VERSION);
+        }
+
+        Map<Integer, Conversation> conversations = new TreeMap<>();
+        SessionFile sessionFile = new SessionFile(path, segments, Collections.emptyList());
+        long offset = HEADER_SIZE;
+        while (offset < size) {
+            if (offset + RECORD_HEADER_SIZE > size) {
+                throw new IOException("Truncated record at " + offset + " of " + path);
+            }
+            int length = sessionFile.getPayloadLength(offset);
+            byte direction = sessionFile.segment(offset).get(sessionFile.position(offset) + 12);
+            byte frameType = sessionFile.segment(offset).get(sessionFile.position(offset) + 13);
+            if (length < 0 || length > MAX_PAYLOAD_SIZE || offset + RECORD_HEADER_SIZE + length > size ||
+                    (direction != SENT_BY_CLIENT && direction != SENT_BY_SERVER) ||
+                    (frameType != TEXT && frameType != BINARY)) {
+                throw new IOException("Invalid record at " + offset + " of " + path);
+            }
+            int connectionId = sessionFile.segment(offset).getInt(sessionFile.position(offset));
+            long time = sessionFile.getTimeInMicros(offset);
+            Conversation conversation = conversations.computeIfAbsent(connectionId, Conversation::new);
+            if (time < conversation.lastTimeInMicros) {
+                throw new IOException("Records of connection " + connectionId + " are not in time order at " +
+                                              offset + " of " + path);
+            }
+            conversation.add(offset, time, direction == SENT_BY_CLIENT);
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        List<Conversation> conversationList = new ArrayList<>(conversations.values());
+        conversationList.forEach(Conversation::trim);
+        return new SessionFile(path, segments, Collections.unmodifiableList(conversationList));
+    }
+
+    private ByteBuffer segment(long offset) {
+        return segments[(int) (offset / SEGMENT_SIZE)];
+    }
+
+    private int position(long offset) {
+        return (int) (offset % SEGMENT_SIZE);
+    }
+
+    /**
+     * @return recorded connections, sorted by connection id.
+     */
+    public List<Conversation> getConversations() {
+        return conversations;
+    }
+
+    /**
+     * @param offset offset of a record.
+     * @return time of the record since the start of the session in microseconds.
+     */
+    public long getTimeInMicros(long offset) {
+        return segment(offset).getLong(position(offset) + 4);
+    }
+
+    /**
+     * @param offset offset of a record.
+     * @return true if the message was sent by the client, false if it is a response of the server.
+     */
+    public boolean isSentByClient(long offset) {
+        return segment(offset).get(position(offset) + 12) == SENT_BY_CLIENT;
+    }
+
+    /**
+     * @param offset offset of a record.
+     * @return true if the message is a binary frame, false if it is a text frame.
+     */
+    public boolean isBinary(long offset) {
+        return segment(offset).get(position(offset) + 13) == BINARY;
+    }
+
+    public int getPayloadLength(long offset) {
+        return segment(offset).getInt(position(offset) + 14);
+    }
+
+    /**
+     * @param offset offset of a record.
+     * @return read only view of the payload in the mapped file, which is not copied.
+     */
+    public ByteBuffer getPayload(long offset) {
+        ByteBuffer payload = segment(offset).duplicate();
+        int position = position(offset) + RECORD_HEADER_SIZE;
+        payload.limit(position + getPayloadLength(offset)).position(position);
+        return payload.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+
+    /**
+     * Records of one recorded connection, in time order.
+     */
+    public static class Conversation {
+
+        private final int connectionId;
+        private long[] offsets = new long[16];
+        private int noOfRecords;
+        private int noOfSentMessages;
+        private int noOfResponses;
+        private long lastTimeInMicros;
+
+        Conversation(int connectionId) {
+            this.connectionId = connectionId;
+        }
+
+        private void add(long offset, long timeInMicros, boolean sentByClient) {
+            if (noOfRecords == offsets.length) {
+                offsets = Arrays.copyOf(offsets, noOfRecords * 2);
+            }
+            offsets[noOfRecords++] = offset;
+            lastTimeInMicros = timeInMicros;
+            if (sentByClient) {
+                noOfSentMessages++;
+            } else {
+                noOfResponses++;
+            }
+        }
+
+        private void trim() {
+            offsets = Arrays.copyOf(offsets, noOfRecords);
+        }
+
+        public int getConnectionId() {
+            return connectionId;
+        }
+
+        public int getNoOfRecords() {
+            return noOfRecords;
+        }
+
+        /**
+         * @param index index of a record of the connection.
+         * @return offset of the record in the session file.
+         */
+        public long getOffset(int index) {
+            return offsets[index];
+        }
+
+        /**
+         * @return no of messages sent by the client.
+         */
+        public int getNoOfSentMessages() {
+            return noOfSentMessages;
+        }
+
+        /**
+         * @return no of responses sent by the server.
+         */
+        public int getNoOfResponses() {
+            return noOfResponses;
+        }
+
+        /**
+         * @return time of the last record since the start of the session in microseconds.
+         */
+        public long getLastTimeInMicros() {
+            return lastTimeInMicros;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.irunika.websocket.test.bench.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+
+/**
+ * Writes a {@link SessionFile}, record by record.
+ *
+ * @author irunika
+ */
+public class SessionFileWriter implements Closeable {
+
+    private final DataOutputStream out;
+    private long noOfRecords;
+
+    public SessionFileWriter(Path path) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+        out.writeInt(SessionFile.MAGIC);
+        out.writeInt(SessionFile.VERSION);
+    }
+
+    /**
+     * Append a message of a connection.
+     *
+     * @param connectionId id of the recorded connection.
+     * @param timeInMicros time since the start of the session in microseconds.
+     * @param sentByClient true if the client sent the message, false if it is a response of the server.
+     * @param binary true for a binary frame, false for a text frame.
+     * @param payload payload of the message.
+     */
+    public void write(int connectionId, long timeInMicros, boolean sentByClient, boolean binary, byte[] payload)
+            throws IOException {
+        if (payload.length > SessionFile.MAX_PAYLOAD_SIZE) {
+            throw new IOException("Message of " + payload.length + " bytes is larger than the max of " +
+                                          SessionFile.MAX_PAYLOAD_SIZE);
+        }
+        out.writeInt(connectionId);
+        out.writeLong(timeInMicros);
+        out.writeByte(sentByClient ? SessionFile.SENT_BY_CLIENT : SessionFile.SENT_BY_SERVER);
+        out.writeByte(binary ? SessionFile.BINARY : SessionFile.TEXT);
+        out.writeInt(payload.length);
+        out.write(payload);
+        noOfRecords++;
+    }
+
+    public long getNoOfRecords() {
+        return noOfRecords;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Convert a message log with one tab separated message per line into a session file. A line is
+     * {@code <connection id> <time in ms> <send|receive> <text|binary> <payload>}, where the time may have a
+     * fraction, text payloads escape tab, new line, carriage return and backslash as {@code \t}, {@code \n},
+     * {@code \r} and {@code \\}, and binary payloads are base64 encoded. Empty lines and lines starting with
+     * {@code #} are skipped.
+     *
+     * @param messageLog message log to convert.
+     * @param sessionFile session file to write.
+     * @return no of converted messages.
+     * @throws IOException if the log cannot be read or has an invalid line.
+     */
+    public static long importMessageLog(Path messageLog, Path sessionFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(messageLog, StandardCharsets.UTF_8);
+             SessionFileWriter writer = new SessionFileWriter(sessionFile)) {
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t", 5);
+                if (fields.length < 5) {
+                    throw new IOException("Line " + lineNo + " of " + messageLog + " does not have 5 fields");
+                }
+                boolean sentByClient = parseChoice(fields[2], "send", "receive", lineNo, messageLog);
+                boolean binary = !parseChoice(fields[3], "text", "binary", lineNo, messageLog);
+                try {
+                    int connectionId = Integer.parseInt(fields[0].trim());
+                    long timeInMicros = Math.round(Double.parseDouble(fields[1].trim()) * 1000);
+                    byte[] payload = binary ? Base64.getDecoder().decode(fields[4].trim()) : unescape(fields[4]);
+                    writer.write(connectionId, timeInMicros, sentByClient, binary, payload);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid line " + lineNo + " of " + messageLog + ": " + e.getMessage());
+                }
+            }
+            return writer.getNoOfRecords();
+        }
+    }
+
+    private static boolean parseChoice(String field, String first, String second, int lineNo, Path messageLog)
+            throws IOException {
+        if (first.equalsIgnoreCase(field.trim())) {
+            return true;
+        } else if (second.equalsIgnoreCase(field.trim())) {
+            return false;
+        }
+        throw new IOException("Invalid line " + lineNo + " of " + messageLog + ": expected " + first + " or " +
+                                      second + " but found " + field);
+    }
+
+    private static byte[] unescape(String text) {
+        if (text.indexOf('\\') < 0) {
+            return text.getBytes(StandardCharsets.UTF_8);
+        }
+        StringBuilder unescaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char escaped = text.charAt(++i);
+                unescaped.append(escaped == 'n' ? '\n' : escaped == 't' ? '\t' : escaped == 'r' ? '\r' : escaped);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,124 @@
+package org.irunika.websocket.test.bench.scenario;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.irunika.websocket.test.bench.Checksums;
+import org.irunika.websocket.test.bench.PayloadTemplate;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A class of messages of a scenario, sent by its share of the connections.
+ * Payload sizes and think times are compiled into sampling tables, and the checksum of every payload size in the
+ * table is computed up front, so sampling a message on the send path is an array read.
+ *
+ * @author irunika
+ */
+public class MessageClass {
+
+    private final String name;
+    private final double share;
+    private final boolean binary;
+    private final SamplingTable sizes;
+    private final int[] checksums;
+    private final SamplingTable thinkTimes;
+    private final double messagesPerSecond;
+
+    /**
+     * @param name name of the class.
+     * @param share relative share of the connections which send this class.
+     * @param binary true if binary frames should be sent.
+     * @param sizes payload sizes in bytes, excluding the message header.
+     * @param thinkTimes think times between two messages of a connection in nanoseconds, null for none.
+     * @param messagesPerSecond open loop rate of a connection, 0 to send in a closed loop.
+     */
+    public MessageClass(String name, double share, boolean binary, SamplingTable sizes, SamplingTable thinkTimes,
+                        double messagesPerSecond) {
+        this.name = name;
+        this.share = share;
+        this.binary = binary;
+        this.sizes = sizes;
+        this.thinkTimes = thinkTimes;
+        this.messagesPerSecond = messagesPerSecond;
+        this.checksums = computeChecksums(sizes.getValues());
+    }
+
+    /**
+     * Checksums of the payloads of all the sizes, computed incrementally over one payload of the largest size.
+     */
+    private static int[] computeChecksums(long[] sizes) {
+        long[] sortedSizes = sizes.clone();
+        Arrays.sort(sortedSizes);
+        int maxSize = (int) sortedSizes[sortedSizes.length - 1];
+        byte[] payload = new byte[maxSize];
+        Arrays.fill(payload, PayloadTemplate.PAYLOAD_BYTE);
+        ByteBuf buffer = Unpooled.wrappedBuffer(payload);
+
+        long[] distinctSizes = new long[sortedSizes.length];
+        int[] distinctChecksums = new int[sortedSizes.length];
+        int noOfDistinctSizes = 0;
+        CRC32 crc = new CRC32();
+        int checkedLength = 0;
+        for (long size : sortedSizes) {
+            if (noOfDistinctSizes > 0 && distinctSizes[noOfDistinctSizes - 1] == size) {
+                continue;
+            }
+            Checksums.update(crc, buffer, checkedLength, (int) size - checkedLength);
+            checkedLength = (int) size;
+            distinctSizes[noOfDistinctSizes] = size;
+            distinctChecksums[noOfDistinctSizes] = (int) crc.getValue();
+            noOfDistinctSizes++;
+        }
+
+        int[] checksums = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            checksums[i] = distinctChecksums[Arrays.binarySearch(distinctSizes, 0, noOfDistinctSizes, sizes[i])];
+        }
+        return checksums;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getShare() {
+        return share;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public int getMaxSize() {
+        return (int) sizes.getMaxValue();
+    }
+
+    /**
+     * @param index running index of the sample.
+     * @return payload size in bytes.
+     */
+    public int getSize(int index) {
+        return (int) sizes.get(index);
+    }
+
+    /**
+     * @param index running index of the sample, the same as for {@link #getSize(int)}.
+     * @return CRC32 of the payload of the size.
+     */
+    public int getChecksum(int index) {
+        return checksums[index & (SamplingTable.SIZE - 1)];
+    }
+
+    /**
+     * @param index running index of the sample.
+     * @return think time in nanoseconds.
+     */
+    public long getThinkTime(int index) {
+        return thinkTimes != null ? thinkTimes.get(index) : 0;
+    }
+
+    public double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+}
@@ -0,0 +1,149 @@
+package org.irunika.websocket.test.bench.scenario;
+
+import com.beust.jcommander.ParameterException;
+
+import java.util.Random;
+
+/**
+ * Precomputed samples of a distribution.
+ * The table holds the quantiles of the distribution at evenly spaced probabilities in a shuffled order, so
+ * reading consecutive entries gives values with the distribution of the spec at the cost of an array read.
+ * <p>
+ * Supported specs, with values in the unit of the caller:
+ * <ul>
+ *     <li>{@code <value>} or {@code fixed:<value>}</li>
+ *     <li>{@code uniform:<min>:<max>}</li>
+ *     <li>{@code exponential:<mean>}</li>
+ *     <li>{@code pareto:<min>:<shape>}, for bursts of short values with a long tail</li>
+ *     <li>{@code weighted:<value>=<weight>,...}, eg: {@code weighted:100=0.9,16384=0.1}</li>
+ * </ul>
+ *
+ * @author irunika
+ */
+public class SamplingTable {
+
+    public static final int SIZE = 4096;
+    private static final int MASK = SIZE - 1;
+
+    private final long[] values;
+    private final long maxValue;
+
+    private SamplingTable(long[] values) {
+        this.values = values;
+        long max = 0;
+        for (long value : values) {
+            max = Math.max(max, value);
+        }
+        this.maxValue = max;
+    }
+
+    /**
+     * Compile a distribution spec into a table.
+     *
+     * @param spec distribution spec.
+     * @param scale factor which converts the values of the spec into the values of the table.
+     * @param seed seed of the shuffle.
+     * @return the compiled table.
+     */
+    public static SamplingTable compile(String spec, double scale, long seed) {
+        String[] parts = spec.trim().split(":", 2);
+        String type = parts.length == 2 ? parts[0].trim() : "fixed";
+        String parameters = parts[parts.length - 1].trim();
+        double[] cumulativeWeights = null;
+        double[] weightedValues = null;
+        if ("weighted".equals(type)) {
+            String[] entries = parameters.split(",");
+            cumulativeWeights = new double[entries.length];
+            weightedValues = new double[entries.length];
+            double totalWeight = 0;
+            for (int i = 0; i < entries.length; i++) {
+                String[] entry = entries[i].split("=");
+                if (entry.length != 2) {
+                    throw new ParameterException("Invalid weighted distribution: " + spec);
+                }
+                weightedValues[i] = parse(entry[0], spec);
+                totalWeight += parse(entry[1], spec);
+                cumulativeWeights[i] = totalWeight;
+            }
+            for (int i = 0; i < entries.length; i++) {
+                cumulativeWeights[i] /= totalWeight;
+            }
+        }
+        String[] arguments = parameters.split(":");
+
+        long[] values = new long[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            double probability = (i + 0.5) / SIZE;
+            double value;
+            switch (type) {
+                case "fixed":
+                    value = parse(arguments[0], spec);
+                    break;
+                case "uniform":
+                    checkArguments(arguments, 2, spec);
+                    double min = parse(arguments[0], spec);
+                    value = min + (parse(arguments[1], spec) - min) * probability;
+                    break;
+                case "exponential":
+                    value = -parse(arguments[0], spec) * Math.log(1 - probability);
+                    break;
+                case "pareto":
+                    checkArguments(arguments, 2, spec);
+                    value = parse(arguments[0], spec) / Math.pow(1 - probability, 1 / parse(arguments[1], spec));
+                    break;
+                case "weighted":
+                    int index = 0;
+                    while (cumulativeWeights[index] < probability && index < cumulativeWeights.length - 1) {
+                        index++;
+                    }
+                    value = weightedValues[index];
+                    break;
+                default:
+                    throw new ParameterException("Unknown distribution: " + spec);
+            }
+            if (value < 0) {
+                throw new ParameterException("Negative value in distribution: " + spec);
+            }
+            values[i] = Math.round(value * scale);
+        }
+
+        Random random = new Random(seed);
+        for (int i = SIZE - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+        return new SamplingTable(values);
+    }
+
+    /**
+     * @param index any index, eg: a running counter. It wraps around the table.
+     * @return the sample at the index.
+     */
+    public long get(int index) {
+        return values[index & MASK];
+    }
+
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    long[] getValues() {
+        return values;
+    }
+
+    private static void checkArguments(String[] arguments, int expected, String spec) {
+        if (arguments.length != expected) {
+            throw new ParameterException("Invalid distribution: " + spec);
+        }
+    }
+
+    private static double parse(String value, String spec) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ParameterException("Invalid distribution: " + spec);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.irunika.websocket.test.bench.scenario;
+
+import com.beust.jcommander.ParameterException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Workload made of weighted message classes, loaded from a properties file.
+ * <pre>
+ * classes = chat, upload
+ * chat.share = 0.9
+ * chat.size = uniform:50:500
+ * chat.think-time = exponential:1000
+ * upload.share = 0.1
+ * upload.frame = binary
+ * upload.size = weighted:16384=0.8,65536=0.2
+ * upload.rate = 2
+ * </pre>
+ * Each connection sends one class, chosen by the share of the class. Sizes are in bytes and think times in
+ * milliseconds, both as {@link SamplingTable} specs. A class with a rate (messages per second per connection)
+ * is sent in an open loop and its think time is ignored. Frames are text unless the frame is binary.
+ *
+ * @author irunika
+ */
+public class Scenario {
+
+    private final List<MessageClass> messageClasses;
+    private final double totalShare;
+    private final double[] currentWeights;
+    private final List<MessageClass> assignments = new ArrayList<>();
+
+    private Scenario(List<MessageClass> messageClasses) {
+        this.messageClasses = messageClasses;
+        double share = 0;
+        for (MessageClass messageClass : messageClasses) {
+            share += messageClass.getShare();
+        }
+        this.totalShare = share;
+        this.currentWeights = new double[messageClasses.size()];
+    }
+
+    /**
+     * Load and compile a scenario.
+     *
+     * @param file path of the scenario file.
+     * @return the compiled scenario.
+     * @throws IOException if the file cannot be read.
+     */
+    public static Scenario load(String file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        String classes = properties.getProperty("classes");
+        if (classes == null || classes.trim().isEmpty()) {
+            throw new ParameterException("No message classes in scenario " + file);
+        }
+
+        List<MessageClass> messageClasses = new ArrayList<>();
+        long seed = 0;
+        for (String name : classes.split(",")) {
+            name = name.trim();
+            double share = parseDouble(properties.getProperty(name + ".share", "1"), name + ".share");
+            String frame = properties.getProperty(name + ".frame", "text").trim();
+            if (!"text".equals(frame) && !"binary".equals(frame)) {
+                throw new ParameterException("Invalid frame type of " + name + ": " + frame);
+            }
+            String size = properties.getProperty(name + ".size");
+            if (size == null) {
+                throw new ParameterException("No size for message class " + name);
+            }
+            String thinkTime = properties.getProperty(name + ".think-time");
+            double rate = parseDouble(properties.getProperty(name + ".rate", "0"), name + ".rate");
+            if (share <= 0 || rate < 0) {
+                throw new ParameterException("Share and rate of " + name + " should be positive");
+            }
+            messageClasses.add(new MessageClass(
+                    name, share, "binary".equals(frame), SamplingTable.compile(size, 1, ++seed),
+                    thinkTime != null ? SamplingTable.compile(thinkTime, TimeUnit.MILLISECONDS.toNanos(1), ++seed) :
+                            null, rate));
+        }
+        return new Scenario(messageClasses);
+    }
+
+    /**
+     * Get the class sent by a connection. Classes are assigned to the client ids in smooth weighted round robin
+     * order, so the no of connections of a class in the first n client ids differs from its share of n by less
+     * than one connection.
+     *
+     * @param clientId id of the client.
+     * @return message class of the client.
+     */
+    public synchronized MessageClass getMessageClass(int clientId) {
+        while (assignments.size() <= clientId) {
+            int selected = 0;
+            for (int i = 0; i < currentWeights.length; i++) {
+                currentWeights[i] += messageClasses.get(i).getShare();
+                if (currentWeights[i] > currentWeights[selected]) {
+                    selected = i;
+                }
+            }
+            currentWeights[selected] -= totalShare;
+            assignments.add(messageClasses.get(selected));
+        }
+        return assignments.get(clientId);
+    }
+
+    public List<MessageClass> getMessageClasses() {
+        return Collections.unmodifiableList(messageClasses);
+    }
+
+    private static double parseDouble(String value, String key) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ParameterException("Invalid value of " + key + ": " + value);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.irunika.websocket.test.bench.server;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends every data frame to all the connections of the server, including the one it was received from.
+ * It is a local stand-in for a publish/subscribe server in fan-out tests. Connections join the group once their
+ * WebSocket upgrade is completed and leave it when they are closed. Each connection gets a retained duplicate of
+ * the frame, so the message is not copied. Fragmented messages are not supported, since the fragments of
+ * several senders would be interleaved. There is no back pressure: a slow connection buffers without bound.
+ *
+ * @author irunika
+ */
+@ChannelHandler.Sharable
+public class BroadcastServerHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(BroadcastServerHandler.class);
+
+    private final ChannelGroup channels;
+
+    /**
+     * @param channels group of the upgraded connections of the server.
+     */
+    public BroadcastServerHandler(ChannelGroup channels) {
+        this.channels = channels;
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            channels.add(ctx.channel());
+        }
+        ctx.fireUserEventTriggered(evt);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof WebSocketFrame) {
+            // The group writes a retained duplicate to each connection and releases the frame
+            channels.writeAndFlush(msg);
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.debug("Closing connection {}", ctx.channel().remoteAddress(), cause);
+        ctx.close();
+    }
+}
@@ -0,0 +1,144 @@
+package org.irunika.websocket.test.bench.server;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.irunika.websocket.test.bench.config.DeflateParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+
+/**
+ * WebSocket echo server which runs in the same artifact as the test bench.
+ * It gives a reference for the throughput the test bench can generate on a given machine and a local target to
+ * test the test bench itself. Connections are accepted on any path, over TLS if a TLS context is given. A single
+ * event loop group is shared by the acceptor and all the connections.
+ * <p>
+ * In broadcast mode every message is sent to all the connections instead of being echoed, which makes the server
+ * a target for fan-out tests.
+ *
+ * @author irunika
+ */
+public class EchoServer {
+
+    private static final Logger log = LoggerFactory.getLogger(EchoServer.class);
+
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private final int port;
+    private final int noOfThreads;
+    private final boolean useEpoll;
+    private final DeflateParameters deflateParameters;
+    private final SslContext sslContext;
+    private final boolean broadcast;
+    private EventLoopGroup eventLoopGroup;
+    private Channel serverChannel;
+
+    /**
+     * @param port port to listen on, 0 for any free port.
+     * @param noOfThreads no of event loop threads. 0 means Netty default which is twice the no of cores.
+     * @param useEpoll true if the native epoll transport should be used when it is available.
+     * @param deflateParameters permessage-deflate parameters to accept from the clients, null to not compress.
+     * @param sslContext TLS context to serve wss, null to serve ws.
+     * @param broadcast true to send every message to all the connections instead of echoing it.
+     */
+    public EchoServer(int port, int noOfThreads, boolean useEpoll, DeflateParameters deflateParameters,
+                      SslContext sslContext, boolean broadcast) {
+        this.port = port;
+        this.noOfThreads = noOfThreads > 0 ? noOfThreads : 0;
+        this.useEpoll = useEpoll;
+        this.deflateParameters = deflateParameters;
+        this.sslContext = sslContext;
+        this.broadcast = broadcast;
+    }
+
+    /**
+     * Start listening for connections.
+     *
+     * @return port the server is listening on.
+     * @throws InterruptedException if interrupted while binding. The event loop group is shut down if the bind
+     * fails, eg: when the port is in use.
+     */
+    public int start() throws InterruptedException {
+        Class<? extends ServerChannel> channelClass;
+        if (useEpoll && Epoll.isAvailable()) {
+            log.info("Using native epoll transport");
+            eventLoopGroup = new EpollEventLoopGroup(noOfThreads);
+            channelClass = EpollServerSocketChannel.class;
+        } else {
+            if (useEpoll) {
+                log.warn("Native epoll transport is not available, falling back to NIO: {}",
+                         Epoll.unavailabilityCause().getMessage());
+            }
+            eventLoopGroup = new NioEventLoopGroup(noOfThreads);
+            channelClass = NioServerSocketChannel.class;
+        }
+
+        ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+        ChannelHandler messageHandler = broadcast ? new BroadcastServerHandler(channels) : EchoServerHandler.INSTANCE;
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(eventLoopGroup).channel(channelClass)
+                .option(ChannelOption.SO_BACKLOG, 1024)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline p = ch.pipeline();
+                        if (sslContext != null) {
+                            p.addLast(sslContext.newHandler(ch.alloc()));
+                        }
+                        p.addLast(new HttpServerCodec(), new HttpObjectAggregator(65536));
+                        if (deflateParameters != null) {
+                            p.addLast(deflateParameters.newServerHandler());
+                        }
+                        p.addLast(new WebSocketServerProtocolHandler("/", null, true, MAX_FRAME_SIZE, false, true),
+                                  messageHandler);
+                    }
+                });
+        try {
+            serverChannel = b.bind(port).sync().channel();
+        } catch (Exception e) {
+            eventLoopGroup.shutdownGracefully();
+            throw e;
+        }
+        int boundPort = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+        log.info("{} server is listening for {} on port {}", broadcast ? "Broadcast" : "Echo",
+                 sslContext != null ? "wss" : "ws", boundPort);
+        return boundPort;
+    }
+
+    /**
+     * Wait until the server is stopped.
+     */
+    public void awaitTermination() throws InterruptedException {
+        serverChannel.closeFuture().sync();
+    }
+
+    public void stop() {
+        if (serverChannel != null) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        if (eventLoopGroup != null) {
+            eventLoopGroup.shutdownGracefully();
+        }
+    }
+}
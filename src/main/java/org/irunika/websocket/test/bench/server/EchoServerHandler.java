@@ -0,0 +1,58 @@
+package org.irunika.websocket.test.bench.server;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Echoes every data frame back to the client as is.
+ * The received frame, and with it the buffer it holds, is written back without copying and released by the
+ * encoder once it is written. Writes are flushed once per read batch. Reading is paused while the outbound
+ * buffer of the channel is above its high water mark, so a slow client cannot make the server buffer without
+ * bound. Ping and close frames are handled by the protocol handler in front of this one.
+ *
+ * @author irunika
+ */
+@ChannelHandler.Sharable
+public class EchoServerHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(EchoServerHandler.class);
+
+    public static final EchoServerHandler INSTANCE = new EchoServerHandler();
+
+    private EchoServerHandler() {
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof WebSocketFrame) {
+            ctx.write(msg, ctx.voidPromise());
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        ctx.flush();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (!ctx.channel().isWritable()) {
+            ctx.flush();
+        }
+        // The flush may have drained the buffer and already fired the writable event, so check again.
+        ctx.channel().config().setAutoRead(ctx.channel().isWritable());
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.debug("Closing connection {}", ctx.channel().remoteAddress(), cause);
+        ctx.close();
+    }
+}